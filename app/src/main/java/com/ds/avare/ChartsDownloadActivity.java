@@ -496,7 +496,7 @@ public class ChartsDownloadActivity extends Activity {
                     }
                     
                     if(mName.equals("conus")) {
-                        if(mPref.getLayerType().equals("NEXRAD")) {
+                        if(mPref.getLayerType().startsWith("NEXRAD")) {
                             mService.getRadarLayer().parse();
                         }
                     }
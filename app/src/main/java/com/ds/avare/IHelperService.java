@@ -19,20 +19,23 @@ import android.content.Intent;
 import android.content.ServiceConnection;
 import android.location.Location;
 import android.location.LocationManager;
-import android.os.Handler;
 import android.os.IBinder;
-import android.os.Message;
+import android.os.ParcelFileDescriptor;
 
+import com.ds.avare.adsb.AdsbChannel;
+import com.ds.avare.adsb.AdsbDispatcher;
+import com.ds.avare.adsb.Traffic;
 import com.ds.avare.instruments.CDI;
 import com.ds.avare.place.Destination;
 import com.ds.avare.place.Plan;
 import com.ds.avare.storage.Preferences;
 import com.ds.avare.utils.Helper;
 
-import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
+
 /**
  * This class exposes the remote service to the client.
  * The client will be the Avare Helper, sending data to Avare
@@ -41,7 +44,11 @@ import org.json.JSONObject;
 public class IHelperService extends Service {
 
     private StorageService mService;
-    private JSONObject mGeoAltitude;
+    private double mGeoAltitude;
+    private long mGeoAltitudeTime;
+    private AdsbChannel mChannel;
+    private AdsbDispatcher mDispatcher;
+    private Preferences mPref;
 
     public static final int MIN_ALTITUDE = -1000;
 
@@ -61,7 +68,7 @@ public class IHelperService extends Service {
              */
             StorageService.LocalBinder binder = (StorageService.LocalBinder)service;
             mService = binder.getService();
-            mGeoAltitude = null;
+            mGeoAltitudeTime = 0;
         }
 
         /* (non-Javadoc)
@@ -79,12 +86,22 @@ public class IHelperService extends Service {
     @Override
     public void onCreate() {       
         mService = null;
+        mPref = new Preferences(getApplicationContext());
+        mDispatcher = new AdsbDispatcher(mBatchListener);
+        mDispatcher.start();
         Intent intent = new Intent(this, StorageService.class);
         getApplicationContext().bindService(intent, mConnection, Context.BIND_AUTO_CREATE);
     }
 
     @Override
     public void onDestroy() {
+        synchronized(this) {
+            if(null != mChannel) {
+                mChannel.close();
+                mChannel = null;
+            }
+        }
+        mDispatcher.stop();
         getApplicationContext().unbindService(mConnection);
         mService = null;
     }
@@ -108,9 +125,25 @@ public class IHelperService extends Service {
              * This is where we are all messages
              * All messages are comma separated
              */
-            Message msg = mHandler.obtainMessage();
-            msg.obj = text;
-            mHandler.sendMessage(msg);
+            mDispatcher.offer(text);
+        }
+
+        @Override
+        /**
+         * Binary channel, see AdsbChannel. Only the latest opened channel is read.
+         */
+        public ParcelFileDescriptor openDataChannel() {
+            synchronized(IHelperService.this) {
+                if(null == mChannel) {
+                    mChannel = new AdsbChannel(mDispatcher);
+                }
+                try {
+                    return mChannel.open();
+                }
+                catch (IOException e) {
+                    return null;
+                }
+            }
         }
 
         @Override
@@ -181,163 +214,149 @@ public class IHelperService extends Service {
     };
     
     /**
-     * Posting a location hence do from UI thread
+     * Parsed and coalesced off UI thread, posting a location hence apply from UI thread
      */
-    private Handler mHandler = new Handler() {
+    private AdsbDispatcher.Listener mBatchListener = new AdsbDispatcher.Listener() {
         @Override
-        public void handleMessage(Message msg) {            
-
-            String text = (String)msg.obj;
-            
-            if(text == null || mService == null) {
+        public void onBatch(AdsbDispatcher.Batch batch) {
+            if(mService == null) {
                 return;
             }
-            
-            /*
-             * Get JSON
-             */
-            try {
-                JSONObject object = new JSONObject(text);
 
-                String type = object.getString("type");
-                if(type == null) {
-                    return;
-                }
-                else if(type.equals("traffic")) {
-                    mService.getTrafficCache().putTraffic(
-                            object.getString("callsign"),
-                            object.getInt("address"),
-                            (float)object.getDouble("latitude"),
-                            (float)object.getDouble("longitude"),
-                            object.getInt("altitude"),
-                            (float)object.getDouble("bearing"),
-                            (int)object.getInt("speed"),
-                            Helper.getMillisGMT()
-                            /*XXX:object.getLong("time")*/);
+            if(0 != batch.getGeoAltitudeTime()) {
+                putGeoAltitude(batch.getGeoAltitude(), batch.getGeoAltitudeTime());
+            }
+
+            AdsbDispatcher.Ownship o = batch.getOwnship();
+            if(null != o) {
+                putOwnship(o.getLongitude(), o.getLatitude(), o.getSpeed(), o.getBearing(),
+                        o.getAltitude(), o.getTime());
+            }
+
+            if(!batch.getTraffic().isEmpty()) {
+                for(Traffic t : batch.getTraffic()) {
+                    putTraffic(t);
                 }
-                else if(type.equals("geoaltitude")) {
-                    mGeoAltitude = object;
+                mService.getTrafficCache().setReceived(batch.getReceived());
+            }
+
+            for(AdsbDispatcher.Nexrad n : batch.getNexrad()) {
+                putNexrad(n.getTime(), n.getBlock(), n.getEmpty(), n.isConus(), n.getRuns(), n.getCols(), n.getRows());
+            }
+
+            for(AdsbDispatcher.Weather w : batch.getWeather()) {
+                switch(w.getType()) {
+                    case AdsbChannel.METAR:
+                        mService.getAdsbWeather().putMetar(w.getTime(), w.getLocation(), w.getData(), w.getFlightCategory());
+                        break;
+                    case AdsbChannel.TAF:
+                        mService.getAdsbWeather().putTaf(w.getTime(), w.getLocation(), w.getData());
+                        break;
+                    case AdsbChannel.WINDS:
+                        mService.getAdsbWeather().putWinds(w.getTime(), w.getLocation(), w.getData());
+                        break;
+                    case AdsbChannel.PIREP:
+                        mService.getAdsbWeather().putAirep(w.getTime(), w.getLocation(), w.getData(),
+                                mService.getDBResource());
+                        break;
                 }
-                else if(type.equals("ownship")) {
-                    Location l = new Location(LocationManager.GPS_PROVIDER);
-                    l.setLongitude(object.getDouble("longitude"));
-                    l.setLatitude(object.getDouble("latitude"));
-                    l.setSpeed((float) object.getDouble("speed"));
-                    l.setBearing((float) object.getDouble("bearing"));
-                    l.setTime(object.getLong("time"));
+            }
+        }
+    };
 
-                    // Choose most appropriate altitude. This is because people fly all sorts
-                    // of equipment with or without altitudes
-                    // convert all altitudes in feet
-                    double pressureAltitude = object.getDouble("altitude") * Preferences.heightConversion;
-                    double deviceAltitude = MIN_ALTITUDE;
-                    double geoAltitude = MIN_ALTITUDE;
-                    // If geo altitude from adsb available, use it if not too old
-                    if(mGeoAltitude != null) {
-                        long t1 = object.getLong("time");
-                        long t2 = mGeoAltitude.getLong("time");
-                        if((t1 - t2) < 10000) { // 10 seconds
-                            geoAltitude = mGeoAltitude.getDouble("altitude") * Preferences.heightConversion;
-                            if(geoAltitude < MIN_ALTITUDE) {
-                                geoAltitude = MIN_ALTITUDE;
-                            }
-                        }
-                    }
-                    // If geo altitude from device available, use it if not too old
-                    if(mService.getGpsParams() != null) {
-                        long t1 = System.currentTimeMillis();
-                        long t2 = mService.getGpsParams().getTime();
-                        if ((t1 - t2) < 10000) { // 10 seconds
-                            deviceAltitude = mService.getGpsParams().getAltitude();
-                            if(deviceAltitude < MIN_ALTITUDE) {
-                                deviceAltitude = MIN_ALTITUDE;
-                            }
-                        }
-                    }
+    /**
+     * 
+     */
+    private void putTraffic(Traffic t) {
+        mService.getTrafficCache().putTraffic(t);
+    }
 
-                    // choose best altitude. give preference to pressure altitude because that is
-                    // the most correct for traffic purpose.
-                    double alt = pressureAltitude;
-                    if(alt <= MIN_ALTITUDE) {
-                        alt = geoAltitude;
-                    }
-                    if(alt <= MIN_ALTITUDE) {
-                        alt = deviceAltitude;
-                    }
-                    if(alt <= MIN_ALTITUDE) {
-                        alt = MIN_ALTITUDE;
-                    }
+    /**
+     * 
+     */
+    private void putGeoAltitude(double altitude, long time) {
+        mGeoAltitude = altitude;
+        mGeoAltitudeTime = time;
+    }
 
-                    // set pressure altitude for traffic alerts
-                    mService.getTrafficCache().setOwnAltitude((int) alt);
+    /**
+     * 
+     */
+    private void putNexrad(long time, int block, int empty[], boolean conus, int runs[], int cols, int rows) {
+        /*
+         * Put in nexrad.
+         */
+        mService.getAdsbWeather().putImg(
+                time, block, empty, conus, runs, cols, rows);
+    }
 
-                    // For own height prefer geo altitude, do not use deviceAltitude here because
-                    // we could get into rising altitude condition through feedback
-                    alt = geoAltitude;
-                    if(alt <= MIN_ALTITUDE) {
-                        alt = pressureAltitude;
-                    }
-                    if(alt <= MIN_ALTITUDE) {
-                        alt = MIN_ALTITUDE;
-                    }
-                    l.setAltitude(alt / Preferences.heightConversion);
-                    mService.getGps().onLocationChanged(l, type);
-                }
-                else if(type.equals("nexrad")) {
-                    
-                    /*
-                     * XXX: If we are getting this from station, it must be current, fix this.
-                     */
-                    long time = Helper.getMillisGMT();//object.getLong("time");
-                    int cols = object.getInt("x");
-                    int rows = object.getInt("y");
-                    int block = object.getInt("blocknumber");
-                    boolean conus = object.getBoolean("conus");
-                    JSONArray emptyArray = object.getJSONArray("empty");
-                    JSONArray dataArray = object.getJSONArray("data");
-                    
-                    if(emptyArray == null || dataArray == null) {
-                        return;
-                    }
-                    int empty[] = new int[emptyArray.length()];
-                    for(int i = 0; i < empty.length; i++) {
-                        empty[i] = emptyArray.getInt(i);
-                    }
-                    int data[] = new int[dataArray.length()];
-                    for(int i = 0; i < data.length; i++) {
-                        data[i] = dataArray.getInt(i);
-                    }
-                    
-                    /*
-                     * Put in nexrad.
-                     */
-                    mService.getAdsbWeather().putImg(
-                            time, block, empty, conus, data, cols, rows);
-                }
-                else if(type.equals("METAR") || type.equals("SPECI")) {
-                    /*
-                     * Put METAR
-                     */
-                    mService.getAdsbWeather().putMetar(object.getLong("time"), 
-                            object.getString("location"), object.getString("data"), object.getString("flight_category"));
-                }
-                else if(type.equals("TAF") || type.equals("TAF.AMD")) {
-                    mService.getAdsbWeather().putTaf(object.getLong("time"), 
-                            object.getString("location"), object.getString("data"));
-                }
-                else if(type.equals("WINDS")) {
-                    mService.getAdsbWeather().putWinds(object.getLong("time"), 
-                            object.getString("location"), object.getString("data"));
+    /**
+     * 
+     */
+    private void putOwnship(double lon, double lat, float speed, float bearing, double altitude, long time) {
+        Location l = new Location(LocationManager.GPS_PROVIDER);
+        l.setLongitude(lon);
+        l.setLatitude(lat);
+        l.setSpeed(speed);
+        l.setBearing(bearing);
+        l.setTime(time);
+
+        // Choose most appropriate altitude. This is because people fly all sorts
+        // of equipment with or without altitudes
+        // convert all altitudes in feet
+        double pressureAltitude = altitude * Preferences.heightConversion;
+        double deviceAltitude = MIN_ALTITUDE;
+        double geoAltitude = MIN_ALTITUDE;
+        // If geo altitude from adsb available, use it if not too old
+        if(mGeoAltitudeTime != 0) {
+            long t1 = time;
+            long t2 = mGeoAltitudeTime;
+            if((t1 - t2) < 10000) { // 10 seconds
+                geoAltitude = mGeoAltitude * Preferences.heightConversion;
+                if(geoAltitude < MIN_ALTITUDE) {
+                    geoAltitude = MIN_ALTITUDE;
                 }
-                else if(type.equals("PIREP")) {
-                    mService.getAdsbWeather().putAirep(object.getLong("time"), 
-                            object.getString("location"), object.getString("data"),
-                            mService.getDBResource());
+            }
+        }
+        // If geo altitude from device available, use it if not too old
+        if(mService.getGpsParams() != null) {
+            long t1 = System.currentTimeMillis();
+            long t2 = mService.getGpsParams().getTime();
+            if ((t1 - t2) < 10000) { // 10 seconds
+                deviceAltitude = mService.getGpsParams().getAltitude();
+                if(deviceAltitude < MIN_ALTITUDE) {
+                    deviceAltitude = MIN_ALTITUDE;
                 }
-
-            } catch (JSONException e) {
-                return;
             }
         }
-    };
-}
\ No newline at end of file
+
+        // choose best altitude. give preference to pressure altitude because that is
+        // the most correct for traffic purpose.
+        double alt = pressureAltitude;
+        if(alt <= MIN_ALTITUDE) {
+            alt = geoAltitude;
+        }
+        if(alt <= MIN_ALTITUDE) {
+            alt = deviceAltitude;
+        }
+        if(alt <= MIN_ALTITUDE) {
+            alt = MIN_ALTITUDE;
+        }
+
+        // set pressure altitude for traffic alerts
+        mService.getTrafficCache().setOwnAltitude((int) alt);
+        mService.getTrafficConflicts().update(lon, lat, speed, bearing, alt, mPref.getAircraftICAOCode());
+
+        // For own height prefer geo altitude, do not use deviceAltitude here because
+        // we could get into rising altitude condition through feedback
+        alt = geoAltitude;
+        if(alt <= MIN_ALTITUDE) {
+            alt = pressureAltitude;
+        }
+        if(alt <= MIN_ALTITUDE) {
+            alt = MIN_ALTITUDE;
+        }
+        l.setAltitude(alt / Preferences.heightConversion);
+        mService.getGps().onLocationChanged(l, "ownship");
+    }
+}
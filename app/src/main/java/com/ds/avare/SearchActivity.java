@@ -632,8 +632,15 @@ public class SearchActivity extends Activity implements Observer {
             synchronized (SearchActivity.class) {
                 /*
                  * This is not to be done repeatedly with new text input so sync.
+                 * A search queued behind this lock for an older keystroke is dropped.
                  */
+                if(isCancelled()) {
+                    return false;
+                }
                 mService.getDBResource().search(srch, params, false);
+                if(isCancelled()) {
+                    return false;
+                }
                 mService.getUDWMgr().search(srch, params);			// From user defined points of interest
                 if(params.size() > 0) {
                     selection = new String[params.size()];
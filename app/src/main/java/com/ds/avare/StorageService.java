@@ -21,6 +21,7 @@ import android.os.Binder;
 import android.os.IBinder;
 
 import com.ds.avare.adsb.TrafficCache;
+import com.ds.avare.adsb.TrafficConflicts;
 import com.ds.avare.cap.DrawCapLines;
 import com.ds.avare.externalFlightPlan.ExternalPlanMgr;
 import com.ds.avare.flight.Checklist;
@@ -40,6 +41,7 @@ import com.ds.avare.instruments.VNAV;
 import com.ds.avare.instruments.VSI;
 import com.ds.avare.network.ShapeFetcher;
 import com.ds.avare.network.TFRFetcher;
+import com.ds.avare.network.TilePackConverter;
 import com.ds.avare.place.Area;
 import com.ds.avare.place.Destination;
 import com.ds.avare.place.Plan;
@@ -49,10 +51,12 @@ import com.ds.avare.shapes.Draw;
 import com.ds.avare.shapes.MetarLayer;
 import com.ds.avare.shapes.PixelDraw;
 import com.ds.avare.shapes.RadarLayer;
-import com.ds.avare.shapes.ShapeFileShape;
+import com.ds.avare.shapes.ShapeFileLayer;
+import com.ds.avare.shapes.ShapeIndex;
 import com.ds.avare.shapes.TFRShape;
 import com.ds.avare.shapes.TileMap;
 import com.ds.avare.storage.DataSource;
+import com.ds.avare.storage.Preferences;
 import com.ds.avare.userDefinedWaypoints.UDWMgr;
 import com.ds.avare.utils.BitmapHolder;
 import com.ds.avare.utils.InfoLines;
@@ -108,6 +112,8 @@ public class StorageService extends Service {
     private AdsbWeatherCache mAdsbWeatherCache;
     
     private TrafficCache mTrafficCache;
+
+    private TrafficConflicts mTrafficConflicts;
     
     private RadarLayer mRadarLayer;
     
@@ -296,6 +302,18 @@ public class StorageService extends Service {
          */
         mTiles = new TileMap(getApplicationContext());
 
+        /*
+         * Charts downloaded as loose tile files are moved to tile packs once, in background
+         */
+        final String maps = new Preferences(getApplicationContext()).mapsFolder();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Thread.currentThread().setName("TilePack");
+                TilePackConverter.convertAll(maps);
+            }
+        }).start();
+
         mInternetWeatherCache = new InternetWeatherCache();
         mInternetWeatherCache.parse(this);
         mTFRFetcher = new TFRFetcher(getApplicationContext());
@@ -309,6 +327,7 @@ public class StorageService extends Service {
         mDiagramBitmap = null;
         mAfdIndex = 0;
         mTrafficCache = new TrafficCache();
+        mTrafficConflicts = new TrafficConflicts(mTrafficCache);
         mLocationSem = new Mutex();
         mAdsbWeatherCache = new AdsbWeatherCache(getApplicationContext(), this);
         mLastPlateAirport = null;
@@ -539,6 +558,15 @@ public class StorageService extends Service {
         if(mTimer != null) {
             mTimer.cancel();
         }
+        if(mTrafficCache != null) {
+            mTrafficCache.stop();
+        }
+        if(mTrafficConflicts != null) {
+            mTrafficConflicts.stop();
+        }
+        if(mAdsbWeatherCache != null) {
+            mAdsbWeatherCache.stop();
+        }
         if(mGps != null) {
             mGps.stop();
         }
@@ -586,8 +614,8 @@ public class StorageService extends Service {
     /**
      * @return
      */
-    public LinkedList<ShapeFileShape> getShapeShapes() {
-        return mShapeFetcher.getShapes();
+    public ShapeFileLayer getShapeLayer() {
+        return mShapeFetcher.getLayer();
     }
 
     /**
@@ -597,6 +625,13 @@ public class StorageService extends Service {
         return mTFRFetcher.getShapes();
     }
 
+    /**
+     * @return
+     */
+    public ShapeIndex<TFRShape> getTFRShapeIndex() {
+        return mTFRFetcher.getShapeIndex();
+    }
+
     /**
      * @return
      */
@@ -975,6 +1010,14 @@ public class StorageService extends Service {
        return mTrafficCache; 
     }
 
+    /**
+     *
+     * @return
+     */
+    public TrafficConflicts getTrafficConflicts() {
+       return mTrafficConflicts;
+    }
+
     
     /**
      * 
@@ -320,13 +320,13 @@ public class ThreeDActivity extends Activity {
                                         protected Float doInBackground(Object... params) {
                                             // load tiles for elevation
                                             if(mTempBitmap != null) {
-                                                mTempBitmap.recycle();
+                                                mTempBitmap.release();
                                             }
-                                            mTempBitmap = new BitmapHolder((String)params[0], Bitmap.Config.ARGB_8888);
+                                            mTempBitmap = new BitmapHolder(mContext, mPref, (String)params[0], 1, Bitmap.Config.ARGB_8888);
                                             mVertices = Map.genTerrainFromBitmap(mTempBitmap.getBitmap());
-                                            mTempBitmap.recycle();
+                                            mTempBitmap.release();
                                             // load tiles for map/texture
-                                            mTempBitmap = new BitmapHolder((String)params[1]);
+                                            mTempBitmap = new BitmapHolder(mContext, mPref, (String)params[1], 1);
 
                                             return (Float)params[2];
                                         }
@@ -366,8 +366,8 @@ public class ThreeDActivity extends Activity {
                                         }
                                     };
                                     mLoadTask.execute(
-                                            mPref.mapsFolder() + "/" + mAreaMapper.getElevationTile().getName(),
-                                            mPref.mapsFolder() + "/" + mAreaMapper.getMapTile().getName(),
+                                            mAreaMapper.getElevationTile().getName(),
+                                            mAreaMapper.getMapTile().getName(),
                                             mAreaMapper.getTerrainRatio());
                                 }
                             }
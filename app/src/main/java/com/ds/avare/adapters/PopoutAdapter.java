@@ -33,7 +33,7 @@ import com.ds.avare.weather.Metar;
 import com.ds.avare.weather.Taf;
 import com.ds.avare.weather.WindsAloft;
 
-import java.util.LinkedList;
+import java.util.List;
 
 /**
  * @author zkhan
@@ -48,8 +48,8 @@ public class PopoutAdapter extends BaseExpandableListAdapter {
     
     private Metar mMetar;
     private Taf mTaf;
-    private LinkedList<Airep> mAirep;
-    private LinkedList<String> mFreq;
+    private List<Airep> mAirep;
+    private List<String> mFreq;
     private String mTfr;
     private String mSua;
     private String mPerformance;
@@ -0,0 +1,413 @@
+/*
+Copyright (c) 2015, Apps4Av Inc. (apps4av.com)
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+    * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+    *     * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+    *
+    *     THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.ds.avare.adsb;
+
+import android.os.ParcelFileDescriptor;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+
+/**
+ * Binary ADS-B channel from Avare Helper, a pipe of length prefixed records instead of one JSON
+ * string per AIDL call. Records are decoded on a reader thread, no JSON objects or boxed arrays.
+ *
+ * Record (big endian): int length of rest, byte type, fields of type.
+ * Strings are short length then UTF-8 bytes. Arrays are int count then values.
+ *
+ * TRAFFIC: string callsign, int address, float lat, float lon, int altitude, float bearing, int speed, long time
+ * OWNSHIP: double lon, double lat, float speed, float bearing, double altitude, long time
+ * GEOALTITUDE: double altitude, long time
+ * NEXRAD: long time, int block, byte conus, int cols, int rows, int[] empty, int[] data
+ * NEXRAD_RUNS: same as NEXRAD but int[] runs of (color, count) instead of data, as FIS-B sends them
+ * METAR/SPECI: long time, string location, string data, string flight category (empty if none)
+ * TAF, WINDS, PIREP: long time, string location, string data
+ *
+ * Unknown types are skipped so newer senders work with older readers.
+ *
+ * @author zkhan
+ */
+public class AdsbChannel {
+
+    public static final byte TRAFFIC = 1;
+    public static final byte OWNSHIP = 2;
+    public static final byte GEOALTITUDE = 3;
+    public static final byte NEXRAD = 4;
+    public static final byte METAR = 5;
+    public static final byte TAF = 6;
+    public static final byte WINDS = 7;
+    public static final byte PIREP = 8;
+    public static final byte NEXRAD_RUNS = 9;
+
+    /*
+     * Largest record accepted, anything bigger means stream is out of sync
+     */
+    private static final int MAX_RECORD = 1024 * 1024;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Gets decoded records, on reader thread
+     */
+    public interface Listener {
+        void onTraffic(String callsign, int address, float lat, float lon, int altitude, float bearing, int speed, long time);
+        void onOwnship(double lon, double lat, float speed, float bearing, double altitude, long time);
+        void onGeoAltitude(double altitude, long time);
+        void onNexrad(long time, int block, int empty[], boolean conus, int runs[], int cols, int rows);
+        void onMetar(long time, String location, String data, String flightCategory);
+        void onTaf(long time, String location, String data);
+        void onWinds(long time, String location, String data);
+        void onPirep(long time, String location, String data);
+    }
+
+    private Listener mListener;
+    private ParcelFileDescriptor mRead;
+    private Thread mThread;
+    private long mRecords;
+
+    /**
+     *
+     * @param listener
+     */
+    public AdsbChannel(Listener listener) {
+        mListener = listener;
+        mRecords = 0;
+    }
+
+    /**
+     * Make a pipe and start reading it.
+     * @return write end, for sender
+     * @throws IOException
+     */
+    public synchronized ParcelFileDescriptor open() throws IOException {
+        close();
+        ParcelFileDescriptor pipe[] = ParcelFileDescriptor.createPipe();
+        mRead = pipe[0];
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new ParcelFileDescriptor.AutoCloseInputStream(mRead), 64 * 1024));
+        mThread = new Thread() {
+            @Override
+            public void run() {
+                read(in);
+            }
+        };
+        mThread.setName("AdsbChannel");
+        mThread.setDaemon(true);
+        mThread.start();
+        return pipe[1];
+    }
+
+    /**
+     * Stop reading
+     */
+    public synchronized void close() {
+        if(null != mRead) {
+            try {
+                mRead.close();
+            }
+            catch (IOException e) {
+            }
+            mRead = null;
+        }
+        if(null != mThread) {
+            mThread.interrupt();
+            mThread = null;
+        }
+    }
+
+    /**
+     *
+     * @return records decoded so far
+     */
+    public synchronized long getRecordCount() {
+        return mRecords;
+    }
+
+    /**
+     * Reader loop, till sender closes its end or stream is corrupt
+     * @param in
+     */
+    private void read(DataInputStream in) {
+        byte buf[] = new byte[4096];
+        try {
+            while(!Thread.currentThread().isInterrupted()) {
+                int len = in.readInt();
+                if(len < 1 || len > MAX_RECORD) {
+                    break;
+                }
+                if(len > buf.length) {
+                    buf = new byte[len];
+                }
+                in.readFully(buf, 0, len);
+                ByteBuffer b = ByteBuffer.wrap(buf, 0, len);
+                b.order(ByteOrder.BIG_ENDIAN);
+                try {
+                    decode(b);
+                }
+                catch (RuntimeException e) {
+                    // bad record, skip it
+                }
+                catch (OutOfMemoryError e) {
+                    // record asked for more than it has room for, skip it
+                }
+                synchronized(this) {
+                    mRecords++;
+                }
+            }
+        }
+        catch (IOException e) {
+        }
+        try {
+            in.close();
+        }
+        catch (IOException e) {
+        }
+    }
+
+    /**
+     * Decode one record and give it to listener
+     * @param b
+     */
+    private void decode(ByteBuffer b) {
+        byte type = b.get();
+        switch(type) {
+            case TRAFFIC: {
+                String callsign = getString(b);
+                mListener.onTraffic(callsign, b.getInt(), b.getFloat(), b.getFloat(), b.getInt(), b.getFloat(), b.getInt(), b.getLong());
+                break;
+            }
+            case OWNSHIP:
+                mListener.onOwnship(b.getDouble(), b.getDouble(), b.getFloat(), b.getFloat(), b.getDouble(), b.getLong());
+                break;
+            case GEOALTITUDE:
+                mListener.onGeoAltitude(b.getDouble(), b.getLong());
+                break;
+            case NEXRAD: {
+                long time = b.getLong();
+                int block = b.getInt();
+                boolean conus = b.get() != 0;
+                int cols = b.getInt();
+                int rows = b.getInt();
+                int empty[] = getInts(b);
+                int data[] = getInts(b);
+                mListener.onNexrad(time, block, empty, conus, NexradBitmap.encode(data), cols, rows);
+                break;
+            }
+            case NEXRAD_RUNS: {
+                long time = b.getLong();
+                int block = b.getInt();
+                boolean conus = b.get() != 0;
+                int cols = b.getInt();
+                int rows = b.getInt();
+                int empty[] = getInts(b);
+                int runs[] = getInts(b);
+                mListener.onNexrad(time, block, empty, conus, runs, cols, rows);
+                break;
+            }
+            case METAR: {
+                long time = b.getLong();
+                String location = getString(b);
+                String data = getString(b);
+                String category = getString(b);
+                mListener.onMetar(time, location, data, category.length() == 0 ? null : category);
+                break;
+            }
+            case TAF: {
+                long time = b.getLong();
+                String location = getString(b);
+                mListener.onTaf(time, location, getString(b));
+                break;
+            }
+            case WINDS: {
+                long time = b.getLong();
+                String location = getString(b);
+                mListener.onWinds(time, location, getString(b));
+                break;
+            }
+            case PIREP: {
+                long time = b.getLong();
+                String location = getString(b);
+                mListener.onPirep(time, location, getString(b));
+                break;
+            }
+            default:
+                break;
+        }
+    }
+
+    private static String getString(ByteBuffer b) {
+        int len = b.getShort() & 0xFFFF;
+        if(len > b.remaining()) {
+            throw new IllegalArgumentException("Bad string");
+        }
+        String s = new String(b.array(), b.arrayOffset() + b.position(), len, UTF8);
+        b.position(b.position() + len);
+        return s;
+    }
+
+    private static int[] getInts(ByteBuffer b) {
+        int len = b.getInt();
+        if(len < 0 || len > b.remaining() / 4) {
+            throw new IllegalArgumentException("Bad array");
+        }
+        int ret[] = new int[len];
+        b.asIntBuffer().get(ret);
+        b.position(b.position() + len * 4);
+        return ret;
+    }
+
+    /**
+     * Encodes records, for the sender side and for replaying recorded data.
+     * Not thread safe.
+     */
+    public static class Writer {
+
+        private OutputStream mOut;
+        private ByteBuffer mBuffer;
+
+        /**
+         *
+         * @param out write end of the channel
+         */
+        public Writer(OutputStream out) {
+            mOut = new BufferedOutputStream(out, 64 * 1024);
+            mBuffer = ByteBuffer.allocate(4096);
+            mBuffer.order(ByteOrder.BIG_ENDIAN);
+        }
+
+        public void writeTraffic(String callsign, int address, float lat, float lon, int altitude, float bearing, int speed, long time) throws IOException {
+            start(TRAFFIC, 64);
+            putString(callsign);
+            mBuffer.putInt(address).putFloat(lat).putFloat(lon).putInt(altitude).putFloat(bearing).putInt(speed).putLong(time);
+            end();
+        }
+
+        public void writeOwnship(double lon, double lat, float speed, float bearing, double altitude, long time) throws IOException {
+            start(OWNSHIP, 48);
+            mBuffer.putDouble(lon).putDouble(lat).putFloat(speed).putFloat(bearing).putDouble(altitude).putLong(time);
+            end();
+        }
+
+        public void writeGeoAltitude(double altitude, long time) throws IOException {
+            start(GEOALTITUDE, 16);
+            mBuffer.putDouble(altitude).putLong(time);
+            end();
+        }
+
+        public void writeNexrad(long time, int block, int empty[], boolean conus, int data[], int cols, int rows) throws IOException {
+            start(NEXRAD, 32 + 4 * (empty.length + data.length));
+            mBuffer.putLong(time).putInt(block).put((byte)(conus ? 1 : 0)).putInt(cols).putInt(rows);
+            putInts(empty);
+            putInts(data);
+            end();
+        }
+
+        public void writeNexradRuns(long time, int block, int empty[], boolean conus, int runs[], int cols, int rows) throws IOException {
+            start(NEXRAD_RUNS, 32 + 4 * (empty.length + runs.length));
+            mBuffer.putLong(time).putInt(block).put((byte)(conus ? 1 : 0)).putInt(cols).putInt(rows);
+            putInts(empty);
+            putInts(runs);
+            end();
+        }
+
+        public void writeMetar(long time, String location, String data, String flightCategory) throws IOException {
+            // field is always there, reader maps empty back to null
+            writeText(METAR, time, location, data, null == flightCategory ? "" : flightCategory);
+        }
+
+        public void writeTaf(long time, String location, String data) throws IOException {
+            writeText(TAF, time, location, data, null);
+        }
+
+        public void writeWinds(long time, String location, String data) throws IOException {
+            writeText(WINDS, time, location, data, null);
+        }
+
+        public void writePirep(long time, String location, String data) throws IOException {
+            writeText(PIREP, time, location, data, null);
+        }
+
+        /**
+         * Send buffered records
+         * @throws IOException
+         */
+        public void flush() throws IOException {
+            mOut.flush();
+        }
+
+        public void close() throws IOException {
+            mOut.close();
+        }
+
+        /*
+         * extra is a fourth string for types that have one, null for types that do not
+         */
+        private void writeText(byte type, long time, String location, String data, String extra) throws IOException {
+            byte l[] = location.getBytes(UTF8);
+            byte d[] = data.getBytes(UTF8);
+            byte e[] = null == extra ? null : extra.getBytes(UTF8);
+            start(type, 16 + l.length + d.length + (null == e ? 0 : e.length));
+            mBuffer.putLong(time);
+            putBytes(l);
+            putBytes(d);
+            if(null != e) {
+                putBytes(e);
+            }
+            end();
+        }
+
+        private void start(byte type, int size) {
+            if(mBuffer.capacity() < size + 8) {
+                mBuffer = ByteBuffer.allocate(size + 8);
+                mBuffer.order(ByteOrder.BIG_ENDIAN);
+            }
+            mBuffer.clear();
+            mBuffer.putInt(0); // length, filled in end()
+            mBuffer.put(type);
+        }
+
+        private void end() throws IOException {
+            mBuffer.putInt(0, mBuffer.position() - 4);
+            mOut.write(mBuffer.array(), 0, mBuffer.position());
+        }
+
+        private void putString(String s) {
+            byte b[] = s.getBytes(UTF8);
+            if(mBuffer.remaining() < b.length + 64) {
+                ByteBuffer n = ByteBuffer.allocate(mBuffer.capacity() + b.length + 64);
+                n.order(ByteOrder.BIG_ENDIAN);
+                mBuffer.flip();
+                n.put(mBuffer);
+                mBuffer = n;
+            }
+            putBytes(b);
+        }
+
+        private void putBytes(byte b[]) {
+            int len = Math.min(b.length, 0xFFFF);
+            mBuffer.putShort((short)len);
+            mBuffer.put(b, 0, len);
+        }
+
+        private void putInts(int v[]) {
+            mBuffer.putInt(v.length);
+            mBuffer.asIntBuffer().put(v);
+            mBuffer.position(mBuffer.position() + v.length * 4);
+        }
+    }
+}
@@ -0,0 +1,720 @@
+/*
+Copyright (c) 2015, Apps4Av Inc. (apps4av.com)
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+    * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+    *     * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+    *
+    *     THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+
+package com.ds.avare.adsb;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+
+import com.ds.avare.utils.Helper;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Takes ADS-B messages off the UI thread. JSON strings and channel records go in a bounded queue,
+ * an ingest thread parses them and keeps only the newest update of each target and weather report,
+ * and NEXRAD records in arrival order, then hands a batch to the UI thread at most once per PUBLISH_MS.
+ * A new batch is not posted till the UI has taken the last one, updates coalesce meanwhile.
+ *
+ * Counts messages received, dropped (queue full or bad), and coalesced (replaced before published).
+ *
+ * @author zkhan
+ */
+public class AdsbDispatcher implements AdsbChannel.Listener {
+
+    /*
+     * Messages waiting to be parsed
+     */
+    private static final int QUEUE_SIZE = 1024;
+
+    /*
+     * Batches to UI at most this often, about display rate
+     */
+    private static final long PUBLISH_MS = 50;
+
+    /**
+     * Gets batches, on UI thread
+     */
+    public interface Listener {
+        void onBatch(Batch batch);
+    }
+
+    /**
+     * Ownship position
+     */
+    public static class Ownship {
+        private final double mLon;
+        private final double mLat;
+        private final float mSpeed;
+        private final float mBearing;
+        private final double mAltitude;
+        private final long mTime;
+
+        private Ownship(double lon, double lat, float speed, float bearing, double altitude, long time) {
+            mLon = lon;
+            mLat = lat;
+            mSpeed = speed;
+            mBearing = bearing;
+            mAltitude = altitude;
+            mTime = time;
+        }
+
+        public double getLongitude() {
+            return mLon;
+        }
+
+        public double getLatitude() {
+            return mLat;
+        }
+
+        public float getSpeed() {
+            return mSpeed;
+        }
+
+        public float getBearing() {
+            return mBearing;
+        }
+
+        public double getAltitude() {
+            return mAltitude;
+        }
+
+        public long getTime() {
+            return mTime;
+        }
+    }
+
+    /**
+     * One NEXRAD block
+     */
+    public static class Nexrad {
+        private final long mTime;
+        private final int mBlock;
+        private final int mEmpty[];
+        private final boolean mConus;
+        private final int mRuns[];
+        private final int mCols;
+        private final int mRows;
+
+        private Nexrad(long time, int block, int empty[], boolean conus, int runs[], int cols, int rows) {
+            mTime = time;
+            mBlock = block;
+            mEmpty = empty;
+            mConus = conus;
+            mRuns = runs;
+            mCols = cols;
+            mRows = rows;
+        }
+
+        public long getTime() {
+            return mTime;
+        }
+
+        public int getBlock() {
+            return mBlock;
+        }
+
+        public int[] getEmpty() {
+            return mEmpty;
+        }
+
+        public boolean isConus() {
+            return mConus;
+        }
+
+        /**
+         *
+         * @return (color, count) runs
+         */
+        public int[] getRuns() {
+            return mRuns;
+        }
+
+        public int getCols() {
+            return mCols;
+        }
+
+        public int getRows() {
+            return mRows;
+        }
+    }
+
+    /**
+     * METAR, TAF, winds, or PIREP text
+     */
+    public static class Weather {
+        private final byte mType;
+        private final long mTime;
+        private final String mLocation;
+        private final String mData;
+        private final String mFlightCategory;
+
+        private Weather(byte type, long time, String location, String data, String flightCategory) {
+            mType = type;
+            mTime = time;
+            mLocation = location;
+            mData = data;
+            mFlightCategory = flightCategory;
+        }
+
+        /**
+         *
+         * @return one of AdsbChannel.METAR, TAF, WINDS, PIREP
+         */
+        public byte getType() {
+            return mType;
+        }
+
+        public long getTime() {
+            return mTime;
+        }
+
+        public String getLocation() {
+            return mLocation;
+        }
+
+        public String getData() {
+            return mData;
+        }
+
+        public String getFlightCategory() {
+            return mFlightCategory;
+        }
+
+        /*
+         * Newer report of same kind for same place replaces older one. PIREPs are all kept.
+         */
+        private String getKey() {
+            if(AdsbChannel.PIREP == mType) {
+                return mType + mLocation + mTime + mData;
+            }
+            return mType + mLocation;
+        }
+    }
+
+    /**
+     * Updates collected since last batch. Not changed after it is published.
+     */
+    public static class Batch {
+        private final Collection<Traffic> mTraffic;
+        private final Ownship mOwnship;
+        private final double mGeoAltitude;
+        private final long mGeoAltitudeTime;
+        private final Collection<Nexrad> mNexrad;
+        private final Collection<Weather> mWeather;
+        private final long mReceived;
+
+        private Batch(Collection<Traffic> traffic, Ownship ownship, double geoAltitude, long geoAltitudeTime,
+                      Collection<Nexrad> nexrad, Collection<Weather> weather, long received) {
+            mTraffic = traffic;
+            mOwnship = ownship;
+            mGeoAltitude = geoAltitude;
+            mGeoAltitudeTime = geoAltitudeTime;
+            mNexrad = nexrad;
+            mWeather = weather;
+            mReceived = received;
+        }
+
+        /**
+         *
+         * @return newest update of each target
+         */
+        public Collection<Traffic> getTraffic() {
+            return mTraffic;
+        }
+
+        /**
+         *
+         * @return newest ownship, null if none
+         */
+        public Ownship getOwnship() {
+            return mOwnship;
+        }
+
+        public double getGeoAltitude() {
+            return mGeoAltitude;
+        }
+
+        /**
+         *
+         * @return 0 if no geo altitude in batch
+         */
+        public long getGeoAltitudeTime() {
+            return mGeoAltitudeTime;
+        }
+
+        /**
+         *
+         * @return NEXRAD records in arrival order, apply each one's clears then its data
+         */
+        public Collection<Nexrad> getNexrad() {
+            return mNexrad;
+        }
+
+        public Collection<Weather> getWeather() {
+            return mWeather;
+        }
+
+        /**
+         *
+         * @return SystemClock.elapsedRealtime() when oldest message in batch was received
+         */
+        public long getReceived() {
+            return mReceived;
+        }
+    }
+
+    /*
+     * A message with time it came in
+     */
+    private static class Item {
+        private final Object mRecord;
+        private final long mReceived;
+
+        private Item(Object record) {
+            mRecord = record;
+            mReceived = SystemClock.elapsedRealtime();
+        }
+    }
+
+    private static class GeoAltitude {
+        private final double mAltitude;
+        private final long mTime;
+
+        private GeoAltitude(double altitude, long time) {
+            mAltitude = altitude;
+            mTime = time;
+        }
+    }
+
+    private Listener mListener;
+    private Handler mHandler;
+    private ArrayBlockingQueue<Item> mQueue;
+    private Thread mThread;
+    private volatile boolean mPosted;
+
+    /*
+     * Pending updates, used on ingest thread only
+     */
+    private HashMap<Integer, Traffic> mTraffic;
+    private ArrayList<Nexrad> mNexrad;
+    private HashMap<Long, Integer> mNexradData;
+    private LinkedHashMap<String, Weather> mWeather;
+    private Ownship mOwnship;
+    private GeoAltitude mGeoAltitude;
+    private long mReceived;
+    private long mLastPublish;
+
+    private long mReceivedCount;
+    private long mDroppedCount;
+    private long mCoalescedCount;
+    private long mPublishedCount;
+
+    /**
+     *
+     * @param listener called on UI thread
+     */
+    public AdsbDispatcher(Listener listener) {
+        mListener = listener;
+        mHandler = new Handler(Looper.getMainLooper());
+        mQueue = new ArrayBlockingQueue<Item>(QUEUE_SIZE);
+        mTraffic = new HashMap<Integer, Traffic>();
+        mNexrad = new ArrayList<Nexrad>();
+        mNexradData = new HashMap<Long, Integer>();
+        mWeather = new LinkedHashMap<String, Weather>();
+        mPosted = false;
+        mReceived = 0;
+        mLastPublish = 0;
+    }
+
+    /**
+     * Start ingest thread
+     */
+    public synchronized void start() {
+        if(null != mThread) {
+            return;
+        }
+        mThread = new Thread() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_DISPLAY);
+                ingest();
+            }
+        };
+        mThread.setName("AdsbDispatcher");
+        mThread.setDaemon(true);
+        mThread.start();
+    }
+
+    /**
+     * Stop ingest thread, pending messages are lost
+     */
+    public synchronized void stop() {
+        if(null != mThread) {
+            mThread.interrupt();
+            mThread = null;
+        }
+        mQueue.clear();
+    }
+
+    /**
+     * A JSON message from Helper. Any thread.
+     * @param text
+     */
+    public void offer(String text) {
+        if(null != text) {
+            offerRecord(text);
+        }
+    }
+
+    /*
+     * Any thread
+     */
+    private void offerRecord(Object record) {
+        boolean added = mQueue.offer(new Item(record));
+        synchronized(this) {
+            mReceivedCount++;
+            if(!added) {
+                mDroppedCount++;
+            }
+        }
+    }
+
+    @Override
+    public void onTraffic(String callsign, int address, float lat, float lon, int altitude, float bearing, int speed, long time) {
+        // traffic is aged by receive time on both paths, see parse
+        offerRecord(new Traffic(callsign, address, lat, lon, altitude, bearing, speed, Helper.getMillisGMT()));
+    }
+
+    @Override
+    public void onOwnship(double lon, double lat, float speed, float bearing, double altitude, long time) {
+        offerRecord(new Ownship(lon, lat, speed, bearing, altitude, time));
+    }
+
+    @Override
+    public void onGeoAltitude(double altitude, long time) {
+        offerRecord(new GeoAltitude(altitude, time));
+    }
+
+    @Override
+    public void onNexrad(long time, int block, int[] empty, boolean conus, int[] runs, int cols, int rows) {
+        offerRecord(new Nexrad(time, block, empty, conus, runs, cols, rows));
+    }
+
+    @Override
+    public void onMetar(long time, String location, String data, String flightCategory) {
+        offerRecord(new Weather(AdsbChannel.METAR, time, location, data, flightCategory));
+    }
+
+    @Override
+    public void onTaf(long time, String location, String data) {
+        offerRecord(new Weather(AdsbChannel.TAF, time, location, data, null));
+    }
+
+    @Override
+    public void onWinds(long time, String location, String data) {
+        offerRecord(new Weather(AdsbChannel.WINDS, time, location, data, null));
+    }
+
+    @Override
+    public void onPirep(long time, String location, String data) {
+        offerRecord(new Weather(AdsbChannel.PIREP, time, location, data, null));
+    }
+
+    /*
+     * Ingest thread loop
+     */
+    private void ingest() {
+        while(!Thread.currentThread().isInterrupted()) {
+            long wait = PUBLISH_MS;
+            if(0 != mReceived && !mPosted) {
+                wait = Math.max(1, PUBLISH_MS - (SystemClock.elapsedRealtime() - mLastPublish));
+            }
+            Item item;
+            try {
+                item = mQueue.poll(wait, TimeUnit.MILLISECONDS);
+            }
+            catch (InterruptedException e) {
+                return;
+            }
+
+            /*
+             * Take all that came in, bounded by queue size
+             */
+            for(int taken = 1; null != item; taken++) {
+                merge(item);
+                item = taken < QUEUE_SIZE ? mQueue.poll() : null;
+            }
+
+            if(0 != mReceived && !mPosted &&
+                    (SystemClock.elapsedRealtime() - mLastPublish) >= PUBLISH_MS) {
+                publish();
+            }
+        }
+    }
+
+    /*
+     * Parse if needed and keep newest
+     */
+    private void merge(Item item) {
+        Object record = item.mRecord;
+        if(record instanceof String) {
+            record = parse((String)record);
+            if(null == record) {
+                synchronized(this) {
+                    mDroppedCount++;
+                }
+                return;
+            }
+        }
+
+        boolean coalesced = false;
+        if(record instanceof Traffic) {
+            Traffic t = (Traffic)record;
+            coalesced = null != mTraffic.put(t.mIcaoAddress, t);
+        }
+        else if(record instanceof Ownship) {
+            coalesced = null != mOwnship;
+            mOwnship = (Ownship)record;
+        }
+        else if(record instanceof GeoAltitude) {
+            coalesced = null != mGeoAltitude;
+            mGeoAltitude = (GeoAltitude)record;
+        }
+        else if(record instanceof Nexrad) {
+            coalesced = mergeNexrad((Nexrad)record);
+        }
+        else if(record instanceof Weather) {
+            Weather w = (Weather)record;
+            String key = w.getKey();
+            // remove first so a newer report moves to the end
+            coalesced = null != mWeather.remove(key);
+            mWeather.put(key, w);
+        }
+
+        if(coalesced) {
+            synchronized(this) {
+                mCoalescedCount++;
+            }
+        }
+        if(0 == mReceived || item.mReceived < mReceived) {
+            mReceived = item.mReceived;
+        }
+    }
+
+    /*
+     * NEXRAD records are applied in arrival order, clears then data of each, as they come.
+     * A data only record replaces an earlier data only one of the same block and product time,
+     * unless a clear came in between, which it would then land before.
+     * Return true if replaced.
+     */
+    private boolean mergeNexrad(Nexrad n) {
+        if(null != n.mEmpty && n.mEmpty.length > 0) {
+            // nothing before this can be replaced by what comes after
+            mNexradData.clear();
+            mNexrad.add(n);
+            return false;
+        }
+        long key = (n.mConus ? (1L << 32) : 0) | (n.mBlock & 0xFFFFFFFFL);
+        Integer at = mNexradData.get(key);
+        if(null != at && mNexrad.get(at).mTime == n.mTime) {
+            mNexrad.set(at, n);
+            return true;
+        }
+        mNexradData.put(key, mNexrad.size());
+        mNexrad.add(n);
+        return false;
+    }
+
+    /*
+     * Hand pending updates to UI
+     */
+    private void publish() {
+        final Batch batch = new Batch(
+                mTraffic.values(),
+                mOwnship,
+                null == mGeoAltitude ? 0 : mGeoAltitude.mAltitude,
+                null == mGeoAltitude ? 0 : mGeoAltitude.mTime,
+                mNexrad,
+                mWeather.values(),
+                mReceived);
+
+        // batch now owns these
+        mTraffic = new HashMap<Integer, Traffic>();
+        mNexrad = new ArrayList<Nexrad>();
+        mNexradData.clear();
+        mWeather = new LinkedHashMap<String, Weather>();
+        mOwnship = null;
+        mGeoAltitude = null;
+        mReceived = 0;
+        mLastPublish = SystemClock.elapsedRealtime();
+
+        mPosted = true;
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mListener.onBatch(batch);
+                }
+                finally {
+                    mPosted = false;
+                }
+            }
+        });
+        synchronized(this) {
+            mPublishedCount++;
+        }
+    }
+
+    /*
+     * JSON from Helper to a record
+     * @return null if not understood
+     */
+    private static Object parse(String text) {
+        try {
+            JSONObject object = new JSONObject(text);
+
+            String type = object.getString("type");
+            if(type == null) {
+                return null;
+            }
+            else if(type.equals("traffic")) {
+                /*
+                 * Traffic is aged against this device's clock, so it is stamped with receive time,
+                 * not the sender's time
+                 */
+                return new Traffic(
+                        object.getString("callsign"),
+                        object.getInt("address"),
+                        (float)object.getDouble("latitude"),
+                        (float)object.getDouble("longitude"),
+                        object.getInt("altitude"),
+                        (float)object.getDouble("bearing"),
+                        (int)object.getInt("speed"),
+                        Helper.getMillisGMT());
+            }
+            else if(type.equals("geoaltitude")) {
+                return new GeoAltitude(object.getDouble("altitude"), object.getLong("time"));
+            }
+            else if(type.equals("ownship")) {
+                return new Ownship(object.getDouble("longitude"), object.getDouble("latitude"),
+                        (float) object.getDouble("speed"), (float) object.getDouble("bearing"),
+                        object.getDouble("altitude"), object.getLong("time"));
+            }
+            else if(type.equals("nexrad")) {
+
+                int cols = object.getInt("x");
+                int rows = object.getInt("y");
+                int block = object.getInt("blocknumber");
+                boolean conus = object.getBoolean("conus");
+                JSONArray emptyArray = object.getJSONArray("empty");
+                // runs of (color, count) if sender has them, else all pixels
+                JSONArray runsArray = object.optJSONArray("runs");
+                JSONArray dataArray = null == runsArray ? object.getJSONArray("data") : null;
+
+                if(emptyArray == null || (runsArray == null && dataArray == null)) {
+                    return null;
+                }
+                int empty[] = new int[emptyArray.length()];
+                for(int i = 0; i < empty.length; i++) {
+                    empty[i] = emptyArray.getInt(i);
+                }
+                int runs[];
+                if(null != runsArray) {
+                    runs = new int[runsArray.length()];
+                    for(int i = 0; i < runs.length; i++) {
+                        runs[i] = runsArray.getInt(i);
+                    }
+                }
+                else {
+                    int data[] = new int[dataArray.length()];
+                    for(int i = 0; i < data.length; i++) {
+                        data[i] = dataArray.getInt(i);
+                    }
+                    runs = NexradBitmap.encode(data);
+                }
+
+                /*
+                 * Product time as on the binary path, radar loop frames go by it.
+                 * Older senders do not give it, then it must be current.
+                 */
+                long time = object.optLong("time", 0);
+                if(time <= 0) {
+                    time = Helper.getMillisGMT();
+                }
+                return new Nexrad(time, block, empty, conus, runs, cols, rows);
+            }
+            else if(type.equals("METAR") || type.equals("SPECI")) {
+                return new Weather(AdsbChannel.METAR, object.getLong("time"),
+                        object.getString("location"), object.getString("data"), object.getString("flight_category"));
+            }
+            else if(type.equals("TAF") || type.equals("TAF.AMD")) {
+                return new Weather(AdsbChannel.TAF, object.getLong("time"),
+                        object.getString("location"), object.getString("data"), null);
+            }
+            else if(type.equals("WINDS")) {
+                return new Weather(AdsbChannel.WINDS, object.getLong("time"),
+                        object.getString("location"), object.getString("data"), null);
+            }
+            else if(type.equals("PIREP")) {
+                return new Weather(AdsbChannel.PIREP, object.getLong("time"),
+                        object.getString("location"), object.getString("data"), null);
+            }
+        } catch (JSONException e) {
+        }
+        return null;
+    }
+
+    /**
+     *
+     * @return messages offered
+     */
+    public synchronized long getReceivedCount() {
+        return mReceivedCount;
+    }
+
+    /**
+     *
+     * @return messages dropped because queue was full or they could not be parsed
+     */
+    public synchronized long getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    /**
+     *
+     * @return messages replaced by a newer one before reaching UI
+     */
+    public synchronized long getCoalescedCount() {
+        return mCoalescedCount;
+    }
+
+    /**
+     *
+     * @return batches posted to UI
+     */
+    public synchronized long getPublishedCount() {
+        return mPublishedCount;
+    }
+}
@@ -0,0 +1,405 @@
+/*
+Copyright (c) 2015, Apps4Av Inc. (apps4av.com)
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+    * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+    *     * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+    *
+    *     THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+
+package com.ds.avare.adsb;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.util.SparseArray;
+
+import com.ds.avare.position.Origin;
+import com.ds.avare.utils.BitmapHolder;
+
+import java.util.LinkedList;
+
+/**
+ * Composites NEXRAD blocks into a few large tile bitmaps, one pixel per bin, so a whole product
+ * draws in one drawBitmapMesh() per tile instead of one drawBitmap() per block.
+ * Blocks are rasterized from their runs and written with bulk setPixels() when their tile is drawn;
+ * only blocks that changed since are written, or cleared when removed.
+ * Tile bitmaps exist only while on screen, blocks elsewhere stay run length encoded.
+ *
+ * An atlas can instead show a fixed Layout of blocks, as for frames of a radar loop. Switching
+ * layouts rewrites tiles from scratch arrays and does not allocate once tile bitmaps exist.
+ *
+ * Tiles are in lon/lat bins. The mesh puts each tile row band at its Epsg900913 y so latitude
+ * follows the map projection like everything else.
+ *
+ * Use from one thread.
+ *
+ * @author zkhan
+ */
+public class NexradAtlas {
+
+    /*
+     * Tile size, pixels
+     */
+    private static final int SIZE = 256;
+
+    /*
+     * Mesh rows per tile, latitude is straight line between them
+     */
+    private static final int MESH_ROWS = 16;
+
+    private double mScaleX;
+    private double mScaleY;
+    private SparseArray<Tile> mTiles;
+    private float mVerts[];
+    private int mZeros[];
+    private int mPixels[];
+
+    /**
+     * One tile bitmap and blocks on it
+     */
+    private static class Tile {
+        private int mX;
+        private int mY;
+        private BitmapHolder mBitmap;
+        private LinkedList<NexradBitmap> mBlocks;
+        private LinkedList<NexradBitmap> mPending;
+        private LinkedList<NexradBitmap> mCleared;
+        private Layout mShown;
+
+        private Tile(int x, int y) {
+            mX = x;
+            mY = y;
+            mBitmap = null;
+            mBlocks = new LinkedList<NexradBitmap>();
+            mPending = new LinkedList<NexradBitmap>();
+            mCleared = new LinkedList<NexradBitmap>();
+            mShown = null;
+        }
+    }
+
+    /**
+     * Blocks grouped by tile, made once for a set of blocks that does not change
+     */
+    public static class Layout {
+        private final int mKeys[];
+        private final NexradBitmap mBlocks[][];
+
+        private Layout(int keys[], NexradBitmap blocks[][]) {
+            mKeys = keys;
+            mBlocks = blocks;
+        }
+    }
+
+    /**
+     *
+     * @param scaleX minutes of longitude per pixel
+     * @param scaleY minutes of latitude per pixel
+     */
+    public NexradAtlas(double scaleX, double scaleY) {
+        mScaleX = scaleX;
+        mScaleY = scaleY;
+        mTiles = new SparseArray<Tile>();
+        mVerts = new float[2 * (MESH_ROWS + 1) * 2];
+        mZeros = new int[0];
+        mPixels = new int[0];
+    }
+
+    /**
+     * Group blocks by tile
+     * @param blocks
+     * @return
+     */
+    public static Layout layout(NexradBitmap blocks[]) {
+        SparseArray<LinkedList<NexradBitmap>> tiles = new SparseArray<LinkedList<NexradBitmap>>();
+        for(NexradBitmap b : blocks) {
+            if(null == b.getRuns()) {
+                continue;
+            }
+            int x = b.getX();
+            int y = b.getY();
+            for(int tx = x / SIZE; tx <= (x + b.getCols() - 1) / SIZE; tx++) {
+                for(int ty = y / SIZE; ty <= (y + b.getRows() - 1) / SIZE; ty++) {
+                    int key = getKey(tx, ty);
+                    LinkedList<NexradBitmap> list = tiles.get(key);
+                    if(null == list) {
+                        list = new LinkedList<NexradBitmap>();
+                        tiles.put(key, list);
+                    }
+                    list.add(b);
+                }
+            }
+        }
+        int keys[] = new int[tiles.size()];
+        NexradBitmap out[][] = new NexradBitmap[tiles.size()][];
+        for(int i = 0; i < keys.length; i++) {
+            keys[i] = tiles.keyAt(i);
+            LinkedList<NexradBitmap> list = tiles.valueAt(i);
+            out[i] = list.toArray(new NexradBitmap[list.size()]);
+        }
+        return new Layout(keys, out);
+    }
+
+    /**
+     * Add a block
+     * @param b
+     */
+    public void put(NexradBitmap b) {
+        if(null == b.getRuns()) {
+            return;
+        }
+        int x = b.getX();
+        int y = b.getY();
+        for(int tx = x / SIZE; tx <= (x + b.getCols() - 1) / SIZE; tx++) {
+            for(int ty = y / SIZE; ty <= (y + b.getRows() - 1) / SIZE; ty++) {
+                Tile t = getTile(tx, ty);
+                t.mBlocks.add(b);
+                if(null != t.mBitmap) {
+                    t.mPending.add(b);
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove a block put earlier
+     * @param b
+     */
+    public void remove(NexradBitmap b) {
+        int x = b.getX();
+        int y = b.getY();
+        for(int tx = x / SIZE; tx <= (x + b.getCols() - 1) / SIZE; tx++) {
+            for(int ty = y / SIZE; ty <= (y + b.getRows() - 1) / SIZE; ty++) {
+                int key = getKey(tx, ty);
+                Tile t = mTiles.get(key);
+                if(null == t || !t.mBlocks.remove(b)) {
+                    continue;
+                }
+                t.mPending.remove(b);
+                if(t.mBlocks.isEmpty()) {
+                    if(null != t.mBitmap) {
+                        t.mBitmap.recycle();
+                    }
+                    mTiles.remove(key);
+                }
+                else if(null != t.mBitmap) {
+                    t.mCleared.add(b);
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove all blocks and free bitmaps
+     */
+    public void clear() {
+        for(int i = 0; i < mTiles.size(); i++) {
+            Tile t = mTiles.valueAt(i);
+            if(null != t.mBitmap) {
+                t.mBitmap.recycle();
+            }
+        }
+        mTiles.clear();
+    }
+
+    /**
+     *
+     * @return number of tile bitmaps now in memory
+     */
+    public int getBitmapCount() {
+        int count = 0;
+        for(int i = 0; i < mTiles.size(); i++) {
+            if(null != mTiles.valueAt(i).mBitmap) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Draw tiles on screen
+     * @param canvas
+     * @param paint
+     * @param origin
+     * @param alpha
+     */
+    public void draw(Canvas canvas, Paint paint, Origin origin, int alpha) {
+        paint.setAlpha(alpha);
+        for(int i = 0; i < mTiles.size(); i++) {
+            Tile t = mTiles.valueAt(i);
+            if(!isOnScreen(t, origin)) {
+                if(null != t.mBitmap) {
+                    // off screen, give memory back, runs are enough to make it again
+                    t.mBitmap.recycle();
+                    t.mBitmap = null;
+                    t.mPending.clear();
+                    t.mCleared.clear();
+                }
+                continue;
+            }
+
+            Bitmap bitmap = update(t);
+            if(null != bitmap) {
+                drawTile(canvas, paint, origin, t, bitmap);
+            }
+        }
+        paint.setAlpha(255);
+    }
+
+    /**
+     * Draw a fixed set of blocks. Tile bitmaps are kept for next layout, clear() frees them.
+     * @param canvas
+     * @param paint
+     * @param origin
+     * @param alpha
+     * @param layout
+     */
+    public void draw(Canvas canvas, Paint paint, Origin origin, int alpha, Layout layout) {
+        paint.setAlpha(alpha);
+        for(int i = 0; i < layout.mKeys.length; i++) {
+            int key = layout.mKeys[i];
+            Tile t = getTile(key >> 16, key & 0xFFFF);
+            if(!isOnScreen(t, origin)) {
+                continue;
+            }
+            if(null == t.mBitmap) {
+                t.mBitmap = new BitmapHolder(SIZE, SIZE);
+                if(null == t.mBitmap.getBitmap()) {
+                    t.mBitmap = null;
+                    continue;
+                }
+                t.mShown = null;
+            }
+            Bitmap bitmap = t.mBitmap.getBitmap();
+            if(t.mShown != layout) {
+                bitmap.eraseColor(0);
+                NexradBitmap blocks[] = layout.mBlocks[i];
+                for(int b = 0; b < blocks.length; b++) {
+                    write(bitmap, t, blocks[b], false);
+                }
+                t.mShown = layout;
+            }
+            drawTile(canvas, paint, origin, t, bitmap);
+        }
+        paint.setAlpha(255);
+    }
+
+    /*
+     * Tile, made if not there
+     */
+    private Tile getTile(int tx, int ty) {
+        int key = getKey(tx, ty);
+        Tile t = mTiles.get(key);
+        if(null == t) {
+            t = new Tile(tx, ty);
+            mTiles.put(key, t);
+        }
+        return t;
+    }
+
+    private boolean isOnScreen(Tile t, Origin origin) {
+        return !(getLon((t.mX + 1) * SIZE) < origin.getLonScreenLeft() ||
+                getLon(t.mX * SIZE) > origin.getLonScreenRight() ||
+                getLat((t.mY + 1) * SIZE) > origin.getLatScreenTop() ||
+                getLat(t.mY * SIZE) < origin.getLatScreenBot());
+    }
+
+    /*
+     * Mesh with rows at projected latitudes
+     */
+    private void drawTile(Canvas canvas, Paint paint, Origin origin, Tile t, Bitmap bitmap) {
+        double latTop = getLat(t.mY * SIZE);
+        double latBottom = getLat((t.mY + 1) * SIZE);
+        float x0 = (float)origin.getOffsetX(getLon(t.mX * SIZE));
+        float x1 = (float)origin.getOffsetX(getLon((t.mX + 1) * SIZE));
+        for(int row = 0; row <= MESH_ROWS; row++) {
+            float y = (float)origin.getOffsetY(latTop + (latBottom - latTop) * row / MESH_ROWS);
+            int i = row * 4;
+            mVerts[i] = x0;
+            mVerts[i + 1] = y;
+            mVerts[i + 2] = x1;
+            mVerts[i + 3] = y;
+        }
+        canvas.drawBitmapMesh(bitmap, 1, MESH_ROWS, mVerts, 0, null, 0, paint);
+    }
+
+    /*
+     * Make tile bitmap if needed and write changed blocks to it
+     * @return null if no memory
+     */
+    private Bitmap update(Tile t) {
+        if(null == t.mBitmap) {
+            t.mBitmap = new BitmapHolder(SIZE, SIZE);
+            if(null == t.mBitmap.getBitmap()) {
+                t.mBitmap = null;
+                return null;
+            }
+            // new bitmap is clear, write all
+            t.mCleared.clear();
+            t.mPending.clear();
+            t.mPending.addAll(t.mBlocks);
+        }
+        Bitmap bitmap = t.mBitmap.getBitmap();
+
+        for(NexradBitmap b : t.mCleared) {
+            write(bitmap, t, b, true);
+        }
+        t.mCleared.clear();
+        for(NexradBitmap b : t.mPending) {
+            write(bitmap, t, b, false);
+        }
+        t.mPending.clear();
+        return bitmap;
+    }
+
+    /*
+     * Write part of block that falls on tile, or clear it
+     */
+    private void write(Bitmap bitmap, Tile t, NexradBitmap b, boolean clear) {
+        int cols = b.getCols();
+        int bx = b.getX() - t.mX * SIZE;
+        int by = b.getY() - t.mY * SIZE;
+        int x0 = Math.max(0, bx);
+        int y0 = Math.max(0, by);
+        int x1 = Math.min(SIZE, bx + cols);
+        int y1 = Math.min(SIZE, by + b.getRows());
+        if(x1 <= x0 || y1 <= y0) {
+            return;
+        }
+
+        if(clear) {
+            int w = x1 - x0;
+            if(mZeros.length < w * (y1 - y0)) {
+                mZeros = new int[w * (y1 - y0)];
+            }
+            bitmap.setPixels(mZeros, 0, w, x0, y0, w, y1 - y0);
+            return;
+        }
+        if(mPixels.length < cols * b.getRows()) {
+            mPixels = new int[cols * b.getRows()];
+        }
+        if(!b.rasterize(mPixels)) {
+            return;
+        }
+        bitmap.setPixels(mPixels, (y0 - by) * cols + (x0 - bx), cols, x0, y0, x1 - x0, y1 - y0);
+    }
+
+    private double getLon(int x) {
+        return x * mScaleX / 60.0 - 180.0;
+    }
+
+    private double getLat(int y) {
+        return 90.0 - y * mScaleY / 60.0;
+    }
+
+    /*
+     * Tile indices are under 2^16 at these scales
+     */
+    private static int getKey(int tx, int ty) {
+        return (tx << 16) | ty;
+    }
+}
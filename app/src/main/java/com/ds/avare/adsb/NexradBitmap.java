@@ -11,25 +11,37 @@ Redistribution and use in source and binary forms, with or without modification,
 */
 package com.ds.avare.adsb;
 
-import android.graphics.Canvas;
-import android.graphics.Paint;
-import android.util.SparseArray;
-
-import com.ds.avare.position.Origin;
 import com.ds.avare.shapes.DrawingContext;
-import com.ds.avare.storage.Preferences;
-import com.ds.avare.utils.BitmapHolder;
 
 /**
- * 
+ * One NEXRAD block, its place and pixels. Pixels are kept run length encoded as received, runs of
+ * (color, count) in row order, and made into pixels only when drawn through NexradAtlas.
+ *
  * @author zkhan
  *
  */
 public class NexradBitmap {
+
+    /*
+     * Minutes per pixel
+     */
+    public static final double SCALE_X = 1.5;
+    public static final double SCALE_Y = 1;
+    public static final double SCALE_X_CONUS = 7.5;
+    public static final double SCALE_Y_CONUS = 5;
+
+    /*
+     * FIS-B NEXRAD block size, bins
+     */
+    public static final int BLOCK_COLS = 32;
+    public static final int BLOCK_ROWS = 4;
+
     private double mCoords[];
     private double mScaleX;
     private double mScaleY;
-    private BitmapHolder mBitmap;
+    private int mRuns[];
+    private int mCols;
+    private int mRows;
     
     public long timestamp;
     /**
@@ -73,10 +85,10 @@ public class NexradBitmap {
 
     /**
      * 
-     * @param data
+     * @param runs (color, count) pairs
      * @param block
      */
-    public NexradBitmap(long time, int data[], int block, boolean conus, int cols, int rows) {
+    public NexradBitmap(long time, int runs[], int block, boolean conus, int cols, int rows) {
        
         timestamp = System.currentTimeMillis();
         mCoords = new double[2];
@@ -85,40 +97,106 @@ public class NexradBitmap {
          * Scales are in minutes as well.
          */
         if(conus) {
-            mScaleX = 7.5;
-            mScaleY = 5;
+            mScaleX = SCALE_X_CONUS;
+            mScaleY = SCALE_Y_CONUS;
         }
         else {
-            mScaleX = 1.5;
-            mScaleY = 1;
+            mScaleX = SCALE_X;
+            mScaleY = SCALE_Y;
         }
         convertBlockNumberToLatLon(block, mCoords);
-        
+
         /*
-         * If empty block, do not waste bitmap memory
+         * If empty or malformed block, do not waste memory
          */
-        if(null == data) {
-            return;        
+        if(!isValid(runs, cols, rows)) {
+            return;
+        }
+        mCols = cols;
+        mRows = rows;
+        mRuns = runs;
+    }
+
+    /**
+     * Block is no bigger than FIS-B sends and runs cover it exactly
+     * @param runs (color, count) pairs
+     * @param cols
+     * @param rows
+     * @return
+     */
+    public static boolean isValid(int runs[], int cols, int rows) {
+        if(null == runs || cols <= 0 || rows <= 0 || cols > BLOCK_COLS || rows > BLOCK_ROWS) {
+            return false;
+        }
+        return getLength(runs) == (long)cols * (long)rows;
+    }
+
+    /**
+     * Run length encode pixels
+     * @param data
+     * @return (color, count) pairs
+     */
+    public static int[] encode(int data[]) {
+        int n = 0;
+        for(int i = 0; i < data.length; i++) {
+            if(0 == i || data[i] != data[i - 1]) {
+                n++;
+            }
+        }
+        int runs[] = new int[n * 2];
+        int r = -2;
+        for(int i = 0; i < data.length; i++) {
+            if(0 == i || data[i] != data[i - 1]) {
+                r += 2;
+                runs[r] = data[i];
+            }
+            runs[r + 1]++;
+        }
+        return runs;
+    }
+
+    /*
+     * Pixels in runs, -1 if malformed
+     */
+    private static long getLength(int runs[]) {
+        if(0 != (runs.length & 1)) {
+            return -1;
+        }
+        long length = 0;
+        for(int i = 1; i < runs.length; i += 2) {
+            if(runs[i] < 0) {
+                return -1;
+            }
+            length += runs[i];
         }
-        else if(data.length < cols * rows) {
-            return;            
+        return length;
+    }
+
+    /**
+     * Make pixels from runs
+     * @param out at least cols * rows long
+     * @return false if no pixels
+     */
+    public boolean rasterize(int out[]) {
+        int runs[] = mRuns;
+        if(null == runs) {
+            return false;
         }
-        mBitmap = new BitmapHolder(cols, rows); // this creates a MUTABLE bitmap
-        for(int row = 0; row < rows; row++) {
-            for(int col = 0; col < cols; col++) {
-                mBitmap.getBitmap().setPixel(col, row, data[col + row * cols]);
+        int p = 0;
+        for(int i = 0; i < runs.length; i += 2) {
+            int color = runs[i];
+            for(int end = p + runs[i + 1]; p < end; p++) {
+                out[p] = color;
             }
         }
+        return true;
     }
     
     /**
      * 
      */
     public void discard() {
-        if(mBitmap != null) {
-            mBitmap.recycle();
-            mBitmap = null;
-        }
+        mRuns = null;
     }
     
     /**
@@ -142,7 +220,7 @@ public class NexradBitmap {
      * @return
      */
     public double getLatBottomRight() {
-        return mCoords[1] - mScaleY * mBitmap.getHeight() / 60.0;
+        return mCoords[1] - mScaleY * mRows / 60.0;
     }
 
     /**
@@ -150,47 +228,41 @@ public class NexradBitmap {
      * @return
      */
     public double getLonBottomRight() {
-        return mCoords[0] + mScaleX * mBitmap.getWidth() / 60.0;
+        return mCoords[0] + mScaleX * mCols / 60.0;
     }
 
     /**
-     * 
-     * @return
+     *
+     * @return (color, count) runs, null if no pixels
      */
-    public BitmapHolder getBitmap() {
-        return mBitmap;
+    public int[] getRuns() {
+        return mRuns;
     }
 
+    public int getCols() {
+        return mCols;
+    }
+
+    public int getRows() {
+        return mRows;
+    }
 
     /**
-     * Draw on map screen
+     * Pixel column of left edge in a world of SCALE_X pixels
+     * @return
      */
-    public void drawOne(Canvas canvas, Paint paint, Origin origin, Preferences pref) {
-        if(null == mBitmap) {
-            return;
-        }
-
-        /*
-         * draw them scaled.
-         */
-        float x0 = (float)origin.getOffsetX(getLonTopLeft());
-        float y0 = (float)origin.getOffsetY(getLatTopLeft());
-        float x1 = (float)origin.getOffsetX(getLonBottomRight());
-        float y1 = (float)origin.getOffsetY(getLatBottomRight());
-
-        float scalex = (x1 - x0) / mBitmap.getWidth();
-        float scaley = (y1 - y0) / mBitmap.getHeight();
-
-        mBitmap.getTransform().setScale(scalex, scaley);
-        mBitmap.getTransform().postTranslate(x0, y1);
-        if(mBitmap.getBitmap() != null) {
-            paint.setAlpha(pref.showLayer());
-            canvas.drawBitmap(mBitmap.getBitmap(), mBitmap.getTransform(), paint);
-            paint.setAlpha(255);
-        }
-
+    public int getX() {
+        return (int)Math.round((getLonTopLeft() + 180.0) * 60.0 / mScaleX);
     }
 
+    /**
+     * Pixel row of top edge in a world of SCALE_Y pixels, north at 0.
+     * Block is drawn below its bottom latitude, same place as it always was.
+     * @return
+     */
+    public int getY() {
+        return (int)Math.round((90.0 - getLatBottomRight()) * 60.0 / mScaleY);
+    }
 
     /**
      *
@@ -198,8 +270,9 @@ public class NexradBitmap {
      * @param nexrad
      * @param conus
      * @param shouldDraw
+     * @param player if playing, shows frames of radar loop
      */
-    public static void draw(DrawingContext ctx, NexradImage nexrad, NexradImageConus conus, boolean shouldDraw) {
+    public static void draw(DrawingContext ctx, NexradImage nexrad, NexradImageConus conus, boolean shouldDraw, NexradPlayer player) {
         if(0 == ctx.pref.showLayer() || (!shouldDraw) || (!ctx.pref.useAdsbWeather())) {
             // This shows only for nexrad layer, and when adsb is used
             return;
@@ -213,7 +286,13 @@ public class NexradBitmap {
                 /*
                  * CONUS for larger scales.
                  */
-                drawImage(conus.getImages(), ctx);
+                NexradLoop.Frame f = null == player ? null : player.getFrame(conus.getLoop());
+                if(null != f) {
+                    conus.getPlayback().draw(ctx.canvas, ctx.paint, ctx.origin, ctx.pref.showLayer(), f.getLayout());
+                }
+                else {
+                    conus.getAtlas().draw(ctx.canvas, ctx.paint, ctx.origin, ctx.pref.showLayer());
+                }
             }
         }
         else {
@@ -221,23 +300,13 @@ public class NexradBitmap {
                 /*
                  * Draw high res over low res
                  */
-                drawImage(nexrad.getImages(), ctx);
-            }
-        }
-    }
-
-    /**
-     * Draw block by block
-     * @param bitmaps
-     * @param ctx
-     */
-    private static void drawImage(SparseArray<NexradBitmap> bitmaps, DrawingContext ctx) {
-        if (null != bitmaps) {
-            // Draw all nexrad blocks
-            for (int i = 0; i < bitmaps.size(); i++) {
-                int key = bitmaps.keyAt(i);
-                NexradBitmap b = bitmaps.get(key);
-                b.drawOne(ctx.canvas, ctx.paint, ctx.origin, ctx.pref);
+                NexradLoop.Frame f = null == player ? null : player.getFrame(nexrad.getLoop());
+                if(null != f) {
+                    nexrad.getPlayback().draw(ctx.canvas, ctx.paint, ctx.origin, ctx.pref.showLayer(), f.getLayout());
+                }
+                else {
+                    nexrad.getAtlas().draw(ctx.canvas, ctx.paint, ctx.origin, ctx.pref.showLayer());
+                }
             }
         }
     }
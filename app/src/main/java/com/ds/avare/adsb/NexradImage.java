@@ -28,6 +28,12 @@ public class NexradImage {
     
     private static final long EXPIRES = 1000 * 60 * 60 * 2; // 2 hours
 
+    /*
+     * Radar loop, a frame per product and memory cap for frames
+     */
+    private static final long LOOP_FRAME_MS = 1000 * 60 * 5;
+    private static final long LOOP_BYTES = 2 * 1024 * 1024;
+
     /*
      * Northern hemisphere only
      * Cover 0 to 60 degrees latitude
@@ -46,52 +52,99 @@ public class NexradImage {
      */
     private static final int MAX_ENTRIES = 1620;
     private SparseArray<NexradBitmap> mImg;
+    private NexradAtlas mAtlas;
+    private NexradAtlas mPlayback;
+    private NexradLoop mLoop;
     private long mUpdated;
     
     public NexradImage() { 
         mImg = new SparseArray<NexradBitmap>();
+        mAtlas = new NexradAtlas(NexradBitmap.SCALE_X, NexradBitmap.SCALE_Y);
+        mPlayback = new NexradAtlas(NexradBitmap.SCALE_X, NexradBitmap.SCALE_Y);
+        mLoop = new NexradLoop(LOOP_FRAME_MS, LOOP_BYTES);
         mUpdated = 0;
     }
     
     /**
      * 
-     * @param product
+     * @param runs block pixels as (color, count) pairs, see NexradBitmap
      */
-    public void putImg(long time, int block, int empty[], boolean isConus, int data[], int cols, int rows) {
+    public void putImg(long time, int block, int empty[], boolean isConus, int runs[], int cols, int rows) {
         
         if(null != empty) {
             /*
              * Empty, make dummy bitmaps of all.
              */
             for(int i = 0; i < empty.length; i++) {
-                if(mImg.get(i) != null) {
-                    /*
-                     * Clears the bitmap and discards it, since nothing draws here.
-                     */
-                    mImg.get(i).discard();
-                    mImg.delete(i);
-                }
-            }
-            mUpdated = time;
-        }
-        if(null != data) {
-            if(mImg.get(block) != null) {
                 /*
-                 * Replace same block
+                 * Clears the block and discards it, since nothing draws here.
                  */
-                mImg.get(block).discard();
-                mImg.delete(block);
+                drop(empty[i]);
+                mLoop.remove(time, empty[i]);
             }
+            mUpdated = time;
+        }
+        if(NexradBitmap.isValid(runs, cols, rows)) {
+            /*
+             * Replace same block, malformed ones are dropped and keep what was there
+             */
+            drop(block);
             if(mImg.size() > MAX_ENTRIES) {
                 /*
                  * Sorry no more space.
                  */
                 return;
             }
-            mImg.put(block, new NexradBitmap(time, data, block, isConus, cols, rows));
+            NexradBitmap b = new NexradBitmap(time, runs, block, isConus, cols, rows);
+            mImg.put(block, b);
+            mAtlas.put(b);
+            mLoop.put(time, block, b);
             mUpdated = time;
         }
     }
+
+    /**
+     * Remove an expired block from the live image. Not a product change, so loop frames keep it.
+     * @param block
+     */
+    public void remove(int block) {
+        drop(block);
+    }
+
+    /*
+     * Take a block off the live image, loop frames may still hold it so do not discard its runs
+     */
+    private void drop(int block) {
+        NexradBitmap b = mImg.get(block);
+        if(null != b) {
+            mAtlas.remove(b);
+            mImg.delete(block);
+        }
+    }
+
+    /**
+     *
+     * @return composited blocks to draw
+     */
+    public NexradAtlas getAtlas() {
+        return mAtlas;
+    }
+
+    /**
+     *
+     * @return atlas to draw loop frames with
+     */
+    public NexradAtlas getPlayback() {
+        return mPlayback;
+    }
+
+    /**
+     *
+     * @return last few products
+     */
+    public NexradLoop getLoop() {
+        return mLoop;
+    }
     
     /**
      * 
@@ -0,0 +1,260 @@
+/*
+Copyright (c) 2015, Apps4Av Inc. (apps4av.com)
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+    * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+    *     * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+    *
+    *     THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+
+package com.ds.avare.adsb;
+
+import android.os.SystemClock;
+import android.util.SparseArray;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+
+/**
+ * Last few NEXRAD products as frames of a radar loop, oldest first.
+ * Blocks are grouped into frames by product time, frameMs apart. A new frame starts with all blocks
+ * of the previous one; blocks that come in unchanged keep the previous object so frames share them.
+ * Memory counts each shared block once. Over MAX_FRAMES or the byte cap, oldest frames by product
+ * time are dropped, so a playing loop keeps its latest stretch.
+ *
+ * Frames are not changed after made. Use from one thread.
+ *
+ * @author zkhan
+ */
+public class NexradLoop {
+
+    public static final int MAX_FRAMES = 12;
+
+    /*
+     * Estimate of a block without its runs, bytes
+     */
+    private static final long BLOCK_BYTES = 64;
+
+    /**
+     * One product
+     */
+    public static class Frame {
+        private final long mTime;
+        private final SparseArray<NexradBitmap> mBlocks;
+        private final NexradAtlas.Layout mLayout;
+        private long mLastUsed;
+
+        private Frame(long time, SparseArray<NexradBitmap> blocks) {
+            mTime = time;
+            mBlocks = blocks;
+            NexradBitmap all[] = new NexradBitmap[blocks.size()];
+            for(int i = 0; i < all.length; i++) {
+                all[i] = blocks.valueAt(i);
+            }
+            mLayout = NexradAtlas.layout(all);
+            mLastUsed = SystemClock.uptimeMillis();
+        }
+
+        /**
+         *
+         * @return product time, ms
+         */
+        public long getTime() {
+            return mTime;
+        }
+
+        /**
+         *
+         * @return blocks by number, do not modify
+         */
+        public SparseArray<NexradBitmap> getBlocks() {
+            return mBlocks;
+        }
+
+        /**
+         *
+         * @return blocks grouped for drawing
+         */
+        public NexradAtlas.Layout getLayout() {
+            return mLayout;
+        }
+    }
+
+    private long mFrameMs;
+    private long mMaxBytes;
+    private Frame mFrames[];
+    private int mCount;
+    private SparseArray<NexradBitmap> mOpen;
+    private long mOpenTime;
+    private IdentityHashMap<NexradBitmap, Integer> mRefs;
+    private long mBytes;
+
+    /**
+     *
+     * @param frameMs product interval
+     * @param maxBytes memory cap for frames
+     */
+    public NexradLoop(long frameMs, long maxBytes) {
+        mFrameMs = frameMs;
+        mMaxBytes = maxBytes;
+        mFrames = new Frame[MAX_FRAMES + 1];
+        mCount = 0;
+        mOpen = null;
+        mOpenTime = 0;
+        mRefs = new IdentityHashMap<NexradBitmap, Integer>();
+        mBytes = 0;
+    }
+
+    /**
+     * Change memory cap, drops frames if needed
+     * @param maxBytes
+     */
+    public void setMaxBytes(long maxBytes) {
+        mMaxBytes = maxBytes;
+        evict();
+    }
+
+    /**
+     * A block came in
+     * @param time product time
+     * @param block
+     * @param b
+     */
+    public void put(long time, int block, NexradBitmap b) {
+        advance(time);
+
+        NexradBitmap last = mOpen.get(block);
+        if(null != last && last.getCols() == b.getCols() && last.getRows() == b.getRows() &&
+                Arrays.equals(last.getRuns(), b.getRuns())) {
+            // same as before, share
+            return;
+        }
+        mOpen.put(block, b);
+    }
+
+    /**
+     * A block went empty in a product. A clear of a newer product does not touch the last one's frame.
+     * @param time product time
+     * @param block
+     */
+    public void remove(long time, int block) {
+        advance(time);
+        mOpen.delete(block);
+    }
+
+    /*
+     * Make the open frame the one of this product time, sealing the last one if it is done
+     */
+    private void advance(long time) {
+        long frame = time - (time % mFrameMs);
+        if(null == mOpen) {
+            mOpen = new SparseArray<NexradBitmap>();
+            mOpenTime = frame;
+        }
+        else if(frame > mOpenTime) {
+            // next product, last one is done
+            SparseArray<NexradBitmap> next = new SparseArray<NexradBitmap>();
+            for(int i = 0; i < mOpen.size(); i++) {
+                next.append(mOpen.keyAt(i), mOpen.valueAt(i));
+            }
+            seal();
+            mOpen = next;
+            mOpenTime = frame;
+        }
+    }
+
+    /**
+     *
+     * @return number of complete frames
+     */
+    public int getFrameCount() {
+        return mCount;
+    }
+
+    /**
+     *
+     * @param i 0 is oldest
+     * @return
+     */
+    public Frame getFrame(int i) {
+        return mFrames[i];
+    }
+
+    /**
+     * Frame was shown, keep it longer
+     * @param f
+     */
+    public void touch(Frame f) {
+        f.mLastUsed = SystemClock.uptimeMillis();
+    }
+
+    /**
+     *
+     * @return estimate of memory used by frames
+     */
+    public long getBytes() {
+        return mBytes;
+    }
+
+    /*
+     * Open frame becomes a loop frame
+     */
+    private void seal() {
+        if(0 == mOpen.size()) {
+            return;
+        }
+        Frame f = new Frame(mOpenTime, mOpen);
+        for(int i = 0; i < mOpen.size(); i++) {
+            NexradBitmap b = mOpen.valueAt(i);
+            Integer refs = mRefs.get(b);
+            if(null == refs) {
+                mRefs.put(b, 1);
+                mBytes += getBytes(b);
+            }
+            else {
+                mRefs.put(b, refs + 1);
+            }
+        }
+        mFrames[mCount++] = f;
+        evict();
+    }
+
+    /*
+     * Drop oldest frames till under limits. Same product time, least recently shown goes first.
+     */
+    private void evict() {
+        while(mCount > MAX_FRAMES || (mCount > 0 && mBytes > mMaxBytes)) {
+            int old = 0;
+            for(int i = 1; i < mCount; i++) {
+                Frame f = mFrames[i];
+                if(f.mTime < mFrames[old].mTime ||
+                        (f.mTime == mFrames[old].mTime && f.mLastUsed < mFrames[old].mLastUsed)) {
+                    old = i;
+                }
+            }
+            SparseArray<NexradBitmap> blocks = mFrames[old].mBlocks;
+            for(int i = 0; i < blocks.size(); i++) {
+                NexradBitmap b = blocks.valueAt(i);
+                Integer refs = mRefs.get(b);
+                if(null == refs || refs <= 1) {
+                    mRefs.remove(b);
+                    mBytes -= getBytes(b);
+                }
+                else {
+                    mRefs.put(b, refs - 1);
+                }
+            }
+            System.arraycopy(mFrames, old + 1, mFrames, old, mCount - old - 1);
+            mFrames[--mCount] = null;
+        }
+    }
+
+    private static long getBytes(NexradBitmap b) {
+        int runs[] = b.getRuns();
+        return BLOCK_BYTES + (null == runs ? 0 : 4 * runs.length);
+    }
+}
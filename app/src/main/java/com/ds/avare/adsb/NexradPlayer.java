@@ -0,0 +1,85 @@
+/*
+Copyright (c) 2015, Apps4Av Inc. (apps4av.com)
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+    * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+    *     * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+    *
+    *     THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+
+package com.ds.avare.adsb;
+
+import android.os.SystemClock;
+
+/**
+ * Steps through frames of a NexradLoop in time, oldest to newest, then holds on the live image.
+ * Only reads the clock, so it can be asked on every draw.
+ *
+ * @author zkhan
+ */
+public class NexradPlayer {
+
+    /*
+     * Time per frame, ms
+     */
+    private static final long STEP_MS = 500;
+
+    /*
+     * Time on live image before starting over, ms
+     */
+    private static final long HOLD_MS = 2000;
+
+    private boolean mPlaying;
+    private long mStart;
+
+    public NexradPlayer() {
+        mPlaying = false;
+        mStart = 0;
+    }
+
+    public void start() {
+        if(!mPlaying) {
+            mPlaying = true;
+            mStart = SystemClock.uptimeMillis();
+        }
+    }
+
+    public void stop() {
+        mPlaying = false;
+    }
+
+    public boolean isPlaying() {
+        return mPlaying;
+    }
+
+    /**
+     * Frame to show now
+     * @param loop
+     * @return null to show live image
+     */
+    public NexradLoop.Frame getFrame(NexradLoop loop) {
+        int count = loop.getFrameCount();
+        if(!mPlaying || 0 == count) {
+            return null;
+        }
+        long t = (SystemClock.uptimeMillis() - mStart) % (count * STEP_MS + HOLD_MS);
+        if(t >= count * STEP_MS) {
+            return null;
+        }
+        NexradLoop.Frame f = loop.getFrame((int)(t / STEP_MS));
+        loop.touch(f);
+        return f;
+    }
+
+    /**
+     *
+     * @return ms till frame may change
+     */
+    public long getDelay() {
+        return STEP_MS - (SystemClock.uptimeMillis() - mStart) % STEP_MS;
+    }
+}
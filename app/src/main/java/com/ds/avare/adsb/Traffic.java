@@ -1,7 +1,6 @@
 package com.ds.avare.adsb;
 
 import android.graphics.Color;
-import android.util.SparseArray;
 
 import com.ds.avare.IHelperService;
 import com.ds.avare.StorageService;
@@ -14,6 +13,8 @@ import com.ds.avare.threed.TerrainRenderer;
 import com.ds.avare.threed.data.Vector4d;
 import com.ds.avare.utils.Helper;
 
+import java.util.LinkedList;
+
 public class Traffic {
 
     public int mIcaoAddress;
@@ -111,7 +112,7 @@ public class Traffic {
         return color;
     }
 
-    public static void draw(DrawingContext ctx, SparseArray<Traffic> traffic, double altitude, GpsParams params, int ownIcao, boolean shouldDraw) {
+    public static void draw(DrawingContext ctx, LinkedList<Traffic> traffic, double altitude, GpsParams params, int ownIcao, boolean shouldDraw) {
 
         int filterAltitude = ctx.pref.showAdsbTrafficWithin();
 
@@ -123,11 +124,9 @@ public class Traffic {
         }
 
         ctx.paint.setColor(Color.WHITE);
-        for(int i = 0; i < traffic.size(); i++) {
-            int key = traffic.keyAt(i);
-            Traffic t = traffic.get(key);
+        for(Traffic t : traffic) {
             if(t.isOld()) {
-                traffic.delete(key);
+                // removed on next sweep
                 continue;
             }
 
@@ -136,10 +135,6 @@ public class Traffic {
                 continue;
             }
 
-            if(!isOnScreen(ctx.origin, t.mLat, t.mLon)) {
-                continue;
-            }
-
             /*
              * Make traffic line and info
              */
@@ -172,6 +167,17 @@ public class Traffic {
 
 
             float radius = ctx.dip2pix * 8;
+
+            /*
+             * Predicted conflict, ring it and show time to closest approach
+             */
+            TrafficConflicts.Conflict conflict = ctx.service.getTrafficConflicts().getConflict(t.mIcaoAddress);
+            if(null != conflict) {
+                ctx.paint.setColor(conflict.getLevel() == TrafficConflicts.ALERT ? Color.RED : Color.YELLOW);
+                ctx.canvas.drawCircle(x, y, radius * 2, ctx.paint);
+                text += " " + (int)conflict.getTcpa() + "s";
+            }
+
             /*
              * Draw outline to show it clearly
              */
@@ -226,10 +232,10 @@ public class Traffic {
      */
     public static void draw(StorageService service, AreaMapper mapper, TerrainRenderer renderer) {
         if (service != null) {
-            SparseArray<Traffic> t = service.getTrafficCache().getTraffic();
-            Vector4d ships[] = new Vector4d[t.size()];
-            for (int count = 0; count < t.size(); count++) {
-                Traffic tr = t.valueAt(count);
+            Traffic t[] = service.getTrafficCache().getTraffic();
+            Vector4d ships[] = new Vector4d[t.length];
+            for (int count = 0; count < t.length; count++) {
+                Traffic tr = t[count];
                 ships[count] = mapper.gpsToAxis(tr.mLon, tr.mLat, tr.mAltitude, tr.mHeading);
             }
             renderer.setShips(ships);
@@ -12,23 +12,99 @@ Redistribution and use in source and binary forms, with or without modification,
 package com.ds.avare.adsb;
 
 
-import android.util.SparseArray;
+import android.os.SystemClock;
 
 import com.ds.avare.IHelperService;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
- * 
+ * Traffic by ICAO address. Safe to update from one thread and read from others.
+ * Readers get an immutable snapshot with a uniform lon/lat grid index, rebuilt only after changes.
+ * Old targets are removed by a background sweep, not while drawing. No limit on number of targets.
+ *
  * @author zkhan
  *
  */
 public class TrafficCache {
-    private static final int MAX_ENTRIES = 100;
-    private SparseArray<Traffic> mTraffic;
-    private int mOwnAltitude;
+
+    /*
+     * Sweep old traffic this often
+     */
+    private static final long SWEEP_MS = 10 * 1000;
+
+    /*
+     * Grid cell size, degrees
+     */
+    private static final double GRID = 0.25;
+
+    /*
+     * Cells in a row of grid, more than 360 / GRID
+     */
+    private static final int GRID_ROW = 2048;
+
+    private ConcurrentHashMap<Integer, Traffic> mTraffic;
+    private AtomicInteger mVersion;
+    private volatile Snapshot mSnapshot;
+    private volatile int mOwnAltitude;
+    private Timer mTimer;
+
+    /*
+     * Receive to draw latency, receive time of oldest update not drawn yet
+     */
+    private long mReceived;
+    private long mLatencyCount;
+    private long mLatencyTotal;
+    private long mLatencyMax;
+
+    /**
+     * All traffic at a time, and a grid of it. Not changed after made.
+     */
+    private static class Snapshot {
+        private final int mVersion;
+        private final Traffic mAll[];
+        private final HashMap<Integer, ArrayList<Traffic>> mCells;
+
+        private Snapshot(int version, Traffic all[]) {
+            mVersion = version;
+            mAll = all;
+            mCells = new HashMap<Integer, ArrayList<Traffic>>();
+            for(Traffic t : all) {
+                int key = getCell(getColumn(t.mLon), getRow(t.mLat));
+                ArrayList<Traffic> cell = mCells.get(key);
+                if(null == cell) {
+                    cell = new ArrayList<Traffic>(4);
+                    mCells.put(key, cell);
+                }
+                cell.add(t);
+            }
+        }
+    }
     
     public TrafficCache() { 
-        mTraffic = new SparseArray<Traffic>();
+        mTraffic = new ConcurrentHashMap<Integer, Traffic>();
+        mVersion = new AtomicInteger(0);
+        mSnapshot = null;
         mOwnAltitude = IHelperService.MIN_ALTITUDE;
+        mReceived = 0;
+        mLatencyCount = 0;
+        mLatencyTotal = 0;
+        mLatencyMax = 0;
+
+        mTimer = new Timer("TrafficSweep", true);
+        mTimer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                sweep();
+            }
+        }, SWEEP_MS, SWEEP_MS);
     }
     
     /**
@@ -37,18 +113,91 @@ public class TrafficCache {
      */
     public void putTraffic(String callsign, int address, float lat, float lon, int altitude, 
             float heading, int speed, long time) {
+        putTraffic(new Traffic(callsign, address, lat, lon, altitude,
+                heading, speed, time));
+    }
 
-        /*
-         * For any new entries, check max traffic objects.
-         */
-        if(mTraffic.get(address) == null) {
-            if(mTraffic.size() >= MAX_ENTRIES) {
-                return;
-            }            
+    /**
+     *
+     * @param t
+     */
+    public void putTraffic(Traffic t) {
+        mTraffic.put(t.mIcaoAddress, t);
+        mVersion.incrementAndGet();
+    }
+
+    /**
+     * Remove traffic not heard from in a while
+     */
+    public void sweep() {
+        boolean removed = false;
+        for(Map.Entry<Integer, Traffic> e : mTraffic.entrySet()) {
+            Traffic t = e.getValue();
+            // do not remove if updated meanwhile
+            if(t.isOld() && mTraffic.remove(e.getKey(), t)) {
+                removed = true;
+            }
         }
-        
-        mTraffic.put(address, new Traffic(callsign, address, lat, lon, altitude, 
-                heading, speed, time));
+        if(removed) {
+            mVersion.incrementAndGet();
+        }
+    }
+
+    /**
+     * Stop sweeping
+     */
+    public void stop() {
+        mTimer.cancel();
+    }
+
+    /**
+     * Traffic updates received at this time are in cache
+     * @param received SystemClock.elapsedRealtime() of receive
+     */
+    public void setReceived(long received) {
+        if(0 == mReceived || received < mReceived) {
+            mReceived = received;
+        }
+    }
+
+    /**
+     * Traffic was drawn, count latency from receive
+     */
+    public void markDrawn() {
+        if(0 == mReceived) {
+            return;
+        }
+        long latency = SystemClock.elapsedRealtime() - mReceived;
+        mReceived = 0;
+        mLatencyCount++;
+        mLatencyTotal += latency;
+        if(latency > mLatencyMax) {
+            mLatencyMax = latency;
+        }
+    }
+
+    /**
+     *
+     * @return number of receive to draw latencies measured
+     */
+    public long getLatencyCount() {
+        return mLatencyCount;
+    }
+
+    /**
+     *
+     * @return sum of receive to draw latencies, ms
+     */
+    public long getLatencyTotal() {
+        return mLatencyTotal;
+    }
+
+    /**
+     *
+     * @return worst receive to draw latency, ms
+     */
+    public long getLatencyMax() {
+        return mLatencyMax;
     }
 
     public void setOwnAltitude(int altitude) {
@@ -58,12 +207,126 @@ public class TrafficCache {
     public int getOwnAltitude() {
         return mOwnAltitude;
     }
+
+    /**
+     *
+     * @return number of targets
+     */
+    public int size() {
+        return mTraffic.size();
+    }
     
     /**
      * 
+     * @return all traffic, do not modify
+     */
+    public Traffic[] getTraffic() {
+        return getSnapshot().mAll;
+    }
+
+    /**
+     * Traffic in a box, as on screen
+     * @param lonLeft
+     * @param latBottom
+     * @param lonRight
+     * @param latTop
      * @return
      */
-    public SparseArray<Traffic> getTraffic() {
-        return mTraffic;
-    }    
+    public LinkedList<Traffic> getTraffic(double lonLeft, double latBottom, double lonRight, double latTop) {
+        Snapshot s = getSnapshot();
+        LinkedList<Traffic> ret = new LinkedList<Traffic>();
+
+        int col0 = getColumn(lonLeft);
+        int col1 = getColumn(lonRight);
+        int row0 = getRow(latBottom);
+        int row1 = getRow(latTop);
+        long cells = (long)(col1 - col0 + 1) * (long)(row1 - row0 + 1);
+
+        if(cells > s.mCells.size()) {
+            // zoomed out, fewer occupied cells than cells in box
+            for(ArrayList<Traffic> cell : s.mCells.values()) {
+                addInBox(cell, ret, lonLeft, latBottom, lonRight, latTop);
+            }
+            return ret;
+        }
+
+        for(int col = col0; col <= col1; col++) {
+            for(int row = row0; row <= row1; row++) {
+                ArrayList<Traffic> cell = s.mCells.get(getCell(col, row));
+                if(null != cell) {
+                    addInBox(cell, ret, lonLeft, latBottom, lonRight, latTop);
+                }
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Traffic close to a point
+     * @param lon
+     * @param lat
+     * @param nm distance
+     * @return
+     */
+    public LinkedList<Traffic> getTrafficNear(double lon, double lat, double nm) {
+        double dlat = nm / 60.0;
+        double cos = Math.max(Math.cos(Math.toRadians(lat)), 0.01);
+        double dlon = dlat / cos;
+        LinkedList<Traffic> box = getTraffic(lon - dlon, lat - dlat, lon + dlon, lat + dlat);
+
+        LinkedList<Traffic> ret = new LinkedList<Traffic>();
+        double nm2 = nm * nm;
+        for(Traffic t : box) {
+            // flat earth distance, good at these ranges
+            double x = (t.mLon - lon) * cos * 60.0;
+            double y = (t.mLat - lat) * 60.0;
+            if(x * x + y * y <= nm2) {
+                ret.add(t);
+            }
+        }
+        return ret;
+    }
+
+    /*
+     * Snapshot of current traffic, made if traffic changed since last one
+     */
+    private Snapshot getSnapshot() {
+        Snapshot s = mSnapshot;
+        if(null != s && s.mVersion == mVersion.get()) {
+            return s;
+        }
+        synchronized(this) {
+            // read version before copy so a put during copy makes next reader rebuild
+            int version = mVersion.get();
+            s = mSnapshot;
+            if(null == s || s.mVersion != version) {
+                s = new Snapshot(version, mTraffic.values().toArray(new Traffic[0]));
+                mSnapshot = s;
+            }
+        }
+        return s;
+    }
+
+    private static void addInBox(ArrayList<Traffic> cell, LinkedList<Traffic> out,
+                                 double lonLeft, double latBottom, double lonRight, double latTop) {
+        for(Traffic t : cell) {
+            if(t.mLon >= lonLeft && t.mLon <= lonRight && t.mLat >= latBottom && t.mLat <= latTop) {
+                out.add(t);
+            }
+        }
+    }
+
+    private static int getColumn(double lon) {
+        lon = Math.max(-180, Math.min(180, lon));
+        return (int)((lon + 180.0) / GRID);
+    }
+
+    private static int getRow(double lat) {
+        lat = Math.max(-90, Math.min(90, lat));
+        return (int)((lat + 90.0) / GRID);
+    }
+
+    private static int getCell(int column, int row) {
+        return row * GRID_ROW + column;
+    }
 }
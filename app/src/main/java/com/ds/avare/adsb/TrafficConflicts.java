@@ -0,0 +1,343 @@
+/*
+Copyright (c) 2015, Apps4Av Inc. (apps4av.com)
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+    * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+    *     * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+    *
+    *     THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+
+package com.ds.avare.adsb;
+
+import android.os.Process;
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Predicts conflicts with traffic. On each ownship update, finds closest point of approach (CPA) and
+ * time to it (TCPA) for targets that could get close within LOOKAHEAD_S, assuming straight line
+ * at current track and speed, on a flat earth around ownship.
+ * Candidates come from the traffic grid so far away targets cost nothing.
+ *
+ * Runs on its own thread. Updates that come in while one is being worked on are coalesced,
+ * only the newest ownship is used next.
+ *
+ * @author zkhan
+ */
+public class TrafficConflicts {
+
+    /*
+     * Alert levels, higher is more urgent
+     */
+    public static final int ADVISORY = 1;
+    public static final int ALERT = 2;
+
+    /*
+     * Look ahead this far, seconds
+     */
+    private static final double LOOKAHEAD_S = 120;
+
+    /*
+     * Fastest traffic considered, kt. Faster targets may be missed till they are closer.
+     */
+    private static final double MAX_TARGET_SPEED = 600;
+
+    private static final double ADVISORY_NM = 1.0;
+    private static final double ADVISORY_FT = 1000;
+    private static final double ALERT_NM = 0.5;
+    private static final double ALERT_FT = 500;
+    private static final double ALERT_S = 60;
+
+    /*
+     * Location speed to knots
+     */
+    private static final double MS_TO_KT = 1.944;
+
+    /**
+     * A predicted conflict with one target. Not changed after made.
+     */
+    public static class Conflict {
+        private final Traffic mTraffic;
+        private final int mLevel;
+        private final double mCpa;
+        private final double mTcpa;
+        private final double mAltitudeDifference;
+
+        private Conflict(Traffic traffic, int level, double cpa, double tcpa, double altitudeDifference) {
+            mTraffic = traffic;
+            mLevel = level;
+            mCpa = cpa;
+            mTcpa = tcpa;
+            mAltitudeDifference = altitudeDifference;
+        }
+
+        public Traffic getTraffic() {
+            return mTraffic;
+        }
+
+        /**
+         *
+         * @return ADVISORY or ALERT
+         */
+        public int getLevel() {
+            return mLevel;
+        }
+
+        /**
+         *
+         * @return closest horizontal distance, nm
+         */
+        public double getCpa() {
+            return mCpa;
+        }
+
+        /**
+         *
+         * @return time to closest point, seconds, 0 if diverging
+         */
+        public double getTcpa() {
+            return mTcpa;
+        }
+
+        /**
+         *
+         * @return their altitude less ours, feet
+         */
+        public double getAltitudeDifference() {
+            return mAltitudeDifference;
+        }
+    }
+
+    /*
+     * Most urgent first, then soonest, then closest
+     */
+    private static final Comparator<Conflict> PRIORITY = new Comparator<Conflict>() {
+        @Override
+        public int compare(Conflict a, Conflict b) {
+            if(a.mLevel != b.mLevel) {
+                return b.mLevel - a.mLevel;
+            }
+            if(a.mTcpa != b.mTcpa) {
+                return a.mTcpa < b.mTcpa ? -1 : 1;
+            }
+            return Double.compare(a.mCpa, b.mCpa);
+        }
+    };
+
+    /*
+     * Ownship at an instant
+     */
+    private static class Ownship {
+        private final double mLon;
+        private final double mLat;
+        private final double mSpeed;
+        private final double mBearing;
+        private final double mAltitude;
+        private final int mIcao;
+
+        private Ownship(double lon, double lat, double speed, double bearing, double altitude, int icao) {
+            mLon = lon;
+            mLat = lat;
+            mSpeed = speed;
+            mBearing = bearing;
+            mAltitude = altitude;
+            mIcao = icao;
+        }
+    }
+
+    /*
+     * Result of one run
+     */
+    private static class Result {
+        private final Conflict mConflicts[];
+        private final HashMap<Integer, Conflict> mByAddress;
+
+        private Result(Conflict conflicts[]) {
+            mConflicts = conflicts;
+            mByAddress = new HashMap<Integer, Conflict>();
+            for(Conflict c : conflicts) {
+                mByAddress.put(c.mTraffic.mIcaoAddress, c);
+            }
+        }
+    }
+
+    private TrafficCache mCache;
+    private ExecutorService mExecutor;
+    private AtomicReference<Ownship> mPending;
+    private volatile Result mResult;
+
+    private long mRuns;
+    private long mCandidates;
+    private long mRunTime;
+
+    /**
+     *
+     * @param cache traffic to check
+     */
+    public TrafficConflicts(TrafficCache cache) {
+        mCache = cache;
+        mPending = new AtomicReference<Ownship>();
+        mResult = new Result(new Conflict[0]);
+        mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                Thread t = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        r.run();
+                    }
+                });
+                t.setName("TrafficConflicts");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * New ownship position, find conflicts in background
+     * @param lon
+     * @param lat
+     * @param speed m/s as in Location
+     * @param bearing degrees true
+     * @param altitude pressure altitude, feet
+     * @param icao own ICAO address so own shadow is not a conflict
+     */
+    public void update(double lon, double lat, double speed, double bearing, double altitude, int icao) {
+        Ownship o = new Ownship(lon, lat, speed * MS_TO_KT, bearing, altitude, icao);
+        if(null != mPending.getAndSet(o)) {
+            // a run is queued and will take this one
+            return;
+        }
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Ownship own = mPending.getAndSet(null);
+                if(null != own) {
+                    mResult = new Result(find(own));
+                }
+            }
+        });
+    }
+
+    /**
+     * Stop background thread
+     */
+    public void stop() {
+        mExecutor.shutdownNow();
+    }
+
+    /**
+     *
+     * @return conflicts from last run, most urgent first, do not modify
+     */
+    public Conflict[] getConflicts() {
+        return mResult.mConflicts;
+    }
+
+    /**
+     *
+     * @param address ICAO
+     * @return conflict with this target, null if none
+     */
+    public Conflict getConflict(int address) {
+        return mResult.mByAddress.get(address);
+    }
+
+    /**
+     *
+     * @return number of runs, total candidates checked, total run time ms
+     */
+    public synchronized long[] getStats() {
+        return new long[] {mRuns, mCandidates, mRunTime};
+    }
+
+    /**
+     * Conflicts for given ownship
+     * @param own
+     * @return sorted most urgent first
+     */
+    private Conflict[] find(Ownship own) {
+        long start = SystemClock.elapsedRealtime();
+
+        /*
+         * Only targets that can get within advisory distance in look ahead time
+         */
+        double radius = (own.mSpeed + MAX_TARGET_SPEED) * LOOKAHEAD_S / 3600.0 + ADVISORY_NM;
+        LinkedList<Traffic> candidates = mCache.getTrafficNear(own.mLon, own.mLat, radius);
+
+        double cos = Math.cos(Math.toRadians(own.mLat));
+        double ovx = own.mSpeed * Math.sin(Math.toRadians(own.mBearing));
+        double ovy = own.mSpeed * Math.cos(Math.toRadians(own.mBearing));
+
+        ArrayList<Conflict> conflicts = new ArrayList<Conflict>();
+        for(Traffic t : candidates) {
+            if(t.mIcaoAddress == own.mIcao || t.isOld()) {
+                continue;
+            }
+
+            double dalt = t.mAltitude - own.mAltitude;
+            if(Math.abs(dalt) > ADVISORY_FT) {
+                continue;
+            }
+
+            // relative position nm, relative velocity kt
+            double px = (t.mLon - own.mLon) * cos * 60.0;
+            double py = (t.mLat - own.mLat) * 60.0;
+            double vx = t.mHorizVelocity * Math.sin(Math.toRadians(t.mHeading)) - ovx;
+            double vy = t.mHorizVelocity * Math.cos(Math.toRadians(t.mHeading)) - ovy;
+
+            double v2 = vx * vx + vy * vy;
+            double tcpa = 0;
+            if(v2 > 1e-6) {
+                tcpa = -(px * vx + py * vy) / v2 * 3600.0;
+            }
+            if(tcpa < 0) {
+                // moving apart, closest is now
+                tcpa = 0;
+            }
+            if(tcpa > LOOKAHEAD_S) {
+                continue;
+            }
+            double cx = px + vx * tcpa / 3600.0;
+            double cy = py + vy * tcpa / 3600.0;
+            double cpa = Math.sqrt(cx * cx + cy * cy);
+
+            int level;
+            if(cpa <= ALERT_NM && Math.abs(dalt) <= ALERT_FT && tcpa <= ALERT_S) {
+                level = ALERT;
+            }
+            else if(cpa <= ADVISORY_NM) {
+                level = ADVISORY;
+            }
+            else {
+                continue;
+            }
+            conflicts.add(new Conflict(t, level, cpa, tcpa, dalt));
+        }
+
+        Conflict ret[] = conflicts.toArray(new Conflict[conflicts.size()]);
+        Arrays.sort(ret, PRIORITY);
+
+        synchronized(this) {
+            mRuns++;
+            mCandidates += candidates.size();
+            mRunTime += SystemClock.elapsedRealtime() - start;
+        }
+        return ret;
+    }
+}
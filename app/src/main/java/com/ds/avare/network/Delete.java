@@ -19,6 +19,9 @@ import java.io.IOException;
 import java.util.LinkedList;
 import java.util.Observable;
 
+import com.ds.avare.shapes.TilePack;
+import com.ds.avare.shapes.TilePacks;
+import com.ds.avare.storage.DataBasePool;
 import com.ds.avare.utils.Helper;
 
 import android.os.Handler;
@@ -116,6 +119,9 @@ public class Delete extends Observable {
                 }
                 newp = (int) (total * 50 / fileLength);
                 
+                if(name.endsWith(".db")) {
+                    DataBasePool.getInstance().close();
+                }
                 Helper.deleteDir(new File(name));
                 
                 if(lastp != newp) {
@@ -125,6 +131,8 @@ public class Delete extends Observable {
                 }
             }
 
+            TilePacks.getInstance().invalidate();
+
             Message m = mHandler.obtainMessage(Download.SUCCESS, Delete.this);
             mHandler.sendMessage(m);
         }      
@@ -171,6 +179,7 @@ public class Delete extends Observable {
          */
         files2Delete.add(filename);
         files2Delete.add(filename + ".zip");
+        files2Delete.add(TilePack.getFileName(path, name));
         return files2Delete;
     }
     
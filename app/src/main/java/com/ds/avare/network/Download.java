@@ -25,6 +25,9 @@ import java.util.Enumeration;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
+import com.ds.avare.shapes.TilePack;
+import com.ds.avare.shapes.TilePacks;
+import com.ds.avare.storage.DataBasePool;
 import com.ds.avare.utils.Helper;
 import com.ds.avare.utils.NetworkHelper;
 
@@ -275,6 +278,7 @@ public class Download {
                 /*
                  * Now unzip
                  */
+                TilePack.Writer pack = null;
                 try {
                     mCode = "code unable to start unzip process ";
                     ZipFile zipFile = new ZipFile(zipfile);
@@ -289,6 +293,9 @@ public class Download {
                         mCode = "code unzip file error, disk full";
                         if(mStop) {
                             mCode = "code stopped by user during unzip";
+                            if(null != pack) {
+                                pack.abort();
+                            }
                             zipFile.close();
                             new File(zipfile).delete();
                             sendFailure();
@@ -302,6 +309,27 @@ public class Download {
                          * Keep un-zipping and creating folders
                          */
                         String entryName = entry.getName();
+
+                        /*
+                         * Chart tiles go in one pack file for this chart instead of a file each
+                         */
+                        long key = TilePack.makeKey(entryName);
+                        if(key >= 0) {
+                            mCode = "code unable to write tile pack, disk full";
+                            if(null == pack) {
+                                pack = new TilePack.Writer(TilePack.getFileName(path, mName), filenum);
+                            }
+                            pack.add(key, zipFile.getInputStream(entry));
+                            totalnum++;
+                            newp = (int)(50 + totalnum * 50 / filenum);
+                            if(lastp != newp) {
+                                lastp = newp;
+                                Message m = mHandler.obtainMessage(newp, Download.this);
+                                mHandler.sendMessage(m);
+                            }
+                            continue;
+                        }
+
                         String fn = path + "/" + entryName;
                         String tokens[] = entryName.split("/");
                         String folder = tokens[0];
@@ -372,6 +400,10 @@ public class Download {
                         }
                         
                         if(outf.exists()) {
+                            if(outf.getName().endsWith(".db")) {
+                                // readers keep long lived connections, close them before replacing
+                                DataBasePool.getInstance().close();
+                            }
                             outf.delete();
                         }
                         
@@ -387,6 +419,12 @@ public class Download {
                         }
                     }
 
+                    if(null != pack) {
+                        mCode = "code unable to close tile pack";
+                        pack.close();
+                        TilePacks.getInstance().invalidate();
+                    }
+
                     mCode = "code unable to close zip file";
                     zipFile.close();
                     
@@ -403,6 +441,9 @@ public class Download {
                     
                 } catch (Exception e) {
                     mCode += e.getCause();
+                    if(null != pack) {
+                        pack.abort();
+                    }
                     zfile.delete();
                 }
             } catch (Exception e) {
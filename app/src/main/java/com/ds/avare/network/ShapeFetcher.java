@@ -15,11 +15,9 @@ package com.ds.avare.network;
 import android.content.Context;
 import android.os.AsyncTask;
 
-import com.ds.avare.shapes.ShapeFileShape;
+import com.ds.avare.shapes.ShapeFileLayer;
 import com.ds.avare.storage.Preferences;
 
-import java.util.LinkedList;
-
 /**
  * 
  * @author zkhan
@@ -29,14 +27,14 @@ public class ShapeFetcher {
 
 
     private ShapeTask mTask;
-    private LinkedList<ShapeFileShape> mShapes;
+    private volatile ShapeFileLayer mLayer;
     private Context mContext;
 
     /**
      *
      */
     public ShapeFetcher(Context ctx) {
-        mShapes = new LinkedList<ShapeFileShape>();
+        mLayer = null;
         mContext = ctx;
     }
 
@@ -61,11 +59,11 @@ public class ShapeFetcher {
     }
     
     /**
-     * This will be non null if we have recieved shapes from internet
+     * This will be non null once the shape file is opened
      * @return
      */
-    public LinkedList<ShapeFileShape> getShapes() {
-        return mShapes;
+    public ShapeFileLayer getLayer() {
+        return mLayer;
     }
 
     /**
@@ -84,7 +82,7 @@ public class ShapeFetcher {
 
             try {
                 Preferences pref = new Preferences(mContext);
-                mShapes = ShapeFileShape.readFile(pref.mapsFolder() + "/" + pref.getShapeFileName());
+                mLayer = new ShapeFileLayer(pref.mapsFolder() + "/" + pref.getShapeFileName());
             }
             catch (Exception e) {
 
@@ -14,8 +14,9 @@ package com.ds.avare.network;
 
 import java.util.LinkedList;
 
+import com.ds.avare.shapes.ShapeIndex;
 import com.ds.avare.shapes.TFRShape;
-import com.ds.avare.utils.Helper;
+import com.ds.avare.storage.Preferences;
 
 
 import android.content.Context;
@@ -31,6 +32,7 @@ public class TFRFetcher {
     
     private TFRTask mTask;
     private LinkedList<TFRShape> mShapes;
+    private volatile ShapeIndex<TFRShape> mIndex;
     private Context mContext;
     
     /**
@@ -38,6 +40,7 @@ public class TFRFetcher {
      */
     public TFRFetcher(Context ctx) {
         mShapes = null;
+        mIndex = null;
         mContext = ctx;
     }
 
@@ -46,16 +49,8 @@ public class TFRFetcher {
      */
     public void parse() {
         /*
-         * TFR is an expensive operation. Do not do if previous is running
-         */
-        if(mTask != null) {
-            if(mTask.getStatus() == AsyncTask.Status.RUNNING) {
-                mTask.cancel(true);
-            }
-        }
-        
-        /*
-         * Start the task
+         * Start the task. TFRs come from cache unless just downloaded, so a running parse
+         * is left to finish and this one reads what it cached.
          */
         mTask = new TFRTask();
         mTask.execute();
@@ -69,6 +64,14 @@ public class TFRFetcher {
         return mShapes;
     }
 
+    /**
+     * Index of TFR shapes for touch tests
+     * @return null if no shapes yet
+     */
+    public ShapeIndex<TFRShape> getShapeIndex() {
+        return mIndex;
+    }
+
     /**
      * @author zkhan
      *
@@ -83,7 +86,10 @@ public class TFRFetcher {
         protected Boolean doInBackground(Object... vals) {
             Thread.currentThread().setName("TFR");
 
-            mShapes = Helper.getShapesInTFR(mContext);
+            LinkedList<TFRShape> shapes = TFRReader.read(new Preferences(mContext).mapsFolder());
+            // index before shapes show
+            mIndex = new ShapeIndex<TFRShape>(shapes);
+            mShapes = shapes;
             return true;
         }
     } 
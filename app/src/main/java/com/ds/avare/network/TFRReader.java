@@ -0,0 +1,430 @@
+/*
+Copyright (c) 2015, Apps4Av Inc. (apps4av.com)
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+    * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+    *     * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+    *
+    *     THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.ds.avare.network;
+
+import com.ds.avare.shapes.TFRShape;
+import com.ds.avare.utils.Helper;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.Locale;
+
+/**
+ * Reads TFR shapes from tfr.txt in the maps folder. The file is a comma separated list where a
+ * token with "TFR:: " starts a TFR and its text, and latitude, longitude pairs follow.
+ * It is tokenized as it is read, numbers go straight into arrays. What is parsed is saved in a
+ * binary cache for the manifest it came with, so until next download TFRs are mapped from there.
+ *
+ * @author zkhan
+ */
+public class TFRReader {
+
+    private static final String FILE = "tfr.txt";
+    private static final String MANIFEST = "TFRs";
+
+    /*
+     * Cache, changes to format need a new version
+     */
+    private static final String CACHE = "tfr.bin";
+    private static final int CACHE_MAGIC = 0x54465242;
+    private static final int CACHE_VERSION = 1;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final byte MARK[] = "TFR:: ".getBytes(UTF8);
+
+    /*
+     * Powers of ten a long can be divided by with one rounding, so result is exact as parseDouble
+     */
+    private static final double POWERS[] = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    private static final long MAX_EXACT = 1L << 53;
+
+    /**
+     * TFRs as arrays: text of TFR i, points starts[i] to starts[i + 1] - 1 as lon, lat pairs
+     */
+    private static class Parsed {
+        String texts[] = new String[16];
+        int starts[] = new int[17];
+        double xy[] = new double[1024];
+        int count;
+        int points;
+
+        void start(String text) {
+            if(count + 1 == texts.length) {
+                texts = Arrays.copyOf(texts, texts.length * 2);
+                starts = Arrays.copyOf(starts, starts.length * 2);
+            }
+            texts[count++] = text;
+            starts[count] = points;
+        }
+
+        void add(double lon, double lat) {
+            if(points * 2 + 2 > xy.length) {
+                xy = Arrays.copyOf(xy, xy.length * 2);
+            }
+            xy[points * 2] = lon;
+            xy[points * 2 + 1] = lat;
+            points++;
+            starts[count] = points;
+        }
+    }
+
+    /**
+     * Read TFRs, from cache if file has not changed since cached
+     * @param folder maps folder
+     * @return shapes, empty if none
+     */
+    public static synchronized LinkedList<TFRShape> read(String folder) {
+        LinkedList<TFRShape> ret = new LinkedList<TFRShape>();
+
+        File file = new File(folder, FILE);
+        String manifest = Helper.readTimestampFromFile(folder + "/" + MANIFEST);
+        if(null == manifest || !file.exists()) {
+            return ret;
+        }
+
+        // Find date of TFRs of format 09_03_2015_15:30_UTC, first line in manifest
+        SimpleDateFormat format = new SimpleDateFormat("MM_dd_yyyy_HH:mm", Locale.getDefault());
+        Date time;
+        try {
+            time = format.parse(manifest.replace("_UTC", "")); // internal times of products in UTC
+        }
+        catch (Exception e) {
+            // nothing to return
+            return ret;
+        }
+
+        File cache = new File(folder, CACHE);
+        Parsed p = load(cache, manifest, file);
+        if(null == p) {
+            try {
+                p = parse(file);
+            }
+            catch (IOException e) {
+                return ret;
+            }
+            save(cache, manifest, file, p);
+        }
+
+        String when = "@ " + time.toString();
+        for(int i = 0; i < p.count; i++) {
+            TFRShape shape = new TFRShape(getLabel(p.texts[i], when), time);
+            for(int point = p.starts[i]; point < p.starts[i + 1]; point++) {
+                shape.add(p.xy[point * 2], p.xy[point * 2 + 1], false);
+            }
+            shape.makePolygon();
+            ret.add(shape);
+        }
+        return ret;
+    }
+
+    /*
+     * Go through the file once, a token at a time
+     */
+    private static Parsed parse(File file) throws IOException {
+        Parsed p = new Parsed();
+        byte buffer[] = new byte[16384];
+        byte token[] = new byte[64];
+        int length = 0;
+        boolean inTfr = false;
+        boolean haveLat = false;
+        double lat = 0;
+
+        InputStream in = new FileInputStream(file);
+        try {
+            while(true) {
+                int read = in.read(buffer);
+                for(int i = 0; i < read; i++) {
+                    byte b = buffer[i];
+                    if(',' != b) {
+                        if(length == token.length) {
+                            token = Arrays.copyOf(token, length * 2);
+                        }
+                        token[length++] = b;
+                        continue;
+                    }
+
+                    /*
+                     * Token done, TFR text or half of a point
+                     */
+                    if(contains(token, length, MARK)) {
+                        p.start(new String(token, 0, length, UTF8));
+                        inTfr = true;
+                        haveLat = false;
+                    }
+                    else if(!haveLat) {
+                        lat = getNumber(token, length);
+                        haveLat = true;
+                    }
+                    else {
+                        // bad input from Govt. site skips the point
+                        double lon = getNumber(token, length);
+                        if(inTfr && !Double.isNaN(lat) && !Double.isNaN(lon)) {
+                            p.add(lon, lat);
+                        }
+                        haveLat = false;
+                    }
+                    length = 0;
+                }
+                if(read < 0) {
+                    break;
+                }
+            }
+        }
+        finally {
+            in.close();
+        }
+
+        // last token has no comma after it, a TFR text may be there
+        if(contains(token, length, MARK)) {
+            p.start(new String(token, 0, length, UTF8));
+        }
+        else if(haveLat && inTfr) {
+            double lon = getNumber(token, length);
+            if(!Double.isNaN(lat) && !Double.isNaN(lon)) {
+                p.add(lon, lat);
+            }
+        }
+        return p;
+    }
+
+    /*
+     * Decimal number as Double.parseDouble would, NaN if not a number.
+     * Plain decimals are done here without making a String.
+     */
+    private static double getNumber(byte token[], int length) {
+        int start = 0;
+        int end = length;
+        while(start < end && token[start] <= ' ') {
+            start++;
+        }
+        while(end > start && token[end - 1] <= ' ') {
+            end--;
+        }
+
+        int i = start;
+        boolean negative = false;
+        if(i < end && ('-' == token[i] || '+' == token[i])) {
+            negative = '-' == token[i];
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int decimals = -1;
+        for(; i < end; i++) {
+            byte b = token[i];
+            if(b >= '0' && b <= '9') {
+                mantissa = mantissa * 10 + (b - '0');
+                digits++;
+                if(decimals >= 0) {
+                    decimals++;
+                }
+                if(mantissa >= MAX_EXACT) {
+                    break;
+                }
+            }
+            else if('.' == b && decimals < 0) {
+                decimals = 0;
+            }
+            else {
+                break;
+            }
+        }
+        if(i == end && digits > 0 && decimals < POWERS.length) {
+            double value = mantissa / POWERS[Math.max(decimals, 0)];
+            return negative ? -value : value;
+        }
+
+        // exponents, long numbers, junk
+        try {
+            return Double.parseDouble(new String(token, start, end - start, UTF8));
+        }
+        catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    private static boolean contains(byte token[], int length, byte what[]) {
+        for(int i = 0; i + what.length <= length; i++) {
+            int j = 0;
+            while(j < what.length && token[i + j] == what[j]) {
+                j++;
+            }
+            if(j == what.length) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+     * Text to show in one pass, "TFR:: " becomes time, and each field goes on its line
+     */
+    private static String getLabel(String text, String when) {
+        StringBuilder label = new StringBuilder(text.length() + when.length() + 64);
+        int length = text.length();
+        for(int i = 0; i < length; ) {
+            if(text.startsWith("TFR:: ", i)) {
+                label.append(when);
+                i += 6;
+            }
+            else if(text.startsWith("Top", i)) {
+                label.append("\nTop      ");
+                i += 3;
+            }
+            else if(text.startsWith("Low", i)) {
+                label.append("\nBottom   ");
+                i += 3;
+            }
+            else if(text.startsWith("Eff", i)) {
+                label.append("\nEffective");
+                i += 3;
+            }
+            else if(text.startsWith("Exp", i)) {
+                label.append("\nExpires  ");
+                i += 3;
+            }
+            else {
+                label.append(text.charAt(i++));
+            }
+        }
+        return label.toString();
+    }
+
+    /*
+     * Map cache if made from this very download
+     */
+    private static Parsed load(File cache, String manifest, File file) {
+        if(!cache.exists()) {
+            return null;
+        }
+        try {
+            RandomAccessFile raf = new RandomAccessFile(cache, "r");
+            MappedByteBuffer map;
+            try {
+                FileChannel channel = raf.getChannel();
+                map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            finally {
+                raf.close();
+            }
+
+            if(map.getInt() != CACHE_MAGIC || map.getInt() != CACHE_VERSION ||
+                    !manifest.equals(getString(map)) || map.getLong() != file.length() || map.getLong() != file.lastModified()) {
+                return null;
+            }
+            Parsed p = new Parsed();
+            p.count = map.getInt();
+            p.points = map.getInt();
+            if(p.count < 0 || p.points < 0 || (long)p.points * 16 > map.remaining()) {
+                return null;
+            }
+            p.texts = new String[p.count];
+            for(int i = 0; i < p.count; i++) {
+                p.texts[i] = getString(map);
+            }
+            p.starts = new int[p.count + 1];
+            map.asIntBuffer().get(p.starts);
+            map.position(map.position() + p.starts.length * 4);
+            for(int i = 0; i < p.count; i++) {
+                if(p.starts[i] < 0 || p.starts[i] > p.starts[i + 1] || p.starts[i + 1] > p.points) {
+                    return null;
+                }
+            }
+            p.xy = new double[p.points * 2];
+            map.asDoubleBuffer().get(p.xy);
+            return p;
+        }
+        catch (Exception e) {
+            // short or bad cache, parse again
+            return null;
+        }
+    }
+
+    private static String getString(ByteBuffer map) throws IOException {
+        int length = map.getInt();
+        if(length < 0 || length > map.remaining()) {
+            throw new IOException("Bad TFR cache");
+        }
+        byte b[] = new byte[length];
+        map.get(b);
+        return new String(b, UTF8);
+    }
+
+    /*
+     * Save what was parsed, nothing lost if it cannot be
+     */
+    private static void save(File cache, String manifest, File file, Parsed p) {
+        File tmp = new File(cache.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            out.writeInt(CACHE_MAGIC);
+            out.writeInt(CACHE_VERSION);
+            putString(out, manifest);
+            out.writeLong(file.length());
+            out.writeLong(file.lastModified());
+            out.writeInt(p.count);
+            out.writeInt(p.points);
+            for(int i = 0; i < p.count; i++) {
+                putString(out, p.texts[i]);
+            }
+            for(int i = 0; i <= p.count; i++) {
+                out.writeInt(p.starts[i]);
+            }
+            ByteBuffer xy = ByteBuffer.allocate(p.points * 16);
+            xy.asDoubleBuffer().put(p.xy, 0, p.points * 2);
+            out.write(xy.array());
+            out.close();
+            out = null;
+            if(!tmp.renameTo(cache)) {
+                tmp.delete();
+            }
+        }
+        catch (IOException e) {
+            tmp.delete();
+        }
+        finally {
+            if(null != out) {
+                try {
+                    out.close();
+                }
+                catch (IOException e) {
+                }
+                tmp.delete();
+            }
+        }
+    }
+
+    private static void putString(DataOutputStream out, String s) throws IOException {
+        byte b[] = s.getBytes(UTF8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+}
@@ -0,0 +1,129 @@
+/*
+Copyright (c) 2015, Apps4Av Inc. (apps4av.com)
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+    * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+    *     * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+    *
+    *     THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.ds.avare.network;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.LinkedList;
+
+import com.ds.avare.shapes.TilePack;
+import com.ds.avare.shapes.TilePacks;
+import com.ds.avare.utils.Helper;
+
+/**
+ * Converts charts downloaded as loose tile files (tiles/index/zoom/col/row.ext) to tile packs.
+ * Uses the chart manifest that lists every file of a chart.
+ *
+ * @author zkhan
+ */
+public class TilePackConverter {
+
+    static final int blocksize = 4096;
+
+    /**
+     * Convert all charts in the maps folder that still have loose tiles
+     * @param path maps folder
+     * @return number of charts converted
+     */
+    public static int convertAll(String path) {
+        File files[] = new File(path).listFiles();
+        if(null == files) {
+            return 0;
+        }
+        int num = 0;
+        for(File f : files) {
+            /*
+             * Chart manifests have no extension
+             */
+            if(f.isDirectory() || f.getName().contains(".")) {
+                continue;
+            }
+            if(convert(path, f.getName())) {
+                num++;
+            }
+        }
+        return num;
+    }
+
+    /**
+     * Convert one chart
+     * @param path maps folder
+     * @param name chart name, same as its manifest file
+     * @return true if a pack was made
+     */
+    public static boolean convert(String path, String name) {
+        LinkedList<String> tiles = new LinkedList<String>();
+        try {
+            BufferedReader br = new BufferedReader(new FileReader(path + "/" + name), blocksize);
+            /*
+             * skip the first line which is date / version
+             */
+            String line = br.readLine();
+            while(null != (line = br.readLine())) {
+                if(TilePack.makeKey(line) >= 0 && new File(path + "/" + line).isFile()) {
+                    tiles.add(line);
+                }
+            }
+            br.close();
+        }
+        catch (IOException e) {
+            return false;
+        }
+
+        if(tiles.isEmpty()) {
+            return false;
+        }
+
+        String packName = TilePack.getFileName(path, name);
+        boolean made = false;
+        if(!new File(packName).exists()) {
+            TilePack.Writer pack = null;
+            try {
+                pack = new TilePack.Writer(packName, tiles.size());
+                for(String tile : tiles) {
+                    pack.add(TilePack.makeKey(tile), new FileInputStream(path + "/" + tile));
+                }
+                pack.close();
+            }
+            catch (IOException e) {
+                if(null != pack) {
+                    pack.abort();
+                }
+                return false;
+            }
+            TilePacks.getInstance().invalidate();
+            made = true;
+        }
+
+        /*
+         * Pack has it all now, remove loose tiles, and their folders when empty
+         */
+        HashSet<File> folders = new HashSet<File>();
+        for(String tile : tiles) {
+            File f = new File(path + "/" + tile);
+            f.delete();
+            folders.add(f.getParentFile());
+        }
+        for(File folder : folders) {
+            String left[] = folder.list();
+            if(null != left && (left.length == 0 || (left.length == 1 && left[0].equals(".nomedia")))) {
+                Helper.deleteDir(folder);
+            }
+        }
+        return made;
+    }
+}
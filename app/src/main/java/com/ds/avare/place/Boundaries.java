@@ -14,13 +14,14 @@ Redistribution and use in source and binary forms, with or without modification,
 package com.ds.avare.place;
 
 import com.ds.avare.shapes.ChartShape;
-import com.ds.avare.shapes.Shape;
+import com.ds.avare.shapes.ShapeIndex;
 import com.ds.avare.utils.BitmapHolder;
 
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
 
 /**
  * Created by zkhan on 8/18/15.
@@ -28,7 +29,8 @@ import java.util.Iterator;
  */
 public class Boundaries {
 
-    private HashMap<String, Shape> mPolygons;
+    private IdentityHashMap<ChartShape, String> mNames;
+    private HashMap<String, ShapeIndex<ChartShape>> mIndex;
     private static Boundaries mInstance = null;
 
     private Boundaries() {
@@ -37,29 +39,24 @@ public class Boundaries {
 
 
     /**
-     * Loop through to get name of chart we are on.
+     * Get name of chart we are on.
      *
      * @param lon
      * @param lat
      * @return
      */
     public String findChartOn(String chartIndex, double lon, double lat) {
-        Iterator it = mPolygons.entrySet().iterator();
-        while (it.hasNext()) {
-            HashMap.Entry<String, ChartShape> pair = (HashMap.Entry<String, ChartShape>)it.next();
-            ChartShape s = pair.getValue();
-            String name = pair.getKey();
-            String type = s.getName();
-            // Search only specific type
-            if(type.equals(chartIndex)) {
-                // find if this point is in this chart
-                type = s.getTextIfTouched(lon, lat);
-                if(type != null) {
-                    return name;
-                }
-            }
+        // Search only specific type
+        ShapeIndex<ChartShape> index = mIndex.get(chartIndex);
+        if(null == index) {
+            return "";
+        }
+        // find if this point is in a chart
+        LinkedList<ChartShape> on = index.findTouched(lon, lat);
+        if(on.isEmpty()) {
+            return "";
         }
-        return "";
+        return mNames.get(on.getFirst());
     }
 
     /*
@@ -75,7 +72,8 @@ public class Boundaries {
 
     // Make chart boundary shapes
     private void makePolygons() {
-        mPolygons = new HashMap<String, Shape>();
+        HashMap<String, ChartShape> polygons = new HashMap<String, ChartShape>();
+        mNames = new IdentityHashMap<ChartShape, String>();
 
         // loop and add shapes
         for (int i = 0; i < mData.length; i += 4) {
@@ -85,22 +83,31 @@ public class Boundaries {
             double lat = Double.parseDouble(mData[i + 3]);
 
             // add to hash, but check if it exists first
-            Shape s = mPolygons.get(name);
+            ChartShape s = polygons.get(name);
             if (s == null) {
                 // hashmap will save name, shape will save type
                 s = new ChartShape(type);
-                mPolygons.put(name, s);
+                polygons.put(name, s);
+                mNames.put(s, name);
             }
             // add point to shape
             s.add(lon, lat, false);
         }
 
-        // Make all shapes
-        Iterator it = mPolygons.entrySet().iterator();
-        while (it.hasNext()) {
-            HashMap.Entry<String, ChartShape> pair = (HashMap.Entry<String, ChartShape>)it.next();
-            ChartShape s = pair.getValue();
+        // Make all shapes, and an index of each type
+        HashMap<String, LinkedList<ChartShape>> types = new HashMap<String, LinkedList<ChartShape>>();
+        for (ChartShape s : polygons.values()) {
             s.makePolygon();
+            LinkedList<ChartShape> list = types.get(s.getName());
+            if (list == null) {
+                list = new LinkedList<ChartShape>();
+                types.put(s.getName(), list);
+            }
+            list.add(s);
+        }
+        mIndex = new HashMap<String, ShapeIndex<ChartShape>>();
+        for (String type : types.keySet()) {
+            mIndex.put(type, new ShapeIndex<ChartShape>(types.get(type)));
         }
     }
 
@@ -112,6 +112,14 @@ public class Origin {
         return Epsg900913.getOffsetY(mLatScreenTop, lat, mZoom) * mScale;
     }
 
+    /**
+     * Offsets are linear in Epsg900913 meters, this is the factor
+     * @return screen pixels per meter
+     */
+    public double getPixelsPerMeter() {
+        return Epsg900913.getInvResolution(mZoom) * mScale;
+    }
+
     /**
      *
      * @return
@@ -0,0 +1,218 @@
+/*
+Copyright (c) 2015, Apps4Av Inc. (apps4av.com)
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+    * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+    *     * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+    *
+    *     THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.ds.avare.shapes;
+
+import java.util.Arrays;
+
+/**
+ * R-tree of boxes, packed once with Sort-Tile-Recursive. A query is checked against a few
+ * node boxes on the way down instead of every box. Not changed after made, so safe to share.
+ *
+ * @author zkhan
+ */
+public class BoxTree {
+
+    /*
+     * Children per node
+     */
+    private static final int NODE = 16;
+
+    private int mSize;
+
+    /*
+     * Leaf i is box mOrder[i]. Boxes of all levels, leaves first, 4 per box: lon min, lat min, lon max, lat max.
+     * Node j of a level covers boxes j * NODE to j * NODE + NODE - 1 of level below.
+     */
+    private int mOrder[];
+    private double mBoxes[];
+    private int mLevelStart[];
+    private int mLevelCount[];
+
+    /**
+     * Box numbers from find, grows as needed. Reuse one to not allocate per query.
+     */
+    public static class Found {
+        private int mIds[];
+        private int mCount;
+
+        public Found() {
+            mIds = new int[16];
+            mCount = 0;
+        }
+
+        public void clear() {
+            mCount = 0;
+        }
+
+        public void add(int id) {
+            if(mCount == mIds.length) {
+                mIds = Arrays.copyOf(mIds, mCount * 2);
+            }
+            mIds[mCount++] = id;
+        }
+
+        public int get(int i) {
+            return mIds[i];
+        }
+
+        public int size() {
+            return mCount;
+        }
+
+        /**
+         * Box numbers in increasing order
+         */
+        public void sort() {
+            Arrays.sort(mIds, 0, mCount);
+        }
+    }
+
+    /**
+     *
+     * @param boxes 4 per box: lon min, lat min, lon max, lat max
+     * @param n number of boxes
+     */
+    public BoxTree(double boxes[], int n) {
+        mSize = n;
+        mOrder = tile(boxes, n);
+
+        /*
+         * Count levels and boxes
+         */
+        int levels = 1;
+        int all = n;
+        for(int count = n; count > 1; ) {
+            count = (count + NODE - 1) / NODE;
+            all += count;
+            levels++;
+        }
+        mLevelStart = new int[levels];
+        mLevelCount = new int[levels];
+        mBoxes = new double[all * 4];
+
+        for(int i = 0; i < n; i++) {
+            System.arraycopy(boxes, mOrder[i] * 4, mBoxes, i * 4, 4);
+        }
+        mLevelStart[0] = 0;
+        mLevelCount[0] = n;
+
+        /*
+         * Each level boxes groups of the one below
+         */
+        for(int level = 1; level < levels; level++) {
+            int below = mLevelStart[level - 1];
+            int belowCount = mLevelCount[level - 1];
+            int start = below + belowCount;
+            int count = (belowCount + NODE - 1) / NODE;
+            for(int j = 0; j < count; j++) {
+                int node = (start + j) * 4;
+                mBoxes[node] = Double.MAX_VALUE;
+                mBoxes[node + 1] = Double.MAX_VALUE;
+                mBoxes[node + 2] = -Double.MAX_VALUE;
+                mBoxes[node + 3] = -Double.MAX_VALUE;
+                int last = Math.min(belowCount, (j + 1) * NODE);
+                for(int c = j * NODE; c < last; c++) {
+                    int child = (below + c) * 4;
+                    mBoxes[node] = Math.min(mBoxes[node], mBoxes[child]);
+                    mBoxes[node + 1] = Math.min(mBoxes[node + 1], mBoxes[child + 1]);
+                    mBoxes[node + 2] = Math.max(mBoxes[node + 2], mBoxes[child + 2]);
+                    mBoxes[node + 3] = Math.max(mBoxes[node + 3], mBoxes[child + 3]);
+                }
+            }
+            mLevelStart[level] = start;
+            mLevelCount[level] = count;
+        }
+    }
+
+    /**
+     *
+     * @return number of boxes
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Boxes that overlap an area, edges count. Pass a point as an area of no size.
+     * @param lonMin
+     * @param latMin
+     * @param lonMax
+     * @param latMax
+     * @param found cleared, then box numbers added in no order
+     */
+    public void find(double lonMin, double latMin, double lonMax, double latMax, Found found) {
+        found.clear();
+        if(0 == mSize) {
+            return;
+        }
+        find(mLevelStart.length - 1, 0, lonMin, latMin, lonMax, latMax, found);
+    }
+
+    /*
+     * Go down from a node, add boxes that overlap
+     */
+    private void find(int level, int j, double lonMin, double latMin, double lonMax, double latMax, Found found) {
+        int box = (mLevelStart[level] + j) * 4;
+        if(lonMax < mBoxes[box] || latMax < mBoxes[box + 1] || lonMin > mBoxes[box + 2] || latMin > mBoxes[box + 3]) {
+            return;
+        }
+        if(0 == level) {
+            found.add(mOrder[j]);
+            return;
+        }
+        int last = Math.min(mLevelCount[level - 1], (j + 1) * NODE);
+        for(int c = j * NODE; c < last; c++) {
+            find(level - 1, c, lonMin, latMin, lonMax, latMax, found);
+        }
+    }
+
+    /*
+     * Sort-Tile-Recursive order of leaves: slices by center longitude, each slice by center latitude,
+     * so each run of NODE leaves is a compact tile
+     */
+    private static int[] tile(double boxes[], int n) {
+        int order[] = new int[n];
+        for(int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        sort(boxes, order, 0, n, 0);
+
+        int leaves = (n + NODE - 1) / NODE;
+        int slices = (int)Math.ceil(Math.sqrt(leaves));
+        int perSlice = slices * NODE;
+        for(int start = 0; start < n; start += perSlice) {
+            sort(boxes, order, start, Math.min(n, start + perSlice), 1);
+        }
+        return order;
+    }
+
+    /*
+     * Sort part of order by box center on an axis, 0 lon, 1 lat.
+     * Center as float is plenty to tile with, so it goes in the top of a long with the box number
+     * below, and longs sort without making objects.
+     */
+    private static void sort(double boxes[], int order[], int from, int to, int axis) {
+        long keys[] = new long[to - from];
+        for(int i = from; i < to; i++) {
+            int box = order[i] * 4 + axis;
+            int bits = Float.floatToIntBits((float)(boxes[box] + boxes[box + 2]));
+            // negative floats sort backwards as ints, flip them
+            bits ^= (bits >> 31) & 0x7FFFFFFF;
+            keys[i - from] = ((long)bits << 32) | order[i];
+        }
+        Arrays.sort(keys);
+        for(int i = from; i < to; i++) {
+            order[i] = (int)keys[i - from];
+        }
+    }
+}
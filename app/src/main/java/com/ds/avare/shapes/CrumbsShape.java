@@ -46,7 +46,14 @@ public class CrumbsShape extends Shape {
      * Clear 
      */
     public void clearShape() {
-        super.mCoords.clear();
+        super.clear();
+    }
+
+    /**
+     * Crumbs grow all the time, simplifying them each time is not worth it
+     */
+    @Override
+    protected boolean canSimplify() {
+        return false;
     }
-    
 }
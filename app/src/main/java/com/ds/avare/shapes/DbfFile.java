@@ -0,0 +1,158 @@
+/*
+Copyright (c) 2015, Apps4Av Inc. (apps4av.com)
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+    * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+    *     * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+    *
+    *     THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.ds.avare.shapes;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Attributes of shapes in an ESRI .dbf (dBase III) file, read from a memory mapped file.
+ * Only field names are read when opened, a record is decoded when its text is asked for.
+ * Reads are absolute, so safe to use from several threads.
+ *
+ * @author zkhan
+ */
+public class DbfFile {
+
+    private static final Charset CHARSET = Charset.forName("ISO-8859-1");
+
+    private static final int HEADER_BYTES = 32;
+    private static final int FIELD_BYTES = 32;
+    private static final int FIELD_NAME_BYTES = 11;
+    private static final int FIELD_LENGTH = 16;
+    private static final byte FIELDS_END = 0x0D;
+    private static final byte DELETED = '*';
+
+    private ByteBuffer mBuffer;
+    private int mRecords;
+    private int mHeaderBytes;
+    private int mRecordBytes;
+
+    /*
+     * Name, offset in record and width of each field
+     */
+    private String mNames[];
+    private int mOffsets[];
+    private int mLengths[];
+
+    /**
+     * Map a file and read its field names
+     * @param file
+     * @throws IOException if not a dBase file
+     */
+    public DbfFile(String file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        MappedByteBuffer map;
+        try {
+            FileChannel channel = raf.getChannel();
+            map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        finally {
+            raf.close();
+        }
+        mBuffer = map.order(ByteOrder.LITTLE_ENDIAN);
+
+        int size = mBuffer.capacity();
+        if(size < HEADER_BYTES + 1) {
+            throw new IOException("Not a dBase file " + file);
+        }
+        mHeaderBytes = mBuffer.getShort(8) & 0xFFFF;
+        mRecordBytes = mBuffer.getShort(10) & 0xFFFF;
+        if(mHeaderBytes < HEADER_BYTES + 1 || mHeaderBytes > size || mRecordBytes < 1) {
+            throw new IOException("Not a dBase file " + file);
+        }
+        // records that are in the file, count in header may be more if file was cut short
+        long records = mBuffer.getInt(4) & 0xFFFFFFFFL;
+        mRecords = (int)Math.min(records, (size - mHeaderBytes) / mRecordBytes);
+
+        int fields = 0;
+        for(int pos = HEADER_BYTES; pos + FIELD_BYTES <= mHeaderBytes && FIELDS_END != mBuffer.get(pos); pos += FIELD_BYTES) {
+            fields++;
+        }
+        mNames = new String[fields];
+        mOffsets = new int[fields];
+        mLengths = new int[fields];
+        int offset = 1; // deleted flag first
+        for(int i = 0; i < fields; i++) {
+            int pos = HEADER_BYTES + i * FIELD_BYTES;
+            mNames[i] = getString(pos, FIELD_NAME_BYTES);
+            mOffsets[i] = offset;
+            mLengths[i] = Math.max(0, Math.min(mBuffer.get(pos + FIELD_LENGTH) & 0xFF, mRecordBytes - offset));
+            offset += mLengths[i];
+        }
+    }
+
+    /**
+     *
+     * @return number of records
+     */
+    public int getNumRecords() {
+        return mRecords;
+    }
+
+    /**
+     *
+     * @return number of fields in a record
+     */
+    public int getNumFields() {
+        return mNames.length;
+    }
+
+    /**
+     * Decode a record as text to show
+     * @param record 0 is first, same as shape record number
+     * @return "NAME: value" lines of fields that have a value, null if no such record or deleted
+     */
+    public String getText(int record) {
+        if(record < 0 || record >= mRecords) {
+            return null;
+        }
+        int start = mHeaderBytes + record * mRecordBytes;
+        if(DELETED == mBuffer.get(start)) {
+            return null;
+        }
+        StringBuilder text = new StringBuilder();
+        for(int i = 0; i < mNames.length; i++) {
+            String value = getString(start + mOffsets[i], mLengths[i]);
+            if(value.length() == 0) {
+                continue;
+            }
+            if(text.length() > 0) {
+                text.append('\n');
+            }
+            text.append(mNames[i]).append(": ").append(value);
+        }
+        return text.toString();
+    }
+
+    /*
+     * Text of a fixed width field, padded with spaces or NULs
+     */
+    private String getString(int pos, int length) {
+        byte bytes[] = new byte[length];
+        int end = 0;
+        for(int i = 0; i < length; i++) {
+            bytes[i] = mBuffer.get(pos + i);
+            if(0 == bytes[i]) {
+                break;
+            }
+            end = i + 1;
+        }
+        return new String(bytes, 0, end, CHARSET).trim();
+    }
+}
@@ -98,7 +98,7 @@ public class ElevationTile {
         }
         else {
             mElevBitmap.drawInBitmap(b, t.getName(), 0, 0);
-            b.recycle();
+            b.release();
             b = null;
         }
 
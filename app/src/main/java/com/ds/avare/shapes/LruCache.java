@@ -123,6 +123,17 @@ public class LruCache<K, V> {
         }
     }
 
+    /**
+     * Returns true if {@code key} is in the cache. Unlike {@link #get} this does not
+     * change the order of the queue or the hit and miss counts.
+     */
+    public synchronized final boolean contains(K key) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+        return map.containsKey(key);
+    }
+
     /**
      * Caches {@code value} for {@code key}. The value is moved to the head of
      * the queue.
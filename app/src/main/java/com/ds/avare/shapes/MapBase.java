@@ -13,12 +13,30 @@ Redistribution and use in source and binary forms, with or without modification,
 package com.ds.avare.shapes;
 
 import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
 import android.view.Display;
 import android.view.WindowManager;
 
 import com.ds.avare.storage.Preferences;
 import com.ds.avare.utils.BitmapHolder;
 import com.ds.avare.utils.GenericCallback;
+import com.ds.avare.utils.LongHashMap;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * Created by zkhan on 9/1/15.
@@ -29,6 +47,18 @@ public class MapBase {
     protected BitmapHolder[] mapA;
     protected BitmapHolder[] mapB;
 
+    /*
+     * mapB and keysB are filled by reloadMap in background while cache evicts in UI thread. Hold this to
+     * change or read them, so a tile is not released while being put on screen.
+     */
+    private final Object mTilesLock = new Object();
+
+    /*
+     * Tile keys (chart index, zoom, col, row) of tiles in mapA / mapB, for fallback drawing
+     */
+    protected long[] keysA;
+    protected long[] keysB;
+
     protected Context mContext;
 
     protected Preferences mPref;
@@ -43,6 +73,19 @@ public class MapBase {
 
     protected LruCache<String, BitmapHolder> mBitmapCache;
 
+    /*
+     * Same tiles as in cache, by tile key, so neighboring zoom tiles can be found without making names.
+     * UI thread only, like adding in cache.
+     */
+    private LongHashMap<BitmapHolder> mTileIndex;
+
+    /*
+     * Decoder threads, one per core
+     */
+    private ExecutorService mDecoder;
+    private HashMap<String, Future<BitmapHolder>> mDecoding;
+    private Handler mHandler;
+
 
     protected MapBase(Context context, int size, int tilesdim[]) {
 
@@ -60,6 +103,29 @@ public class MapBase {
         mNumTiles = mXtiles * mYtiles;
         mapA = new BitmapHolder[mNumTiles];
         mapB = new BitmapHolder[mNumTiles];
+        keysA = new long[mNumTiles];
+        keysB = new long[mNumTiles];
+        Arrays.fill(keysA, -1);
+        Arrays.fill(keysB, -1);
+        mTileIndex = new LongHashMap<BitmapHolder>(mNumTiles + getOverhead());
+        mHandler = new Handler(Looper.getMainLooper());
+        mDecoding = new HashMap<String, Future<BitmapHolder>>();
+        mDecoder = Executors.newFixedThreadPool(Math.max(1, Runtime.getRuntime().availableProcessors()),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(final Runnable r) {
+                        Thread t = new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                                r.run();
+                            }
+                        });
+                        t.setName("TileDecode");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
         mBitmapCache = new LruCache<String, BitmapHolder>(mSize * (mNumTiles + getOverhead())) {
 
             @Override
@@ -69,11 +135,36 @@ public class MapBase {
 
             @Override
             protected void entryRemoved(boolean evicted, String key, BitmapHolder oldValue, BitmapHolder newValue) {
-                oldValue.recycle();
+                long k = TilePack.makeKey(key);
+                if (k >= 0 && mTileIndex.get(k) == oldValue) {
+                    mTileIndex.remove(k);
+                }
+                synchronized (mTilesLock) {
+                    if (isShowing(oldValue)) {
+                        // Still on screen till next flip, cannot be decoded over. Let GC have it.
+                        return;
+                    }
+                    oldValue.release();
+                }
             }
         };
     }
 
+    /**
+     * Is this tile on screen, or about to be on screen. Hold mTilesLock.
+     *
+     * @param h
+     * @return
+     */
+    private boolean isShowing(BitmapHolder h) {
+        for (int tilen = 0; tilen < mNumTiles; tilen++) {
+            if (mapA[tilen] == h || mapB[tilen] == h) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Overhead needed for smooth tile switching, 1x becomes a double buffer.
      * Warning: Liberal overhead could cause OOM exception because we are talking about pictures of size 512x512.
@@ -103,8 +194,12 @@ public class MapBase {
     /**
      * When a new string of names are available for a new region, reload
      * will load and reuse older tiles.
+     * Tiles are decoded in parallel, center tile first. Decodes of the previous region that are
+     * not needed any more are cancelled if not started; those already decoded still go in cache.
      *
      * @param tileNames
+     * @param c called when tiles in cache are in place and the rest are decoding, so the new region
+     *          can be shown with fallback tiles right away
      * @return
      */
     protected int reloadMap(String[] tileNames, GenericCallback c) {
@@ -112,32 +207,156 @@ public class MapBase {
         // how many tiles missing?
         int showing = 0;
 
-        /*
-         * For all tiles that will be loaded.
-         */
-        for (int tilen = 0; tilen < mNumTiles; tilen++) {
+        Integer order[] = getCenterOutOrder();
+        Future<BitmapHolder> decodes[] = new Future[mNumTiles];
+
+        synchronized (mDecoding) {
+            /*
+             * Cancel decodes that are no longer in the region
+             */
+            HashSet<String> names = new HashSet<String>(Arrays.asList(tileNames));
+            Iterator<Map.Entry<String, Future<BitmapHolder>>> it = mDecoding.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, Future<BitmapHolder>> e = it.next();
+                if (!names.contains(e.getKey())) {
+                    e.getValue().cancel(false);
+                    it.remove();
+                }
+            }
 
-            mapB[tilen] = mBitmapCache.get(tileNames[tilen]);
+            /*
+             * For all tiles that will be loaded, center out.
+             */
+            for (int tilen : order) {
+
+                BitmapHolder h;
+                synchronized (mTilesLock) {
+                    keysB[tilen] = TilePack.makeKey(tileNames[tilen]);
+                    // cache evictions check mapB under the lock, so this one cannot be released now
+                    h = mBitmapCache.get(tileNames[tilen]);
+                    mapB[tilen] = h;
+                }
 
-            if (mapB[tilen] == null) {
-                mapB[tilen] = new BitmapHolder(mContext, mPref, tileNames[tilen], 1);
-                if (mapB[tilen].getBitmap() != null) {
-                    c.callback(this, mapB[tilen]);
+                if (h == null) {
+                    decodes[tilen] = mDecoding.get(tileNames[tilen]);
+                    if (decodes[tilen] == null) {
+                        // not being decoded for previous region, start now
+                        decodes[tilen] = mDecoder.submit(new DecodeTask(tileNames[tilen]));
+                        mDecoding.put(tileNames[tilen], decodes[tilen]);
+                    }
+                } else {
                     showing++;
                 }
-            } else {
+            }
+        }
+
+        for (int tilen : order) {
+            if (decodes[tilen] != null) {
+                c.callback(this, null);
+                break;
+            }
+        }
+
+        /*
+         * Wait for decodes
+         */
+        for (int tilen : order) {
+            if (decodes[tilen] == null) {
+                continue;
+            }
+            BitmapHolder h;
+            try {
+                h = decodes[tilen].get();
+            } catch (InterruptedException e) {
+                // a newer region replaced this one
+                Thread.currentThread().interrupt();
+                return showing;
+            } catch (CancellationException e) {
+                h = null;
+            } catch (ExecutionException e) {
+                h = null;
+            }
+            synchronized (mTilesLock) {
+                // it went in cache before this, and may have been evicted and released since
+                if (h != null && h.getBitmap() == null) {
+                    h = null;
+                }
+                mapB[tilen] = h;
+            }
+            if (h != null) {
                 showing++;
             }
         }
         return showing;
     }
 
+    /**
+     * Tile indexes sorted by distance from center tile
+     *
+     * @return
+     */
+    private Integer[] getCenterOutOrder() {
+        Integer order[] = new Integer[mNumTiles];
+        for (int tilen = 0; tilen < mNumTiles; tilen++) {
+            order[tilen] = tilen;
+        }
+        final int cx = mXtiles / 2;
+        final int cy = mYtiles / 2;
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                int ax = a % mXtiles - cx;
+                int ay = a / mXtiles - cy;
+                int bx = b % mXtiles - cx;
+                int by = b / mXtiles - cy;
+                return (ax * ax + ay * ay) - (bx * bx + by * by);
+            }
+        });
+        return order;
+    }
+
+    /**
+     * Decodes a tile on a worker thread, then puts it in cache in UI thread
+     */
+    private class DecodeTask implements Callable<BitmapHolder> {
+        private String mName;
+
+        DecodeTask(String name) {
+            mName = name;
+        }
+
+        @Override
+        public BitmapHolder call() {
+            final BitmapHolder b = new BitmapHolder(mContext, mPref, mName, 1);
+            if (b.getBitmap() == null) {
+                synchronized (mDecoding) {
+                    mDecoding.remove(mName);
+                }
+                return null;
+            }
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    addInCache(b);
+                    // only now it can be found in cache
+                    synchronized (mDecoding) {
+                        mDecoding.remove(mName);
+                    }
+                }
+            });
+            return b;
+        }
+    }
+
     /**
      * Call this from UI thread so that tiles can be flipped without tear
      */
     public void flip() {
-        for (int tilen = 0; tilen < mNumTiles; tilen++) {
-            mapA[tilen] = mapB[tilen];
+        synchronized (mTilesLock) {
+            for (int tilen = 0; tilen < mNumTiles; tilen++) {
+                mapA[tilen] = mapB[tilen];
+                keysA[tilen] = keysB[tilen];
+            }
         }
     }
 
@@ -211,9 +430,59 @@ public class MapBase {
     // then the addInCache will be called by UI thread to add tile in cache, and invalidate view
     // deal with LRU cache in UI thread
     public void addInCache(BitmapHolder h) {
-        if (mBitmapCache.get(h.getName()) == null) {
+        if (!mBitmapCache.contains(h.getName())) {
             mBitmapCache.put(h.getName(), h);
+            long k = TilePack.makeKey(h.getName());
+            if (k >= 0) {
+                mTileIndex.put(k, h);
+            }
+        }
+    }
+
+    /**
+     * Find a tile in cache by its key. UI thread only.
+     *
+     * @param key from TilePack.makeKey()
+     * @return
+     */
+    public BitmapHolder findInCache(long key) {
+        if (key < 0) {
+            return null;
         }
+        return mTileIndex.get(key);
+    }
+
+    /**
+     * @param tile
+     * @return key of tile on screen, -1 if none
+     */
+    public long getTileKey(int tile) {
+        return keysA[tile];
+    }
+
+    /**
+     * Does not count as a cache hit or miss
+     * @param name
+     * @return
+     */
+    public boolean isInCache(String name) {
+        return mBitmapCache.contains(name);
+    }
+
+    /**
+     * Tiles found in cache when needed on screen
+     * @return
+     */
+    public int getCacheHits() {
+        return mBitmapCache.hitCount();
+    }
+
+    /**
+     * Tiles not in cache when needed on screen, these had to be loaded
+     * @return
+     */
+    public int getCacheMisses() {
+        return mBitmapCache.missCount();
     }
 
     public boolean isChartPartial() {
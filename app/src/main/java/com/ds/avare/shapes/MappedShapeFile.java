@@ -0,0 +1,269 @@
+/*
+Copyright (c) 2015, Apps4Av Inc. (apps4av.com)
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+    * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+    *     * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+    *
+    *     THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.ds.avare.shapes;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads polygons and polylines of an ESRI .shp file straight from a memory mapped file.
+ * Records are gone through one at a time with next(), points are copied into arrays the
+ * caller gives, so no object is made per record or point. Each reader has its own buffers,
+ * so files can be read on several threads at once.
+ *
+ * @author zkhan
+ */
+public class MappedShapeFile {
+
+    public static final int TYPE_NULL = 0;
+    public static final int TYPE_POLYLINE = 3;
+    public static final int TYPE_POLYGON = 5;
+    public static final int TYPE_POLYLINE_Z = 13;
+    public static final int TYPE_POLYGON_Z = 15;
+    public static final int TYPE_POLYLINE_M = 23;
+    public static final int TYPE_POLYGON_M = 25;
+
+    private static final int FILE_CODE = 9994;
+    private static final int VERSION = 1000;
+    private static final int HEADER_BYTES = 100;
+    private static final int RECORD_HEADER_BYTES = 8;
+
+    /*
+     * Poly record content: type, box, parts, points, part starts, then x, y pairs
+     */
+    private static final int POLY_BOX = 4;
+    private static final int POLY_NUM_PARTS = 36;
+    private static final int POLY_NUM_POINTS = 40;
+    private static final int POLY_PARTS = 44;
+
+    /*
+     * Record headers are big endian, everything else little endian
+     */
+    private ByteBuffer mBig;
+    private ByteBuffer mLittle;
+    private int mEnd;
+    private int mShapeType;
+
+    /*
+     * Record at hand, content offset in file
+     */
+    private int mNext;
+    private int mRecord;
+    private int mRecordEnd;
+    private int mRecordType;
+    private int mNumParts;
+    private int mNumPoints;
+
+    /**
+     * Map a file and read its header
+     * @param file
+     * @throws IOException if not a shape file
+     */
+    public MappedShapeFile(String file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        MappedByteBuffer map;
+        try {
+            FileChannel channel = raf.getChannel();
+            // mapping stays good after file is closed
+            map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        finally {
+            raf.close();
+        }
+
+        mBig = map.duplicate().order(ByteOrder.BIG_ENDIAN);
+        mLittle = map.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        mEnd = map.capacity();
+        if(mEnd < HEADER_BYTES || mBig.getInt(0) != FILE_CODE || mLittle.getInt(28) != VERSION) {
+            throw new IOException("Not a shape file " + file);
+        }
+        // length in header is in 16 bit words, trust it only if file is not shorter
+        long length = (mBig.getInt(24) & 0xFFFFFFFFL) * 2;
+        if(length >= HEADER_BYTES && length < mEnd) {
+            mEnd = (int)length;
+        }
+        mShapeType = mLittle.getInt(32);
+        mNext = HEADER_BYTES;
+        mRecordType = TYPE_NULL;
+    }
+
+    /**
+     *
+     * @return type of shapes in file, TYPE_
+     */
+    public int getShapeType() {
+        return mShapeType;
+    }
+
+    /**
+     * Go to next record
+     * @return false at end of file
+     * @throws IOException if record is bad
+     */
+    public boolean next() throws IOException {
+        if(mNext + RECORD_HEADER_BYTES > mEnd) {
+            return false;
+        }
+        long bytes = (mBig.getInt(mNext + 4) & 0xFFFFFFFFL) * 2;
+        mRecord = mNext + RECORD_HEADER_BYTES;
+        if(bytes < 4 || mRecord + bytes > mEnd) {
+            throw new IOException("Bad shape record at " + mNext);
+        }
+        mRecordEnd = (int)(mRecord + bytes);
+        mNext = mRecordEnd;
+
+        mRecordType = mLittle.getInt(mRecord);
+        mNumParts = 0;
+        mNumPoints = 0;
+        if(isPoly()) {
+            if(bytes < POLY_PARTS) {
+                throw new IOException("Bad shape record at " + mRecord);
+            }
+            mNumParts = mLittle.getInt(mRecord + POLY_NUM_PARTS);
+            mNumPoints = mLittle.getInt(mRecord + POLY_NUM_POINTS);
+            long need = POLY_PARTS + 4L * mNumParts + 16L * mNumPoints;
+            if(mNumParts < 0 || mNumPoints < 0 || need > bytes) {
+                throw new IOException("Bad shape record at " + mRecord);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Go to a record, as found in the .shx index
+     * @param offset bytes from start of file to record header
+     * @return false if past end of file
+     * @throws IOException if record is bad
+     */
+    public boolean read(int offset) throws IOException {
+        if(offset < HEADER_BYTES) {
+            throw new IOException("Bad shape record at " + offset);
+        }
+        mNext = offset;
+        return next();
+    }
+
+    /**
+     *
+     * @return byte offset of record that next() goes to
+     */
+    public int getNextOffset() {
+        return mNext;
+    }
+
+    /**
+     *
+     * @return type of record at hand, TYPE_
+     */
+    public int getRecordType() {
+        return mRecordType;
+    }
+
+    /**
+     *
+     * @return true if record at hand is a polygon or polyline, with or without Z/M
+     */
+    public boolean isPoly() {
+        switch(mRecordType) {
+            case TYPE_POLYLINE:
+            case TYPE_POLYGON:
+            case TYPE_POLYLINE_Z:
+            case TYPE_POLYGON_Z:
+            case TYPE_POLYLINE_M:
+            case TYPE_POLYGON_M:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     *
+     * @return true if record at hand is a polygon, with or without Z/M
+     */
+    public boolean isPolygon() {
+        return TYPE_POLYGON == mRecordType || TYPE_POLYGON_Z == mRecordType || TYPE_POLYGON_M == mRecordType;
+    }
+
+    /**
+     *
+     * @return parts in record at hand, 0 if not poly
+     */
+    public int getNumParts() {
+        return mNumParts;
+    }
+
+    /**
+     *
+     * @return points in all parts of record at hand
+     */
+    public int getNumPoints() {
+        return mNumPoints;
+    }
+
+    /**
+     *
+     * @param part
+     * @return number of points in a part
+     */
+    public int getNumPoints(int part) {
+        return getPartEnd(part) - getPartStart(part);
+    }
+
+    /**
+     * Bounding box of record at hand
+     * @param box lon min, lat min, lon max, lat max returned here
+     */
+    public void getBox(double box[]) {
+        for(int i = 0; i < 4; i++) {
+            box[i] = mLittle.getDouble(mRecord + POLY_BOX + i * 8);
+        }
+    }
+
+    /**
+     * Points of a part of record at hand
+     * @param part
+     * @param xy lon, lat pairs returned here, must hold 2 * getNumPoints(part)
+     * @return number of points
+     */
+    public int getPoints(int part, double xy[]) {
+        int start = getPartStart(part);
+        int count = getPartEnd(part) - start;
+        int at = mRecord + POLY_PARTS + 4 * mNumParts + 16 * start;
+        // bulk copy through a little endian view
+        mLittle.position(at);
+        DoubleBuffer points = mLittle.asDoubleBuffer();
+        points.get(xy, 0, count * 2);
+        return count;
+    }
+
+    /*
+     * Index of first point of a part, clamped so a bad file cannot read out of its record
+     */
+    private int getPartStart(int part) {
+        int start = mLittle.getInt(mRecord + POLY_PARTS + 4 * part);
+        return Math.max(0, Math.min(start, mNumPoints));
+    }
+
+    private int getPartEnd(int part) {
+        if(part + 1 >= mNumParts) {
+            return mNumPoints;
+        }
+        return Math.max(getPartStart(part), getPartStart(part + 1));
+    }
+}
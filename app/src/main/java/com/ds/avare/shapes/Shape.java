@@ -16,26 +16,44 @@ import android.graphics.Color;
 import android.graphics.Paint;
 
 import com.ds.avare.place.Plan;
-import com.ds.avare.position.Coordinate;
+import com.ds.avare.position.Epsg900913;
 import com.ds.avare.position.Movement;
 import com.ds.avare.position.Origin;
 import com.ds.avare.position.Scale;
 import com.ds.avare.utils.Helper;
-import com.sromku.polygon.Point;
-import com.sromku.polygon.Polygon;
-import com.sromku.polygon.Polygon.Builder;
 
 import java.util.Date;
-import java.util.LinkedList;
 
 /**
+ * Vertices are kept in packed arrays. Screen points are kept too, and worked out again
+ * only when the view moves or zooms, so drawing a shape makes no objects.
+ * Area shapes draw a Douglas-Peucker simplified outline with about a pixel of error,
+ * so vertices drawn go with screen size and not data size. Touch tests use all vertices,
+ * with a crossing number test on the arrays.
  * @author zkhan
  * @author plinel
  *
  */
 public abstract class Shape {
 
-    protected LinkedList<Coordinate> mCoords;
+    /*
+     * Vertices to start with, arrays double as they fill
+     */
+    private static final int INITIAL_COORDS = 8;
+
+    /*
+     * Level of detail l drops vertices closer than LEVEL_METERS * 2^l to the outline
+     */
+    private static final double LEVEL_METERS = 1.0;
+    private static final int LEVELS = 32;
+
+    private double mLon[];
+    private double mLat[];
+    private double mMetersY[];
+    private int mSegment[];
+    private boolean mSeparate[];
+    private int mNumCoords;
+
     protected double mLonMin;
     protected double mLonMax;
     protected double mLatMin;
@@ -43,23 +61,45 @@ public abstract class Shape {
     
     protected String mText;
     
-    private Builder mPolyBuilder;
-    private Polygon mPoly;
+    private boolean mPolygon;
 
     private Date mDate;
+
+    /*
+     * Screen x, y of each vertex, and lines between them, for the view they were found for
+     */
+    private float mPoints[];
+    private float mLines[];
+    private int mNumPoints;
+    private boolean mProjected;
+    private double mProjectedLeft;
+    private double mProjectedTop;
+    private double mProjectedScale;
+
+    /*
+     * Squared distance in meters at which each vertex is dropped, and vertices kept at each level,
+     * made when first needed
+     */
+    private float mImportance[];
+    private int mLevels[][];
     
     /**
      * 
      */
     public Shape(String label, Date date) {
-        mCoords = new LinkedList<Coordinate>();
+        mLon = new double[INITIAL_COORDS];
+        mLat = new double[INITIAL_COORDS];
+        mMetersY = new double[INITIAL_COORDS];
+        mSegment = new int[INITIAL_COORDS];
+        mSeparate = new boolean[INITIAL_COORDS];
+        mNumCoords = 0;
         mLonMin = 180;
         mLonMax = -180;
         mLatMin = 180;
         mLatMax = -180;
         mText = label;
         mDate = date;
-        mPolyBuilder = Polygon.Builder(); 
+        mProjected = false;
     }
 
     public Date getDate() {
@@ -91,14 +131,19 @@ public abstract class Shape {
     }
     
     public void add(double lon, double lat, boolean issep, int segment) {
-        Coordinate c = new Coordinate(lon, lat);
-        if(issep) {
-            c.makeSeparate();
+        if(mNumCoords == mLon.length) {
+            grow();
         }
-        c.setSegment(segment);
-        
-        mCoords.add(c);
-        mPolyBuilder.addVertex(new Point((float)lon, (float)lat));
+        mLon[mNumCoords] = lon;
+        mLat[mNumCoords] = lat;
+        // projection is linear in meters, so drawing needs no trig
+        mMetersY[mNumCoords] = Epsg900913.latToMeters(lat);
+        mSegment[mNumCoords] = segment;
+        mSeparate[mNumCoords] = issep;
+        mNumCoords++;
+        mProjected = false;
+        mImportance = null;
+        mLevels = null;
         
         /*
          * Calculate start points
@@ -117,6 +162,29 @@ public abstract class Shape {
         }
     }
 
+    /**
+     * Remove all vertices
+     */
+    protected void clear() {
+        mNumCoords = 0;
+        mLonMin = 180;
+        mLonMax = -180;
+        mLatMin = 180;
+        mLatMax = -180;
+        mPolygon = false;
+        mProjected = false;
+        mImportance = null;
+        mLevels = null;
+    }
+
+    /**
+     * Outline can be drawn with fewer vertices when zoomed out. Tracks need all of theirs.
+     * @return
+     */
+    protected boolean canSimplify() {
+        return true;
+    }
+
     public void drawShape(Canvas c, Origin origin, Scale scale, Movement movement, Paint paint, boolean night, boolean drawTrack) {
     	drawShape(c, origin, scale,movement,paint,night, drawTrack, null);
     }
@@ -139,6 +207,9 @@ public abstract class Shape {
          */
         float width = paint.getStrokeWidth();
         int color = paint.getColor();
+
+        project(origin);
+        float pts[] = mPoints;
         
         // TrackShape type is used for a flight plan destination
         if (this instanceof TrackShape) {
@@ -148,10 +219,10 @@ public abstract class Shape {
              */
         	int cMax = getNumCoords();
             for(int coord = 0; coord < (cMax - 1); coord++) {
-                float x1 = (float)origin.getOffsetX(mCoords.get(coord).getLongitude());
-                float x2 = (float)origin.getOffsetX(mCoords.get(coord + 1).getLongitude());
-                float y1 = (float)origin.getOffsetY(mCoords.get(coord).getLatitude());
-                float y2 = (float)origin.getOffsetY(mCoords.get(coord + 1).getLatitude());;
+                float x1 = pts[coord * 2];
+                float x2 = pts[coord * 2 + 2];
+                float y1 = pts[coord * 2 + 1];
+                float y2 = pts[coord * 2 + 3];
 
                 if(drawTrack) {
 	                paint.setStrokeWidth(width + 4);
@@ -162,20 +233,20 @@ public abstract class Shape {
 	                if(null == plan) {
 	                	paint.setColor(color);
 	                } else {
-	                	paint.setColor(TrackShape.getLegColor(plan.findNextNotPassed(), mCoords.get(coord).getLeg()));
+	                	paint.setColor(TrackShape.getLegColor(plan.findNextNotPassed(), mSegment[coord]));
 	                }
 
 	                c.drawLine(x1, y1, x2, y2, paint);
                 }
 
-				if(mCoords.get(coord + 1).isSeparate()) {
+				if(mSeparate[coord + 1]) {
                     paint.setColor(night? Color.WHITE : Color.BLACK);
                     c.drawCircle(x2, y2, width + 8, paint);
                     paint.setColor(Color.GREEN);
                     c.drawCircle(x2, y2, width + 6, paint);
                     paint.setColor(color);
                 }
-                if(mCoords.get(coord).isSeparate()) {
+                if(mSeparate[coord]) {
                     paint.setColor(night? Color.WHITE : Color.BLACK);
                     c.drawCircle(x1, y1, width + 8, paint);
                     paint.setColor(Color.GREEN);
@@ -187,30 +258,192 @@ public abstract class Shape {
             /*
              * Draw the shape segment by segment
              */
-            if(getNumCoords() > 0) {
-                float pts[] = new float[(getNumCoords()) * 4];
-                int i = 0;
-                int coord = 0;
-                float x1 = (float) origin.getOffsetX(mCoords.get(coord).getLongitude());
-                float y1 = (float) origin.getOffsetY(mCoords.get(coord).getLatitude());
-                float x2;
-                float y2;
-
-                for (coord = 1; coord < getNumCoords(); coord++) {
-                    x2 = (float) origin.getOffsetX(mCoords.get(coord).getLongitude());
-                    y2 = (float) origin.getOffsetY(mCoords.get(coord).getLatitude());
-
-                    pts[i++] = x1;
-                    pts[i++] = y1;
-                    pts[i++] = x2;
-                    pts[i++] = y2;
-
-                    x1 = x2;
-                    y1 = y2;
+            if(mNumPoints > 1) {
+                c.drawLines(mLines, 0, (mNumPoints - 1) * 4, paint);
+            }
+        }
+    }
+
+    /*
+     * Find screen points for this view, if not found already
+     */
+    private void project(Origin origin) {
+        double left = origin.getLonScreenLeft();
+        double top = origin.getLatScreenTop();
+        double scale = origin.getPixelsPerMeter();
+        if(mProjected && left == mProjectedLeft && top == mProjectedTop && scale == mProjectedScale) {
+            return;
+        }
+
+        // vertices to draw at this zoom, null for all
+        int index[] = getLevel(scale);
+        int n = null == index ? getNumCoords() : index.length;
+        if(null == mPoints || mPoints.length < n * 2) {
+            mPoints = new float[mLon.length * 2];
+            mLines = new float[mLon.length * 4];
+        }
+
+        /*
+         * Same as origin.getOffsetX/Y
+         */
+        double leftMeters = Epsg900913.lonToMeters(left);
+        double topMeters = Epsg900913.latToMeters(top);
+        for(int i = 0; i < n; i++) {
+            int v = null == index ? i : index[i];
+            mPoints[i * 2] = (float)((Epsg900913.lonToMeters(mLon[v]) - leftMeters) * scale);
+            mPoints[i * 2 + 1] = (float)((topMeters - mMetersY[v]) * scale);
+        }
+        // segment by segment for drawLines
+        for(int i = 0; i < n - 1; i++) {
+            System.arraycopy(mPoints, i * 2, mLines, i * 4, 4);
+        }
+
+        mNumPoints = n;
+        mProjectedLeft = left;
+        mProjectedTop = top;
+        mProjectedScale = scale;
+        mProjected = true;
+    }
+
+    /*
+     * Vertices that show at this many pixels per meter
+     * @return null if all do
+     */
+    private int[] getLevel(double pixelsPerMeter) {
+        if(!canSimplify() || getNumCoords() < 3 || pixelsPerMeter <= 0) {
+            return null;
+        }
+        // a pixel, rounded down to a level
+        int level = (int)Math.floor(Math.log(1.0 / pixelsPerMeter / LEVEL_METERS) / Math.log(2));
+        if(level <= 0) {
+            return null;
+        }
+        level = Math.min(level, LEVELS - 1);
+
+        if(null == mImportance) {
+            mImportance = findImportance();
+            mLevels = new int[LEVELS][];
+        }
+        if(null == mLevels[level]) {
+            double tolerance = LEVEL_METERS * (1L << level);
+            float tolerance2 = (float)(tolerance * tolerance);
+            int count = 0;
+            for(int i = 0; i < getNumCoords(); i++) {
+                if(mImportance[i] > tolerance2) {
+                    count++;
+                }
+            }
+            int index[] = new int[count];
+            count = 0;
+            for(int i = 0; i < getNumCoords(); i++) {
+                if(mImportance[i] > tolerance2) {
+                    index[count++] = i;
                 }
-                c.drawLines(pts, paint);
             }
+            mLevels[level] = index;
         }
+        return mLevels[level];
+    }
+
+    /*
+     * Douglas-Peucker once for all tolerances. A vertex stays at a tolerance if it and
+     * every vertex that split the outline before it are farther than that from their chords,
+     * so it gets the smallest of those distances.
+     */
+    private float[] findImportance() {
+        int n = getNumCoords();
+        float importance[] = new float[n];
+        importance[0] = Float.MAX_VALUE;
+        importance[n - 1] = Float.MAX_VALUE;
+
+        double x[] = new double[n];
+        for(int i = 0; i < n; i++) {
+            x[i] = Epsg900913.lonToMeters(mLon[i]);
+        }
+
+        /*
+         * Stack of chords to split, first, last, importance of vertex that made it
+         */
+        int stack[] = new int[64];
+        float limits[] = new float[32];
+        int top = 0;
+        stack[top * 2] = 0;
+        stack[top * 2 + 1] = n - 1;
+        limits[top] = Float.MAX_VALUE;
+        top++;
+        while(top > 0) {
+            top--;
+            int first = stack[top * 2];
+            int last = stack[top * 2 + 1];
+            float limit = limits[top];
+            if(last - first < 2) {
+                continue;
+            }
+
+            double x0 = x[first];
+            double y0 = mMetersY[first];
+            double dx = x[last] - x0;
+            double dy = mMetersY[last] - y0;
+            double len2 = dx * dx + dy * dy;
+            double max = -1;
+            int split = first + 1;
+            for(int i = first + 1; i < last; i++) {
+                double px = x[i] - x0;
+                double py = mMetersY[i] - y0;
+                double d2;
+                if(0 == len2) {
+                    // closed ring, chord is a point
+                    d2 = px * px + py * py;
+                }
+                else {
+                    double cross = px * dy - py * dx;
+                    d2 = cross * cross / len2;
+                }
+                if(d2 > max) {
+                    max = d2;
+                    split = i;
+                }
+            }
+            float d = (float)Math.min(max, limit);
+            importance[split] = d;
+
+            if(top + 2 > limits.length) {
+                int grown[] = new int[stack.length * 2];
+                System.arraycopy(stack, 0, grown, 0, stack.length);
+                stack = grown;
+                float grownLimits[] = new float[limits.length * 2];
+                System.arraycopy(limits, 0, grownLimits, 0, limits.length);
+                limits = grownLimits;
+            }
+            stack[top * 2] = first;
+            stack[top * 2 + 1] = split;
+            limits[top] = d;
+            top++;
+            stack[top * 2] = split;
+            stack[top * 2 + 1] = last;
+            limits[top] = d;
+            top++;
+        }
+        return importance;
+    }
+
+    private void grow() {
+        int size = mLon.length * 2;
+        double lon[] = new double[size];
+        double lat[] = new double[size];
+        double metersY[] = new double[size];
+        int segment[] = new int[size];
+        boolean separate[] = new boolean[size];
+        System.arraycopy(mLon, 0, lon, 0, mNumCoords);
+        System.arraycopy(mLat, 0, lat, 0, mNumCoords);
+        System.arraycopy(mMetersY, 0, metersY, 0, mNumCoords);
+        System.arraycopy(mSegment, 0, segment, 0, mNumCoords);
+        System.arraycopy(mSeparate, 0, separate, 0, mNumCoords);
+        mLon = lon;
+        mLat = lat;
+        mMetersY = metersY;
+        mSegment = segment;
+        mSeparate = separate;
     }
 
     /*
@@ -235,7 +468,25 @@ public abstract class Shape {
      * @return
      */
     public int getNumCoords() {
-        return mCoords.size();
+        return mNumCoords;
+    }
+
+    /**
+     *
+     * @param i vertex
+     * @return
+     */
+    public double getLongitude(int i) {
+        return mLon[i];
+    }
+
+    /**
+     *
+     * @param i vertex
+     * @return
+     */
+    public double getLatitude(int i) {
+        return mLat[i];
     }
 
     /**
@@ -253,15 +504,41 @@ public abstract class Shape {
      * @return
      */
     public String getTextIfTouched(double lon, double lat) {
-        if(null == mPoly) {
+        if(!mPolygon) {
             return null;
         }
-        if(mPoly.contains(new Point((float)lon, (float)lat))) {
+        if(contains(lon, lat)) {
             return mText;
         }
         return null;
     }
 
+    /**
+     * Crossing number test, edge from last vertex to first closes the outline
+     * @param lon
+     * @param lat
+     * @return true if point is inside
+     */
+    public boolean contains(double lon, double lat) {
+        int n = getNumCoords();
+        if(n < 3) {
+            return false;
+        }
+        // cheap box test first, most shapes are far from the point
+        if(lon < mLonMin || lon > mLonMax || lat < mLatMin || lat > mLatMax) {
+            return false;
+        }
+        boolean inside = false;
+        for(int i = 0, j = n - 1; i < n; j = i++) {
+            // edge crosses the ray going east from point
+            if((mLat[i] > lat) != (mLat[j] > lat) &&
+                    lon < (mLon[j] - mLon[i]) * (lat - mLat[i]) / (mLat[j] - mLat[i]) + mLon[i]) {
+                inside = !inside;
+            }
+        }
+        return inside;
+    }
+
     /**
      *
      */
@@ -270,11 +547,9 @@ public abstract class Shape {
     }
     
     /**
-     * 
+     * Shape is complete, touch tests can be done on it
      */
     public void makePolygon() {
-        if(getNumCoords() > 2) {
-            mPoly = mPolyBuilder.build();
-        }
+        mPolygon = getNumCoords() > 2;
     } 
 }
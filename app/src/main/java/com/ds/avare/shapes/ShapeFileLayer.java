@@ -0,0 +1,524 @@
+/*
+Copyright (c) 2015, Apps4Av Inc. (apps4av.com)
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+    * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+    *     * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+    *
+    *     THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.ds.avare.shapes;
+
+import com.ds.avare.position.Origin;
+import com.ds.avare.utils.GenericCallback;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+/**
+ * A user shape file layer, read on demand for the area on screen instead of all at once.
+ * Record offsets come from the .shx file, record boxes from a small index saved next to the
+ * .shp file (.bbx) so later starts do not touch the .shp at all. Records on screen are read on a
+ * loader thread and kept in a cache bounded by number of points; drawing only gets the shapes last
+ * loaded, so it never reads the file. Attributes come from the .dbf file when touched.
+ *
+ * @author zkhan
+ */
+public class ShapeFileLayer {
+
+    /*
+     * Saved box index, changes to format need a new version
+     */
+    private static final String INDEX_EXTENSION = ".bbx";
+    private static final int INDEX_MAGIC = 0x42425846;
+    private static final int INDEX_VERSION = 1;
+
+    private static final int SHX_HEADER_BYTES = 100;
+    private static final int SHX_RECORD_BYTES = 8;
+
+    /*
+     * Points kept in memory. A view that has more shows its largest records.
+     */
+    private static final int MAX_POINTS = 250000;
+
+    private String mFile;
+    private Date mDate;
+    private MappedShapeFile mShp;
+    private ByteBuffer mShx;
+    private DbfFile mDbf;
+    private int mOffsets[];
+    private double mXy[];
+
+    /*
+     * Poly records: record number, points, box. Tree is over these.
+     */
+    private int mCount;
+    private int mRecords[];
+    private int mPoints[];
+    private double mBoxes[];
+    private BoxTree mTree;
+    private BoxTree.Found mFound;
+
+    /*
+     * Shapes of read records, least recently used first
+     */
+    private LinkedHashMap<Integer, LinkedList<ShapeFileShape>> mCache;
+    private int mCachedPoints;
+
+    /*
+     * Shapes of the last loaded view, published by the loader
+     */
+    private volatile LinkedList<ShapeFileShape> mInView;
+
+    /*
+     * View asked for, view loaded, and loader state. Guarded by mWanted.
+     */
+    private final double mWanted[] = new double[4];
+    private double mView[];
+    private boolean mLoading;
+    private GenericCallback mLoaded;
+
+    /**
+     * Open a layer, makes the box index if not saved before. Do not call on the UI thread.
+     * @param file .shp file, .shx and .dbf of the same name are used if there
+     * @throws IOException if not a shape file
+     */
+    public ShapeFileLayer(String file) throws IOException {
+        mFile = file;
+        mDate = new Date();
+        mShp = new MappedShapeFile(file);
+        mXy = new double[256];
+        mCache = new LinkedHashMap<Integer, LinkedList<ShapeFileShape>>(16, 0.75f, true);
+        mCachedPoints = 0;
+        mView = null;
+        mInView = new LinkedList<ShapeFileShape>();
+        mLoading = false;
+        mLoaded = null;
+
+        String base = file.substring(0, file.length() - (file.toLowerCase().endsWith(".shp") ? 4 : 0));
+        mShx = map(base + ".shx");
+        if(null == mShx) {
+            // no index, find records the slow way
+            mOffsets = walk();
+        }
+        try {
+            mDbf = new DbfFile(base + ".dbf");
+        }
+        catch (IOException e) {
+            mDbf = null;
+        }
+
+        File shp = new File(file);
+        File index = new File(file + INDEX_EXTENSION);
+        if(!loadIndex(index, shp)) {
+            makeIndex();
+            saveIndex(index, shp);
+        }
+        mTree = new BoxTree(mBoxes, mCount);
+        mFound = new BoxTree.Found();
+    }
+
+    /**
+     *
+     * @return number of polygons and polylines in file
+     */
+    public int size() {
+        return mCount;
+    }
+
+    /**
+     * Shapes last loaded for the screen. Does not read the file: if the screen moved, its shapes are
+     * loaded in background and loaded is called when they are ready, so draw again.
+     * @param origin
+     * @param loaded called on loader thread
+     * @return shapes in record order, do not modify
+     */
+    public LinkedList<ShapeFileShape> getShapes(Origin origin, GenericCallback loaded) {
+        synchronized(mWanted) {
+            mWanted[0] = origin.getLonScreenLeft();
+            mWanted[1] = origin.getLatScreenBot();
+            mWanted[2] = origin.getLonScreenRight();
+            mWanted[3] = origin.getLatScreenTop();
+            mLoaded = loaded;
+            if(!mLoading && !Arrays.equals(mWanted, mView)) {
+                mLoading = true;
+                Thread t = new Thread(mLoader);
+                t.setName("ShapeLoad");
+                t.setDaemon(true);
+                t.setPriority(Thread.MIN_PRIORITY);
+                t.start();
+            }
+        }
+        return mInView;
+    }
+
+    /*
+     * Loads views till it has the last one asked for. Screen moves while loading are
+     * picked up in the next round, not queued one by one.
+     */
+    private final Runnable mLoader = new Runnable() {
+        @Override
+        public void run() {
+            while(true) {
+                double view[];
+                GenericCallback loaded;
+                synchronized(mWanted) {
+                    if(Arrays.equals(mWanted, mView)) {
+                        mLoading = false;
+                        return;
+                    }
+                    view = mWanted.clone();
+                    loaded = mLoaded;
+                }
+                mInView = load(view);
+                synchronized(mWanted) {
+                    mView = view;
+                }
+                if(null != loaded) {
+                    loaded.callback(ShapeFileLayer.this, null);
+                }
+            }
+        }
+    };
+
+    /*
+     * Read shapes of a view, from cache or file
+     */
+    private synchronized LinkedList<ShapeFileShape> load(double view[]) {
+        mTree.find(view[0], view[1], view[2], view[3], mFound);
+        fit();
+        mFound.sort();
+
+        LinkedList<ShapeFileShape> ret = new LinkedList<ShapeFileShape>();
+        for(int i = 0; i < mFound.size(); i++) {
+            ret.addAll(get(mFound.get(i)));
+        }
+        trim();
+        return ret;
+    }
+
+    /**
+     * Attributes of polygons a point is in, from the .dbf file. Reads the file, do not call on the UI thread.
+     * @param lon
+     * @param lat
+     * @return text, null if point is in none
+     */
+    public synchronized String getTextIfTouched(double lon, double lat) {
+        mTree.find(lon, lat, lon, lat, mFound);
+        mFound.sort();
+        String ret = null;
+        for(int i = 0; i < mFound.size(); i++) {
+            // one text per record, even if point is in many of its parts
+            for(ShapeFileShape s : get(mFound.get(i))) {
+                String text = s.getTextIfTouched(lon, lat);
+                if(null != text) {
+                    ret = (null == ret ? "" : ret + "\n--\n") + text;
+                    break;
+                }
+            }
+        }
+        trim();
+        return ret;
+    }
+
+    /*
+     * Keep found records to what fits in memory, largest boxes first
+     */
+    private void fit() {
+        int count = mFound.size();
+        long points = 0;
+        for(int i = 0; i < count; i++) {
+            points += mPoints[mFound.get(i)];
+        }
+        if(points <= MAX_POINTS) {
+            return;
+        }
+
+        Integer order[] = new Integer[count];
+        for(int i = 0; i < count; i++) {
+            order[i] = mFound.get(i);
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Double.compare(getArea(b), getArea(a));
+            }
+        });
+        mFound.clear();
+        points = 0;
+        for(int i = 0; i < count; i++) {
+            if(points + mPoints[order[i]] > MAX_POINTS) {
+                continue;
+            }
+            points += mPoints[order[i]];
+            mFound.add(order[i]);
+        }
+    }
+
+    private double getArea(int i) {
+        return (mBoxes[i * 4 + 2] - mBoxes[i * 4]) * (mBoxes[i * 4 + 3] - mBoxes[i * 4 + 1]);
+    }
+
+    /*
+     * Shapes of a poly record, from cache or file
+     */
+    private LinkedList<ShapeFileShape> get(int i) {
+        LinkedList<ShapeFileShape> shapes = mCache.get(i);
+        if(null == shapes) {
+            shapes = read(i);
+            mCache.put(i, shapes);
+            mCachedPoints += mPoints[i];
+        }
+        return shapes;
+    }
+
+    /*
+     * Drop least recently used records over the limit, shapes in view were used last so stay
+     */
+    private void trim() {
+        Iterator<Map.Entry<Integer, LinkedList<ShapeFileShape>>> it = mCache.entrySet().iterator();
+        while(mCachedPoints > MAX_POINTS && mCache.size() > 1 && it.hasNext()) {
+            mCachedPoints -= mPoints[it.next().getKey()];
+            it.remove();
+        }
+    }
+
+    /*
+     * Make a shape per part of a record
+     */
+    private LinkedList<ShapeFileShape> read(int i) {
+        LinkedList<ShapeFileShape> ret = new LinkedList<ShapeFileShape>();
+        int record = mRecords[i];
+        try {
+            if(!mShp.read(getOffset(record)) || !mShp.isPoly()) {
+                return ret;
+            }
+        }
+        catch (IOException e) {
+            return ret;
+        }
+
+        boolean polygon = mShp.isPolygon();
+        for(int part = 0; part < mShp.getNumParts(); part++) {
+            int points = mShp.getNumPoints(part);
+            if(mXy.length < points * 2) {
+                mXy = new double[points * 2];
+            }
+            mShp.getPoints(part, mXy);
+            ShapeFileShape shape = new ShapeFileShape(mFile, mDate, mDbf, record);
+            for(int p = 0; p < points; p++) {
+                shape.add(mXy[p * 2], mXy[p * 2 + 1], false);
+            }
+            if(polygon) {
+                shape.makePolygon();
+            }
+            ret.add(shape);
+        }
+        return ret;
+    }
+
+    /*
+     * Number of records in file
+     */
+    private int getNumRecords() {
+        if(null != mShx) {
+            return Math.max(0, (mShx.capacity() - SHX_HEADER_BYTES) / SHX_RECORD_BYTES);
+        }
+        return mOffsets.length;
+    }
+
+    /*
+     * Where a record is in .shp file, .shx has it in 16 bit words
+     */
+    private int getOffset(int record) {
+        if(null != mShx) {
+            return mShx.getInt(SHX_HEADER_BYTES + record * SHX_RECORD_BYTES) * 2;
+        }
+        return mOffsets[record];
+    }
+
+    /*
+     * Offsets of all records, by going through .shp file, up to a bad record if any
+     */
+    private int[] walk() {
+        int offsets[] = new int[64];
+        int n = 0;
+        int offset = mShp.getNextOffset();
+        try {
+            while(mShp.next()) {
+                if(n == offsets.length) {
+                    offsets = Arrays.copyOf(offsets, n * 2);
+                }
+                offsets[n++] = offset;
+                offset = mShp.getNextOffset();
+            }
+        }
+        catch (IOException e) {
+        }
+        return Arrays.copyOf(offsets, n);
+    }
+
+    /*
+     * Boxes of all poly records from .shp file
+     */
+    private void makeIndex() {
+        int records = getNumRecords();
+        mRecords = new int[records];
+        mPoints = new int[records];
+        mBoxes = new double[records * 4];
+        mCount = 0;
+        double box[] = new double[4];
+        for(int record = 0; record < records; record++) {
+            try {
+                if(!mShp.read(getOffset(record)) || !mShp.isPoly() || 0 == mShp.getNumPoints()) {
+                    continue;
+                }
+            }
+            catch (IOException e) {
+                // skip bad record
+                continue;
+            }
+            mShp.getBox(box);
+            mRecords[mCount] = record;
+            mPoints[mCount] = mShp.getNumPoints();
+            System.arraycopy(box, 0, mBoxes, mCount * 4, 4);
+            mCount++;
+        }
+    }
+
+    /*
+     * Read saved index if made from this very .shp file
+     */
+    private boolean loadIndex(File index, File shp) {
+        if(!index.exists()) {
+            return false;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(index)));
+            if(in.readInt() != INDEX_MAGIC || in.readInt() != INDEX_VERSION ||
+                    in.readLong() != shp.length() || in.readLong() != shp.lastModified()) {
+                return false;
+            }
+            int count = in.readInt();
+            int records = getNumRecords();
+            if(count < 0 || count > records) {
+                return false;
+            }
+            mRecords = new int[count];
+            mPoints = new int[count];
+            mBoxes = new double[count * 4];
+            for(int i = 0; i < count; i++) {
+                mRecords[i] = in.readInt();
+                mPoints[i] = in.readInt();
+                if(mRecords[i] < 0 || mRecords[i] >= records) {
+                    return false;
+                }
+                for(int j = 0; j < 4; j++) {
+                    mBoxes[i * 4 + j] = in.readFloat();
+                }
+            }
+            mCount = count;
+            return true;
+        }
+        catch (IOException e) {
+            return false;
+        }
+        finally {
+            if(null != in) {
+                try {
+                    in.close();
+                }
+                catch (IOException e) {
+                }
+            }
+        }
+    }
+
+    /*
+     * Save index, boxes as floats made a little bigger so they still cover the shape.
+     * Nothing lost if folder cannot be written.
+     */
+    private void saveIndex(File index, File shp) {
+        File tmp = new File(index.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(INDEX_VERSION);
+            out.writeLong(shp.length());
+            out.writeLong(shp.lastModified());
+            out.writeInt(mCount);
+            for(int i = 0; i < mCount; i++) {
+                out.writeInt(mRecords[i]);
+                out.writeInt(mPoints[i]);
+                out.writeFloat(Math.nextAfter((float)mBoxes[i * 4], Double.NEGATIVE_INFINITY));
+                out.writeFloat(Math.nextAfter((float)mBoxes[i * 4 + 1], Double.NEGATIVE_INFINITY));
+                out.writeFloat(Math.nextAfter((float)mBoxes[i * 4 + 2], Double.POSITIVE_INFINITY));
+                out.writeFloat(Math.nextAfter((float)mBoxes[i * 4 + 3], Double.POSITIVE_INFINITY));
+            }
+            out.close();
+            out = null;
+            if(!tmp.renameTo(index)) {
+                tmp.delete();
+            }
+        }
+        catch (IOException e) {
+            tmp.delete();
+        }
+        finally {
+            if(null != out) {
+                try {
+                    out.close();
+                }
+                catch (IOException e) {
+                }
+                tmp.delete();
+            }
+        }
+    }
+
+    /*
+     * Map a big endian file, null if not there
+     */
+    private static ByteBuffer map(String file) {
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "r");
+            FileChannel channel = raf.getChannel();
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.BIG_ENDIAN);
+        }
+        catch (IOException e) {
+            return null;
+        }
+        finally {
+            if(null != raf) {
+                try {
+                    raf.close();
+                }
+                catch (IOException e) {
+                }
+            }
+        }
+    }
+}
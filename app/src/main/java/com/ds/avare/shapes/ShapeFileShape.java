@@ -13,17 +13,10 @@ Redistribution and use in source and binary forms, with or without modification,
 package com.ds.avare.shapes;
 
 import android.graphics.Color;
+import android.view.View;
 
-import org.nocrala.tools.gis.data.esri.shapefile.ShapeFileReader;
-import org.nocrala.tools.gis.data.esri.shapefile.exception.InvalidShapeFileException;
-import org.nocrala.tools.gis.data.esri.shapefile.shape.AbstractShape;
-import org.nocrala.tools.gis.data.esri.shapefile.shape.PointData;
-import org.nocrala.tools.gis.data.esri.shapefile.shape.shapes.AbstractPolyPlainShape;
-import org.nocrala.tools.gis.data.esri.shapefile.shape.shapes.PolygonShape;
-import org.nocrala.tools.gis.data.esri.shapefile.shape.shapes.PolylineShape;
+import com.ds.avare.utils.GenericCallback;
 
-import java.io.FileInputStream;
-import java.io.IOException;
 import java.util.Date;
 import java.util.LinkedList;
 
@@ -36,93 +29,73 @@ import java.util.LinkedList;
  */
 public class ShapeFileShape extends Shape {
 
+    private DbfFile mDbf;
+    private int mRecord;
+
     /**
      *
+     * @param text shown when touched if no attributes
+     * @param date
+     * @param dbf attributes of file, null if none
+     * @param record shape record number in file
      */
-    public ShapeFileShape(String text, Date date) {
+    public ShapeFileShape(String text, Date date, DbfFile dbf, int record) {
         super(text, date);
+        mDbf = dbf;
+        mRecord = record;
     }
 
-
     /**
-     * Function to parse shape files
-     * @param file
+     * Attributes are decoded only when touched
+     * @param lon
+     * @param lat
      * @return
-     * @throws IOException
-     * @throws InvalidShapeFileException
      */
-    public static LinkedList<ShapeFileShape> readFile(String file) throws IOException,
-            InvalidShapeFileException {
-
-        LinkedList<ShapeFileShape> ret = new LinkedList<ShapeFileShape>();
-
-        // for all shape files
-        FileInputStream is = new FileInputStream(file);
-        ShapeFileReader r = new ShapeFileReader(is);
-
-        AbstractShape s;
-        while ((s = r.next()) != null) {
-
-            // make internal shape from shape file .shp
-            AbstractPolyPlainShape aShape = null;
-            switch (s.getShapeType()) {
-                // deal with polygons only at this time
-                case POLYGON:
-                    aShape = (PolygonShape)s;
-                    break;
-                case POLYLINE:
-                    aShape = (PolylineShape)s;
-                    break;
-
-                default:
-                    break;
-            }
-            if(aShape != null) {
-                for (int i = 0; i < aShape.getNumberOfParts(); i++) {
-                    PointData[] points = aShape.getPointsOfPart(i);
-                    ShapeFileShape shape = new ShapeFileShape(file, new Date());
-                    for (PointData po : points) {
-                        shape.add(po.getX(), po.getY(), false);
-                    }
-                    ret.add(shape);
-                }
-            }
+    @Override
+    public String getTextIfTouched(double lon, double lat) {
+        String text = super.getTextIfTouched(lon, lat);
+        if(null == text || null == mDbf) {
+            return text;
         }
-
-        is.close();
-        return ret;
+        String attributes = mDbf.getText(mRecord);
+        if(null == attributes || attributes.length() == 0) {
+            return text;
+        }
+        return attributes;
     }
 
     /**
      *
      * @param ctx
-     * @param shapes
+     * @param layer
      * @param shouldShow
      */
-    public static void draw(DrawingContext ctx, LinkedList<ShapeFileShape> shapes, boolean shouldShow) {
+    public static void draw(DrawingContext ctx, ShapeFileLayer layer, boolean shouldShow) {
 
         ctx.paint.setShadowLayer(0, 0, 0, 0);
 
-        if(!shouldShow) {
+        if(!shouldShow || null == layer) {
             return;
         }
 
         /*
-         * Draw all shapes. Choose color based on hash of name
+         * Draw shapes last loaded, draw again when shapes of a moved screen are read
          */
-        if(null != shapes) {
-            ctx.paint.setStrokeWidth(3 * ctx.dip2pix);
-            ctx.paint.setShadowLayer(0, 0, 0, 0);
+        final View view = ctx.view;
+        LinkedList<ShapeFileShape> shapes = layer.getShapes(ctx.origin, new GenericCallback() {
+            @Override
+            public Object callback(Object o, Object o1) {
+                view.postInvalidate();
+                return null;
+            }
+        });
+        ctx.paint.setStrokeWidth(3 * ctx.dip2pix);
+        ctx.paint.setShadowLayer(0, 0, 0, 0);
 
-            for (int shape = 0; shape < shapes.size(); shape++) {
-                Shape todraw = shapes.get(shape);
-                if (null == todraw) {
-                    continue;
-                }
-                ctx.paint.setColor(Color.BLUE);
-                if (todraw.isOnScreen(ctx.origin)) {
-                    todraw.drawShape(ctx.canvas, ctx.origin, ctx.scale, ctx.movement, ctx.paint, ctx.pref.isNightMode(), true);
-                }
+        for (Shape todraw : shapes) {
+            ctx.paint.setColor(Color.BLUE);
+            if (todraw.isOnScreen(ctx.origin)) {
+                todraw.drawShape(ctx.canvas, ctx.origin, ctx.scale, ctx.movement, ctx.paint, ctx.pref.isNightMode(), true);
             }
         }
     }
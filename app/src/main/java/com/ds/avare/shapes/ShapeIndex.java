@@ -0,0 +1,90 @@
+/*
+Copyright (c) 2015, Apps4Av Inc. (apps4av.com)
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+    * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+    *     * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+    *
+    *     THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.ds.avare.shapes;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedList;
+
+/**
+ * R-tree of shape bounding boxes, packed once when shapes are made. A point is checked against
+ * a few boxes on the way down instead of every shape, then against the outlines of shapes
+ * whose box has it. Not changed after made, so safe to share.
+ *
+ * @author zkhan
+ */
+public class ShapeIndex<T extends Shape> {
+
+    private Shape mShapes[];
+    private BoxTree mTree;
+
+    /**
+     *
+     * @param shapes in the order results should come out in, nulls skipped
+     */
+    public ShapeIndex(Collection<? extends T> shapes) {
+        int n = 0;
+        Shape all[] = new Shape[null == shapes ? 0 : shapes.size()];
+        if(null != shapes) {
+            for(T s : shapes) {
+                if(null != s && s.getNumCoords() > 0) {
+                    all[n++] = s;
+                }
+            }
+        }
+        mShapes = Arrays.copyOf(all, n);
+
+        double boxes[] = new double[n * 4];
+        for(int i = 0; i < n; i++) {
+            Shape s = mShapes[i];
+            boxes[i * 4] = s.mLonMin;
+            boxes[i * 4 + 1] = s.mLatMin;
+            boxes[i * 4 + 2] = s.mLonMax;
+            boxes[i * 4 + 3] = s.mLatMax;
+        }
+        mTree = new BoxTree(boxes, n);
+    }
+
+    /**
+     * Shapes a point is in
+     * @param lon
+     * @param lat
+     * @return in order shapes were given
+     */
+    @SuppressWarnings("unchecked")
+    public LinkedList<T> findTouched(double lon, double lat) {
+        LinkedList<T> ret = new LinkedList<T>();
+        if(0 == mShapes.length) {
+            return ret;
+        }
+        // a point is in few boxes, so this stays small
+        BoxTree.Found found = new BoxTree.Found();
+        mTree.find(lon, lat, lon, lat, found);
+        found.sort();
+        for(int i = 0; i < found.size(); i++) {
+            Shape s = mShapes[found.get(i)];
+            if(s.contains(lon, lat)) {
+                ret.add((T)s);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     *
+     * @return number of shapes
+     */
+    public int size() {
+        return mShapes.length;
+    }
+}
@@ -15,6 +15,8 @@ package com.ds.avare.shapes;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.Color;
+import android.graphics.Rect;
+import android.graphics.RectF;
 
 import com.ds.avare.R;
 import com.ds.avare.place.Boundaries;
@@ -308,6 +310,61 @@ public class Tile {
     	return getTileNeighbor(0, 0);
     }
 
+    /*
+     * Used in draw on UI thread only, so drawing does not allocate
+     */
+    private static Rect mSrc = new Rect();
+    private static RectF mDst = new RectF();
+
+    /**
+     * While a tile is loading, draw part of the tile one zoom out, or the four tiles one zoom in,
+     * if they are in cache. No I/O.
+     */
+    private static void drawFallback(DrawingContext ctx, TileMap tiles, long key, float x, float y, float sx, float sy) {
+        if(key < 0) {
+            return;
+        }
+        int index = TilePack.getIndex(key);
+        int zoom = TilePack.getZoom(key);
+        int col = TilePack.getCol(key);
+        int row = TilePack.getRow(key);
+        int w2 = BitmapHolder.WIDTH / 2;
+        int h2 = BitmapHolder.HEIGHT / 2;
+
+        /*
+         * Parent tile, this tile is a quarter of it. Rows increase north.
+         */
+        if(zoom > 0) {
+            BitmapHolder parent = tiles.findInCache(TilePack.makeKey(index, zoom - 1, col >> 1, row >> 1));
+            Bitmap b = null == parent ? null : parent.getBitmap();
+            if(null != b && (!b.isRecycled())) {
+                int left = (col & 1) * w2;
+                int top = (row & 1) == 1 ? 0 : h2;
+                mSrc.set(left, top, left + w2, top + h2);
+                mDst.set(x, y, x + BitmapHolder.WIDTH * sx, y + BitmapHolder.HEIGHT * sy);
+                ctx.canvas.drawBitmap(b, mSrc, mDst, ctx.paint);
+                return;
+            }
+        }
+
+        /*
+         * Child tiles, each is a quarter of this tile
+         */
+        for(int dx = 0; dx < 2; dx++) {
+            for(int dy = 0; dy < 2; dy++) {
+                BitmapHolder child = tiles.findInCache(TilePack.makeKey(index, zoom + 1, col * 2 + dx, row * 2 + dy));
+                Bitmap b = null == child ? null : child.getBitmap();
+                if(null == b || b.isRecycled()) {
+                    continue;
+                }
+                float left = x + dx * w2 * sx;
+                float top = y + (dy == 1 ? 0 : h2) * sy;
+                mDst.set(left, top, left + w2 * sx, top + h2 * sy);
+                ctx.canvas.drawBitmap(b, null, mDst, ctx.paint);
+            }
+        }
+    }
+
     /**
      * Draw the tiles
      * @param ctx
@@ -342,10 +399,12 @@ public class Tile {
             }
 
             if(nochart) {
-                continue;
+                /*
+                 * May have come in cache after it was put on screen
+                 */
+                tile = tiles.findInCache(tiles.getTileKey(tilen));
             }
 
-
             if(IFRinv) {
                 /*
                  * IFR charts invert color at night
@@ -356,27 +415,28 @@ public class Tile {
             /*
              * Pretty straightforward. Pan and draw individual tiles.
              */
-
-            tile.getTransform().setScale(scaleFactor, scaleCorrected);
-            tile.getTransform().postTranslate(
-                    ctx.view.getWidth()  / 2.f
-                            + ( - BitmapHolder.WIDTH  / 2.f
-                            + ((tilen % tiles.getXTilesNum()) * BitmapHolder.WIDTH - BitmapHolder.WIDTH * (int)(tiles.getXTilesNum() / 2))
-                            + ctx.pan.getMoveX()
-                            + ctx.pan.getTileMoveX() * BitmapHolder.WIDTH
-                            - (float)ctx.movement.getOffsetLongitude()) * scaleFactor,
-
-                    ctx.view.getHeight() / 2.f
-                            + ( - BitmapHolder.HEIGHT / 2.f
-                            + ctx.pan.getMoveY()
-                            + ((tilen / tiles.getXTilesNum()) * BitmapHolder.HEIGHT - BitmapHolder.HEIGHT * (int)(tiles.getYTilesNum() / 2))
-                            + ctx.pan.getTileMoveY() * BitmapHolder.HEIGHT
-                            - (float)ctx.movement.getOffsetLatitude() ) * scaleCorrected);
-
-            Bitmap b = tile.getBitmap();
+            float x = ctx.view.getWidth()  / 2.f
+                    + ( - BitmapHolder.WIDTH  / 2.f
+                    + ((tilen % tiles.getXTilesNum()) * BitmapHolder.WIDTH - BitmapHolder.WIDTH * (int)(tiles.getXTilesNum() / 2))
+                    + ctx.pan.getMoveX()
+                    + ctx.pan.getTileMoveX() * BitmapHolder.WIDTH
+                    - (float)ctx.movement.getOffsetLongitude()) * scaleFactor;
+            float y = ctx.view.getHeight() / 2.f
+                    + ( - BitmapHolder.HEIGHT / 2.f
+                    + ctx.pan.getMoveY()
+                    + ((tilen / tiles.getXTilesNum()) * BitmapHolder.HEIGHT - BitmapHolder.HEIGHT * (int)(tiles.getYTilesNum() / 2))
+                    + ctx.pan.getTileMoveY() * BitmapHolder.HEIGHT
+                    - (float)ctx.movement.getOffsetLatitude() ) * scaleCorrected;
+
+            Bitmap b = null == tile ? null : tile.getBitmap();
             if(null != b && (!b.isRecycled())) {
+                tile.getTransform().setScale(scaleFactor, scaleCorrected);
+                tile.getTransform().postTranslate(x, y);
                 ctx.canvas.drawBitmap(b, tile.getTransform(), ctx.paint);
             }
+            else {
+                drawFallback(ctx, tiles, tiles.getTileKey(tilen), x, y, scaleFactor, scaleCorrected);
+            }
 
             Helper.restoreCanvasColors(ctx.paint);
         }
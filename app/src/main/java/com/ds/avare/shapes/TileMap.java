@@ -15,7 +15,9 @@ package com.ds.avare.shapes;
 import android.content.Context;
 import android.os.AsyncTask;
 
+import com.ds.avare.gps.GpsParams;
 import com.ds.avare.place.Boundaries;
+import com.ds.avare.position.Coordinate;
 import com.ds.avare.position.Pan;
 import com.ds.avare.position.Scale;
 import com.ds.avare.storage.Preferences;
@@ -42,6 +44,7 @@ public class TileMap extends MapBase {
         super(context, SIZE, (new Preferences(context)).getTilesNumber());
         mNumShowing = 0;
         mTileTask = null;
+        mPrefetcher = new TilePrefetcher(this);
     }
 
     public void reload(String[] tileNames, GenericCallback c) {
@@ -50,6 +53,8 @@ public class TileMap extends MapBase {
 
     private AsyncTask mTileTask;
 
+    private TilePrefetcher mPrefetcher;
+
 
     /**
      * Lets call chart showing partial when tiles showing are below a threshold
@@ -126,29 +131,21 @@ public class TileMap extends MapBase {
                 /*
                  * Neighboring tiles with center and pan
                  */
-                int i = 0;
-                tileNames = new String[getTilesNum()];
-                int ty = (int) (getYTilesNum() / 2);
-                int tx = (int) (getXTilesNum() / 2);
-                for (int tiley = ty; tiley >= -ty; tiley--) {
-                    for (int tilex = -tx; tilex <= tx; tilex++) {
-                        tileNames[i++] = centerTile.getTileNeighbor(tilex, tiley);
-                    }
-                }
+                tileNames = getTileNames(centerTile);
             }
 
             @Override
             protected TileUpdate doInBackground(Void... vals) {
                 Thread.currentThread().setName("Tile");
                 /*
-                 * Load tiles, draw in UI thread
+                 * Load tiles, they go in cache in UI thread as they are decoded
                  */
                 reload(tileNames,
-                        // As tiles are loaded, callback to notify us
+                        // Tiles in cache are in place, show them now with fallbacks for the ones decoding
                         new GenericCallback() {
                             @Override
                             public Object callback(Object o1, Object o2) {
-                                publishProgress(o1, o2);
+                                publishProgress(makeUpdate(null, factor));
                                 return null;
                             }
                         }
@@ -157,6 +154,12 @@ public class TileMap extends MapBase {
                     // If tiles not found, find name of chart we are on to show to user
                     chart = Boundaries.getInstance().findChartOn(centerTile.getChartIndex(), centerTile.getLongitude(), centerTile.getLatitude());
                 }
+                return makeUpdate(chart, factor);
+            }
+
+            boolean mShownEarly = false;
+
+            TileUpdate makeUpdate(String chart, float factor) {
                 TileUpdate t = new TileUpdate();
                 t.movex = movex;
                 t.movey = movey;
@@ -165,17 +168,16 @@ public class TileMap extends MapBase {
                 t.offsets = offsets;
                 t.factor = factor;
                 t.chart = chart;
-
                 return t;
             }
 
             @Override
             protected void onProgressUpdate(Object... objs) {
-                // Put in bitmap cache a new loaded tile
-                TileMap t = (TileMap)objs[0];
-                BitmapHolder b = (BitmapHolder)objs[1];
-                t.addInCache(b);
-                // Do we really want to update the location view and show user the tiles being loaded?
+                /*
+                 * UI thread, show new region with what is in cache
+                 */
+                mShownEarly = true;
+                callbackDone.callback(TileMap.this, objs[0]);
             }
 
             @Override
@@ -184,6 +186,10 @@ public class TileMap extends MapBase {
                  * UI thread
                  */
                 if(t != null) {
+                    if(mShownEarly) {
+                        // pan was already scaled when shown early
+                        t.factor = 1;
+                    }
                     callbackDone.callback(TileMap.this, t);
                 }
             }
@@ -191,13 +197,52 @@ public class TileMap extends MapBase {
         }.execute(null, null, null);
     }
 
+    /**
+     * Names of tiles on screen, in row order, when centered on this tile
+     * @param centerTile
+     * @return
+     */
+    public String[] getTileNames(Tile centerTile) {
+        int i = 0;
+        String tileNames[] = new String[getTilesNum()];
+        int ty = (int) (getYTilesNum() / 2);
+        int tx = (int) (getXTilesNum() / 2);
+        for (int tiley = ty; tiley >= -ty; tiley--) {
+            for (int tilex = -tx; tilex <= tx; tilex++) {
+                tileNames[i++] = centerTile.getTileNeighbor(tilex, tiley);
+            }
+        }
+        return tileNames;
+    }
+
+    /**
+     * Load tiles ahead of aircraft in background, along track and plan.
+     *
+     * @param params GPS position, bearing and speed
+     * @param scale
+     * @param route coordinates of active plan, null if none
+     */
+    public void prefetch(GpsParams params, Scale scale, Coordinate route[]) {
+        mPrefetcher.request(params.getLongitude(), params.getLatitude(), params.getBearing(), params.getSpeed(),
+                (double) scale.downSample(), mPref.getChartType(), route);
+    }
+
+    /**
+     * Number of tiles loaded ahead of time. Compare with getCacheHits() / getCacheMisses()
+     * to see how many tiles were ready before they came on screen.
+     * @return
+     */
+    public int getPrefetchCount() {
+        return mPrefetcher.getPrefetchCount();
+    }
+
     /**
      * Use this with handler to update tiles in UI thread
      * @author zkhan
      *
      */
     public class TileUpdate {
-        public String chart;
+        public String chart; // null when not known yet
         public double offsets[];
         public int movex;
         public int movey;
@@ -0,0 +1,344 @@
+/*
+Copyright (c) 2015, Apps4Av Inc. (apps4av.com)
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+    * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+    *     * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+    *
+    *     THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.ds.avare.shapes;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+
+/**
+ * A single file that holds all tiles of a chart, so a chart is one inode instead of thousands.
+ *
+ * Layout (big endian):
+ * header: magic, version, count, capacity
+ * index: capacity slots of (key, offset, length), first count slots sorted by key
+ * data: tile images back to back
+ *
+ * Key packs chart index, zoom, col, row of a tile in a long so lookup is a binary search
+ * in the memory mapped index.
+ *
+ * @author zkhan
+ */
+public class TilePack {
+
+    public static final String EXTENSION = ".tpk";
+    public static final String FOLDER = "packs";
+
+    private static final int MAGIC = 0x41565450; // AVTP
+    private static final int VERSION = 1;
+    private static final int HEADER = 16;
+    private static final int ENTRY = 20;
+
+    private MappedByteBuffer mMap;
+    private int mCount;
+    private String mName;
+
+    /**
+     * Map a pack file
+     * @param name
+     * @throws IOException
+     */
+    public TilePack(String name) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(name, "r");
+        try {
+            FileChannel ch = raf.getChannel();
+            mMap = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        }
+        finally {
+            // mapping stays valid after close
+            raf.close();
+        }
+        mMap.order(ByteOrder.BIG_ENDIAN);
+        if(mMap.capacity() < HEADER || mMap.getInt(0) != MAGIC || mMap.getInt(4) != VERSION) {
+            throw new IOException("Not a tile pack " + name);
+        }
+        mCount = mMap.getInt(8);
+        int capacity = mMap.getInt(12);
+        if(mCount < 0 || mCount > capacity || HEADER + (long)capacity * ENTRY > mMap.capacity()) {
+            throw new IOException("Corrupt tile pack " + name);
+        }
+        mName = name;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public int getCount() {
+        return mCount;
+    }
+
+    /**
+     * Find a tile
+     * @param key from makeKey()
+     * @return a read only view of the tile image bytes, null if not in this pack
+     */
+    public ByteBuffer find(long key) {
+        int low = 0;
+        int high = mCount - 1;
+        while(low <= high) {
+            int mid = (low + high) >>> 1;
+            int pos = HEADER + mid * ENTRY;
+            long k = mMap.getLong(pos);
+            if(k < key) {
+                low = mid + 1;
+            }
+            else if(k > key) {
+                high = mid - 1;
+            }
+            else {
+                long offset = mMap.getLong(pos + 8);
+                int length = mMap.getInt(pos + 16);
+                if(offset < 0 || length < 0 || offset + length > mMap.capacity()) {
+                    return null;
+                }
+                ByteBuffer b = mMap.duplicate();
+                b.limit((int)offset + length);
+                b.position((int)offset);
+                return b;
+            }
+        }
+        return null;
+    }
+
+    /**
+     *
+     * @param index chart index
+     * @param zoom
+     * @param col
+     * @param row
+     * @return
+     */
+    public static long makeKey(int index, int zoom, int col, int row) {
+        return ((long)(index & 0xFF) << 56) | ((long)(zoom & 0xFF) << 48) | ((long)(col & 0xFFFFFF) << 24) | (long)(row & 0xFFFFFF);
+    }
+
+    /**
+     * Chart index of a tile key
+     */
+    public static int getIndex(long key) {
+        return (int)(key >>> 56) & 0xFF;
+    }
+
+    /**
+     * Zoom of a tile key
+     */
+    public static int getZoom(long key) {
+        return (int)(key >>> 48) & 0xFF;
+    }
+
+    /**
+     * Column of a tile key
+     */
+    public static int getCol(long key) {
+        return (int)(key >>> 24) & 0xFFFFFF;
+    }
+
+    /**
+     * Row of a tile key
+     */
+    public static int getRow(long key) {
+        return (int)key & 0xFFFFFF;
+    }
+
+    /**
+     * Parse a tile name like tiles/index/zoom/col/row.ext into a key
+     * @param name
+     * @return key, or -1 if this is not a tile name
+     */
+    public static long makeKey(String name) {
+        int vals[] = new int[4];
+        int found = 0;
+        int len = name.length();
+        int i = 0;
+        // skip leading slashes and "tiles"
+        while(i < len && name.charAt(i) == '/') {
+            i++;
+        }
+        if(!name.startsWith("tiles/", i)) {
+            return -1;
+        }
+        i += 6;
+        while(i < len && found < 4) {
+            char c = name.charAt(i);
+            if(c == '/') {
+                i++;
+                continue;
+            }
+            int v = 0;
+            int start = i;
+            while(i < len && (c = name.charAt(i)) >= '0' && c <= '9') {
+                v = v * 10 + (c - '0');
+                i++;
+            }
+            if(i == start) {
+                return -1;
+            }
+            vals[found++] = v;
+            if(found < 4) {
+                if(i >= len || name.charAt(i) != '/') {
+                    return -1;
+                }
+            }
+            else if(i >= len || name.charAt(i) != '.') {
+                // row must be followed by extension
+                return -1;
+            }
+        }
+        if(found != 4) {
+            return -1;
+        }
+        return makeKey(vals[0], vals[1], vals[2], vals[3]);
+    }
+
+    /**
+     * Get file name of pack for a chart
+     * @param path maps folder
+     * @param chart
+     * @return
+     */
+    public static String getFileName(String path, String chart) {
+        return path + "/" + FOLDER + "/" + chart + EXTENSION;
+    }
+
+    /**
+     * Writes a pack in one pass. Capacity must be known up front so index can be kept in header.
+     */
+    public static class Writer {
+
+        private RandomAccessFile mFile;
+        private ArrayList<long[]> mEntries;
+        private int mCapacity;
+        private long mOffset;
+        private byte mBuffer[];
+        private String mName;
+        private String mTmpName;
+
+        /**
+         *
+         * @param name pack file name
+         * @param capacity max tiles this pack will hold
+         * @throws IOException
+         */
+        public Writer(String name, int capacity) throws IOException {
+            mName = name;
+            mTmpName = name + ".part";
+            File f = new File(mTmpName);
+            f.getParentFile().mkdirs();
+            f.delete();
+            mFile = new RandomAccessFile(f, "rw");
+            mCapacity = capacity;
+            mEntries = new ArrayList<long[]>(capacity);
+            mOffset = HEADER + (long)capacity * ENTRY;
+            mFile.setLength(mOffset);
+            mFile.seek(mOffset);
+            mBuffer = new byte[8192];
+        }
+
+        /**
+         *
+         * @return
+         */
+        public int getCount() {
+            return mEntries.size();
+        }
+
+        /**
+         * Append a tile from a stream
+         * @param key
+         * @param in closed when done
+         * @throws IOException
+         */
+        public void add(long key, InputStream in) throws IOException {
+            if(mEntries.size() >= mCapacity) {
+                in.close();
+                throw new IOException("Tile pack full " + mName);
+            }
+            long start = mOffset;
+            int len;
+            try {
+                while((len = in.read(mBuffer)) >= 0) {
+                    mFile.write(mBuffer, 0, len);
+                    mOffset += len;
+                }
+            }
+            finally {
+                in.close();
+            }
+            mEntries.add(new long[] {key, start, mOffset - start});
+        }
+
+        /**
+         * Write index, and replace older pack with this one
+         * @throws IOException
+         */
+        public void close() throws IOException {
+            Collections.sort(mEntries, new Comparator<long[]>() {
+                @Override
+                public int compare(long[] a, long[] b) {
+                    return a[0] < b[0] ? -1 : (a[0] == b[0] ? 0 : 1);
+                }
+            });
+
+            ByteBuffer b = ByteBuffer.allocate(HEADER + mEntries.size() * ENTRY);
+            b.order(ByteOrder.BIG_ENDIAN);
+            b.putInt(MAGIC);
+            b.putInt(VERSION);
+            b.putInt(mEntries.size());
+            b.putInt(mCapacity);
+            for(long[] e : mEntries) {
+                b.putLong(e[0]);
+                b.putLong(e[1]);
+                b.putInt((int)e[2]);
+            }
+            mFile.seek(0);
+            mFile.write(b.array());
+            mFile.getFD().sync();
+            mFile.close();
+
+            File dst = new File(mName);
+            dst.delete();
+            if(!new File(mTmpName).renameTo(dst)) {
+                throw new IOException("Unable to rename tile pack " + mName);
+            }
+        }
+
+        /**
+         * Abandon a partial pack
+         */
+        public void abort() {
+            try {
+                mFile.close();
+            }
+            catch (IOException e) {
+            }
+            new File(mTmpName).delete();
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/*
+Copyright (c) 2015, Apps4Av Inc. (apps4av.com)
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+    * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+    *     * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+    *
+    *     THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.ds.avare.shapes;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * All tile packs in the maps folder. Created once like a database, reloaded when charts are
+ * downloaded or deleted.
+ *
+ * @author zkhan
+ */
+public class TilePacks {
+
+    private static TilePacks mInstance = null;
+
+    /*
+     * Packs of a folder, made whole then published so lookups need no lock
+     */
+    private static class Loaded {
+        private final String mPath;
+        private final TilePack mPacks[];
+
+        private Loaded(String path, TilePack packs[]) {
+            mPath = path;
+            mPacks = packs;
+        }
+    }
+
+    private volatile Loaded mLoaded;
+
+    private TilePacks() {
+        mLoaded = null;
+    }
+
+    /*
+     * Create once
+     */
+    public static synchronized TilePacks getInstance() {
+        if(mInstance == null) {
+            mInstance = new TilePacks();
+        }
+        return mInstance;
+    }
+
+    /**
+     * Call when packs are added or removed, next lookup will map packs again
+     */
+    public synchronized void invalidate() {
+        mLoaded = null;
+    }
+
+    /**
+     * Packs in the folder, locks only when they have to be mapped again
+     * @param path
+     */
+    private TilePack[] getPacks(String path) {
+        Loaded l = mLoaded;
+        if(null != l && path.equals(l.mPath)) {
+            return l.mPacks;
+        }
+        return load(path);
+    }
+
+    /**
+     * Map all packs in the folder, newest first so an updated chart wins over an older overlapping one
+     * @param path
+     */
+    private synchronized TilePack[] load(String path) {
+        Loaded l = mLoaded;
+        if(null != l && path.equals(l.mPath)) {
+            // another thread just did it
+            return l.mPacks;
+        }
+        File files[] = new File(path + "/" + TilePack.FOLDER).listFiles();
+        if(files == null) {
+            files = new File[0];
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long la = a.lastModified();
+                long lb = b.lastModified();
+                return la > lb ? -1 : (la == lb ? 0 : 1);
+            }
+        });
+        TilePack packs[] = new TilePack[files.length];
+        int num = 0;
+        for(File f : files) {
+            if(!f.getName().endsWith(TilePack.EXTENSION)) {
+                continue;
+            }
+            try {
+                packs[num++] = new TilePack(f.getAbsolutePath());
+            }
+            catch (IOException e) {
+                num--;
+            }
+        }
+        l = new Loaded(path, Arrays.copyOf(packs, num));
+        mLoaded = l;
+        return l.mPacks;
+    }
+
+    /**
+     * Find tile in packs
+     * @param path maps folder
+     * @param name tile name like tiles/index/zoom/col/row.ext
+     * @return tile image bytes, or null if not in any pack
+     */
+    public ByteBuffer find(String path, String name) {
+        long key = TilePack.makeKey(name);
+        if(key < 0) {
+            return null;
+        }
+        TilePack packs[] = getPacks(path);
+        for(TilePack p : packs) {
+            ByteBuffer b = p.find(key);
+            if(b != null) {
+                return b;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,215 @@
+/*
+Copyright (c) 2015, Apps4Av Inc. (apps4av.com)
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+    * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+    *     * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+    *
+    *     THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.ds.avare.shapes;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+import com.ds.avare.position.Coordinate;
+import com.ds.avare.position.Projection;
+import com.ds.avare.utils.BitmapHolder;
+
+import java.util.LinkedHashSet;
+
+/**
+ * Loads tiles that will be needed in the next few seconds along GPS track and active plan,
+ * so they are in the tile cache before they scroll on screen.
+ * Runs on one low priority thread, only newest request is worked on.
+ *
+ * @author zkhan
+ */
+public class TilePrefetcher implements Runnable {
+
+    /*
+     * Look ahead this many seconds, in steps
+     */
+    private static final int LOOK_AHEAD_SECONDS = 60;
+    private static final int STEP_SECONDS = 10;
+
+    /*
+     * Below this speed we are not going anywhere soon
+     */
+    private static final double MIN_SPEED = 30;
+
+    private TileMap mMap;
+    private Handler mHandler;
+    private Thread mThread;
+
+    // request, guarded by this
+    private boolean mPending;
+    private double mLon;
+    private double mLat;
+    private double mBearing;
+    private double mSpeed;
+    private double mZoom;
+    private String mIndex;
+    private Coordinate mRoute[];
+
+    private int mPrefetched;
+
+    /**
+     *
+     * @param map
+     */
+    public TilePrefetcher(TileMap map) {
+        mMap = map;
+        mHandler = new Handler(Looper.getMainLooper());
+        mPending = false;
+        mPrefetched = 0;
+    }
+
+    /**
+     * Ask for prefetch from a new position. Call from UI thread.
+     * @param lon
+     * @param lat
+     * @param bearing true
+     * @param speed in distance units per hour
+     * @param zoom scale down sample of tiles on screen
+     * @param index chart index
+     * @param route coordinates of active plan, null if none
+     */
+    public synchronized void request(double lon, double lat, double bearing, double speed, double zoom, String index, Coordinate route[]) {
+        if(speed < MIN_SPEED) {
+            return;
+        }
+        mLon = lon;
+        mLat = lat;
+        mBearing = bearing;
+        mSpeed = speed;
+        mZoom = zoom;
+        mIndex = index;
+        mRoute = route;
+        mPending = true;
+        if(mThread == null) {
+            mThread = new Thread(this);
+            mThread.setDaemon(true);
+            mThread.start();
+        }
+        notify();
+    }
+
+    /**
+     *
+     * @return number of tiles loaded ahead of time
+     */
+    public synchronized int getPrefetchCount() {
+        return mPrefetched;
+    }
+
+    /**
+     * Tiles needed in time order, first along track then along plan.
+     */
+    private LinkedHashSet<String> findTiles(double lon, double lat, double bearing, double speed, double zoom, String index, Coordinate route[]) {
+        LinkedHashSet<String> names = new LinkedHashSet<String>();
+        double range = speed * LOOK_AHEAD_SECONDS / 3600.0;
+
+        for(int t = STEP_SECONDS; t <= LOOK_AHEAD_SECONDS; t += STEP_SECONDS) {
+            Coordinate c = Projection.findStaticPoint(lon, lat, bearing, speed * t / 3600.0);
+            addWindow(names, c.getLongitude(), c.getLatitude(), zoom, index);
+        }
+
+        if(null != route) {
+            for(Coordinate c : route) {
+                if(Projection.getStaticDistance(lon, lat, c.getLongitude(), c.getLatitude()) <= range) {
+                    addWindow(names, c.getLongitude(), c.getLatitude(), zoom, index);
+                }
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Tiles of screen when centered at this point
+     */
+    private void addWindow(LinkedHashSet<String> names, double lon, double lat, double zoom, String index) {
+        Tile center = new Tile(mMap.mContext, mMap.mPref, lon, lat, zoom, index);
+        String window[] = mMap.getTileNames(center);
+        for(String name : window) {
+            names.add(name);
+        }
+    }
+
+    /**
+     *
+     */
+    @Override
+    public void run() {
+        Thread.currentThread().setName("TilePrefetch");
+        Process.setThreadPriority(Process.THREAD_PRIORITY_LOWEST);
+
+        while(true) {
+            double lon, lat, bearing, speed, zoom;
+            String index;
+            Coordinate route[];
+            synchronized(this) {
+                while(!mPending) {
+                    try {
+                        wait();
+                    }
+                    catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                mPending = false;
+                lon = mLon;
+                lat = mLat;
+                bearing = mBearing;
+                speed = mSpeed;
+                zoom = mZoom;
+                index = mIndex;
+                route = mRoute;
+            }
+
+            /*
+             * Do not push tiles on screen out of cache, only use the room meant for overhead
+             */
+            int budget = mMap.getOverhead();
+            for(String name : findTiles(lon, lat, bearing, speed, zoom, index, route)) {
+                if(budget <= 0) {
+                    break;
+                }
+                synchronized(this) {
+                    if(mPending) {
+                        // newer position, start over
+                        break;
+                    }
+                }
+                if(mMap.isInCache(name)) {
+                    continue;
+                }
+                final BitmapHolder b = new BitmapHolder(mMap.mContext, mMap.mPref, name, 1);
+                if(null == b.getBitmap()) {
+                    continue;
+                }
+                budget--;
+                synchronized(this) {
+                    mPrefetched++;
+                }
+                // deal with LRU cache in UI thread
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if(mMap.isInCache(b.getName())) {
+                            // loaded on screen meanwhile
+                            b.release();
+                        }
+                        else {
+                            mMap.addInCache(b);
+                        }
+                    }
+                });
+            }
+        }
+    }
+}
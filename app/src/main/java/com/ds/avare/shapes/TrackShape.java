@@ -76,7 +76,7 @@ public class TrackShape extends Shape {
         Projection p = new Projection(lastLon, lastLat, destLon, destLat);
         int segments = (int) p.getDistance() / MILES_PER_SEGMENT + 3; // Min 3 points
         Coordinate coord[] = p.findPoints(segments);
-        super.mCoords.clear();
+        super.clear();
         
         /*
          * Now make shape from coordinates with segments
@@ -93,7 +93,7 @@ public class TrackShape extends Shape {
      */
     public void updateShapeFromPlan(Coordinate[] coord) {
 
-        super.mCoords.clear();
+        super.clear();
 
         if (null == coord) {
             return;
@@ -144,4 +144,12 @@ public class TrackShape extends Shape {
             }
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Track legs and their ends are drawn one by one
+     */
+    @Override
+    protected boolean canSimplify() {
+        return false;
+    }
+}
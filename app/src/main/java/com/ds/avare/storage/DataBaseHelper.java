@@ -16,7 +16,6 @@ package com.ds.avare.storage;
 
 import android.content.Context;
 import android.database.Cursor;
-import android.database.sqlite.SQLiteDatabase;
 import android.hardware.GeomagneticField;
 import android.util.Base64;
 
@@ -41,7 +40,6 @@ import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.Locale;
-import java.util.Set;
 import java.util.TreeMap;
 
 /**
@@ -50,17 +48,6 @@ import java.util.TreeMap;
  */
 public class DataBaseHelper  {
 
-    /**
-     * Cache this class to sqlite
-     */
-    private SQLiteDatabase mDataBase; 
-    private SQLiteDatabase mDataBaseProcedures;
-    private SQLiteDatabase mDataBasePlates;
-    private SQLiteDatabase mDataBaseGeoPlates;
-    private SQLiteDatabase mDataBaseFuel; 
-    private SQLiteDatabase mDataBaseRatings; 
-    private SQLiteDatabase mDataBaseWeather; 
-    
     /*
      * Preferences
      */
@@ -72,16 +59,13 @@ public class DataBaseHelper  {
     private Context mContext;
     
     /*
-     * How many users at this point. Used for closing the database
-     * Will serve as a non blocking sem with synchronized statement
+     * R*Tree spatial and full text search index state of main database, checked again when
+     * connection pool finds the file changed
      */
-    private Integer mUsers;
-    private Integer mUsersPlates;
-    private Integer mUsersGeoPlates;
-    private Integer mUsersWeather;
-    private Integer mUsersProcedures;
-    private Integer mUsersFuel;
-    private Integer mUsersRatings;
+    private long mIndexModified;
+    private boolean mIndexChecking;
+    private boolean mSpatial;
+    private boolean mSearch;
     
     
     public  static final String  FACILITY_NAME = "Facility Name";
@@ -138,6 +122,11 @@ public class DataBaseHelper  {
     private static final String TABLE_FUEL = "fuel";
     private static final String TABLE_RATINGS = "ratings";
 
+    /*
+     * SQLite binds up to 999 arguments in a statement
+     */
+    private static final int MAX_SQL_ARGS = 500;
+
 
     /**
      * 
@@ -152,7 +141,6 @@ public class DataBaseHelper  {
      */
     public DataBaseHelper(Context context) {
         mPref = new Preferences(context);
-        mUsers = mUsersWeather = mUsersPlates = mUsersGeoPlates = mUsersProcedures = mUsersFuel = mUsersRatings = 0;
         mContext = context;
     }
 
@@ -168,30 +156,94 @@ public class DataBaseHelper  {
    
 
     /**
-     * Close database
+     * Does main database have spatial indexes
+     * @return
      */
-    private void closes(Cursor c) {
-        if(null != c) {
-            try {
-                c.close();
-            }
-            catch (Exception e) {
-                
+    private boolean hasSpatialIndex() {
+        checkIndexes();
+        synchronized(this) {
+            return mSpatial;
+        }
+    }
+
+    /**
+     * Does main database have full text search index
+     * @return
+     */
+    private boolean hasSearchIndex() {
+        checkIndexes();
+        synchronized(this) {
+            return mSearch;
+        }
+    }
+
+    /**
+     * Find which indexes main database has. If some are missing, start building them in background,
+     * till then lookups scan tables like before.
+     * File time comes from the connection pool, which notices a replaced file on its next query,
+     * so this does not touch the file system on every lookup.
+     */
+    private void checkIndexes() {
+        final String path = mPref.mapsFolder() + "/" + getMainDb();
+        long modified = DataBasePool.getInstance().getModified(path);
+        synchronized(this) {
+            if(mIndexChecking || (0 != modified && modified == mIndexModified)) {
+                return;
             }
+            mIndexChecking = true;
+            mSpatial = false;
+            mSearch = false;
         }
 
-        synchronized(mUsers) {
-            mUsers--;
-            if((mDataBase != null) && (mUsers <= 0)) {
-                try {
-                    mDataBase.close();
+        final boolean spatial = countTables(SpatialIndex.getCheckQuery()) == SpatialIndex.getCount();
+        final boolean search = countTables(SearchIndex.getCheckQuery()) == 1;
+        // these queries opened the file, so the pool has its time now
+        modified = DataBasePool.getInstance().getModified(path);
+        synchronized(this) {
+            mIndexModified = modified;
+            mIndexChecking = false;
+            mSpatial = spatial;
+            mSearch = search;
+        }
+
+        if((!spatial || !search) && modified != 0) {
+            /*
+             * Older database, build once. Database file changes when done so it is checked again.
+             */
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Thread.currentThread().setName("DatabaseIndex");
+                    if(!spatial) {
+                        SpatialIndex.build(path);
+                    }
+                    if(!search) {
+                        SearchIndex.build(path);
+                    }
                 }
-                catch (Exception e) {
+            }).start();
+        }
+    }
+
+    /**
+     * Run a count query on main database
+     * @param qry
+     * @return
+     */
+    private int countTables(String qry) {
+        int count = 0;
+        Cursor cursor = doQuery(qry, getMainDb());
+        try {
+            if(cursor != null) {
+                if(cursor.moveToFirst()) {
+                    count = cursor.getInt(0);
                 }
-                mDataBase = null;
-                mUsers = 0;
             }
         }
+        catch (Exception e) {
+        }
+        closes(cursor);
+        return count;
     }
 
     /**
@@ -200,57 +252,58 @@ public class DataBaseHelper  {
      * @return
      */
     private Cursor doQuery(String statement, String name) {
-        Cursor c = null;
-        
-        String path = mPref.mapsFolder() + "/" + name;
-        if(!(new File(path).exists())) {
-            return null;
-        }
+        return doQuery(statement, null, name);
+    }
 
-        /*
-         * 
-         */
-        synchronized(mUsers) {
-            if(mDataBase == null) {
-                mUsers = 0;
-                try {
-                    
-                    mDataBase = SQLiteDatabase.openDatabase(path, null, SQLiteDatabase.OPEN_READONLY | 
-                            SQLiteDatabase.NO_LOCALIZED_COLLATORS);
-                }
-                catch(RuntimeException e) {
-                    mDataBase = null;
-                }
+    /**
+     * 
+     * @param statement with ? for each argument
+     * @param args bound to statement, so statement text stays same and its compiled form is reused
+     * @return
+     */
+    private Cursor doQuery(String statement, String args[], String name) {
+        return DataBasePool.getInstance().query(mPref.mapsFolder() + "/" + name, statement, args);
+    }
+
+    /**
+     * Lat/lon box test around a point, for tables without spatial index
+     * @return clause with 4 arguments, see getAroundArgs
+     */
+    private static String getAround() {
+        String real = SpatialIndex.REAL;
+        return "(" + LATITUDE_DB  + " > " + real + ") and (" + LATITUDE_DB  + " < " + real + ") and " +
+                "(" + LONGITUDE_DB + " > " + real + ") and (" + LONGITUDE_DB + " < " + real + ")";
+    }
+
+    private static String[] getAroundArgs(double lon, double lat, double radius) {
+        return new String[] {
+                Double.toString(lat - radius), Double.toString(lat + radius),
+                Double.toString(lon - radius), Double.toString(lon + radius)
+        };
+    }
+
+    /**
+     * Arguments of two parts of a statement, in order
+     */
+    private static String[] concat(String a[], String b[]) {
+        String ret[] = new String[a.length + b.length];
+        System.arraycopy(a, 0, ret, 0, a.length);
+        System.arraycopy(b, 0, ret, a.length, b.length);
+        return ret;
+    }
+
+    /**
+     * Close cursor, which gives its database connection back to pool
+     */
+    private void closes(Cursor c) {
+        if(null != c) {
+            try {
+                c.close();
             }
-            if(mDataBase == null) {
-                return c;
+            catch (Exception e) {
+                
             }
-            mUsers++;
-        }
-        
-        /*
-         * In case we fail
-         */
-        
-        if(mDataBase == null) {
-            return c;
-        }
-        
-        if(!mDataBase.isOpen()) {
-            return c;
-        }
-        
-        /*
-         * Find with sqlite query
-         */
-        try {
-               c = mDataBase.rawQuery(statement, null);
-        }
-        catch (Exception e) {
-            c = null;
         }
-
-        return c;
     }
 
     /**
@@ -266,8 +319,8 @@ public class DataBaseHelper  {
             ret[it] = 0;
         }
         
-        String qry = "select * from " + TABLE_AIRPORT_DIAGS + " where " + LOCATION_ID_DB + "=='" + name +"'";
-        Cursor cursor = doQuery(qry, getMainDb());
+        String qry = "select * from " + TABLE_AIRPORT_DIAGS + " where " + LOCATION_ID_DB + "==?";
+        Cursor cursor = doQuery(qry, new String[] {name}, getMainDb());
         try {
             if(cursor != null) {
                 if(cursor.moveToFirst()) {
@@ -295,12 +348,48 @@ public class DataBaseHelper  {
      */
     public Airport[] findClosestAirports(double lon, double lat, String minRunwayLength) {
 
+        if(hasSpatialIndex()) {
+            /*
+             * Grow a box around us till it has enough airports, all closer than box edge
+             */
+            for(double box = 0.5; box <= 32; box *= 2) {
+                int found[] = new int[1];
+                double farthest[] = new double[1];
+                String qry = "select " + TABLE_AIRPORTS + ".*, " + TABLE_AIRPORT_RUNWAYS + ".* from " +
+                        TABLE_AIRPORTS + "," + TABLE_AIRPORT_RUNWAYS + "," + TABLE_AIRPORTS + SpatialIndex.SUFFIX + " where " +
+                        SpatialIndex.getBox(TABLE_AIRPORTS) + " and ";
+                Airport airports[] = findClosestAirports(qry, SpatialIndex.getBoxArgs(lon, lat, box, box),
+                        lon, lat, minRunwayLength, found, farthest);
+                if(null == airports) {
+                    return null;
+                }
+                if(found[0] >= Preferences.MAX_AREA_AIRPORTS && farthest[0] <= box * box) {
+                    return airports;
+                }
+            }
+            /*
+             * Very sparse area, look everywhere
+             */
+        }
+        return findClosestAirports("select * from " + TABLE_AIRPORTS + "," + TABLE_AIRPORT_RUNWAYS + " where ", new String[0],
+                lon, lat, minRunwayLength, new int[1], new double[1]);
+    }
+
+    /**
+     * Find airports closest, in table(s) in given select
+     * @param select select statement up to where
+     * @param selectArgs arguments of select
+     * @param found number of airports found
+     * @param farthest distance squared in degrees of farthest airport found
+     */
+    private Airport[] findClosestAirports(String select, String selectArgs[], double lon, double lat, String minRunwayLength, int found[], double farthest[]) {
+
         Airport airports[] = null;
         
         /*
          * Limit to airports taken by array airports
          */
-        String qry = "select * from " + TABLE_AIRPORTS + "," + TABLE_AIRPORT_RUNWAYS + " where ";
+        String qry = select;
         if(!mPref.shouldShowAllFacilities()) {
             qry += TABLE_AIRPORTS + "." + TYPE_DB + "=='AIRPORT' and ";
         }
@@ -310,16 +399,20 @@ public class DataBaseHelper  {
         		TABLE_AIRPORT_RUNWAYS + "." + LOCATION_ID_DB;
         
         // runway length > certain length
-        qry += " and " + "CAST(" + TABLE_AIRPORT_RUNWAYS + ".Length AS INTEGER) >= " + minRunwayLength;
+        qry += " and " + "CAST(" + TABLE_AIRPORT_RUNWAYS + ".Length AS INTEGER) >= CAST(? AS INTEGER)";
         
         // order by distance then by runway length, and limit by max * 4 (to remove duplicate runways)
+        String real = SpatialIndex.REAL;
         qry += " order by ((" + 
-                lon + " - " + TABLE_AIRPORTS + "." + LONGITUDE_DB + ") * (" + lon + "- " + TABLE_AIRPORTS + "." + LONGITUDE_DB +") + (" + 
-                lat + " - " + TABLE_AIRPORTS + "." + LATITUDE_DB + ") * (" + lat + "- " + TABLE_AIRPORTS + "." + LATITUDE_DB + ")) ASC " +
+                real + " - " + TABLE_AIRPORTS + "." + LONGITUDE_DB + ") * (" + real + "- " + TABLE_AIRPORTS + "." + LONGITUDE_DB +") + (" + 
+                real + " - " + TABLE_AIRPORTS + "." + LATITUDE_DB + ") * (" + real + "- " + TABLE_AIRPORTS + "." + LATITUDE_DB + ")) ASC " +
                 ", " + "CAST(" + TABLE_AIRPORT_RUNWAYS + ".Length AS INTEGER) DESC " +
                 " limit " + Preferences.MAX_AREA_AIRPORTS * 2 + ";";
 
-        Cursor cursor = doQuery(qry, getMainDb());
+        String slon = Double.toString(lon);
+        String slat = Double.toString(lat);
+        String args[] = concat(selectArgs, new String[] {minRunwayLength, slon, slon, slat, slat});
+        Cursor cursor = doQuery(qry, args, getMainDb());
 
         try {
             int id = 0;
@@ -347,12 +440,16 @@ public class DataBaseHelper  {
                         	}
                         }
                         id++;
+                        double dlon = lon - cursor.getDouble(LONGITUDE_COL);
+                        double dlat = lat - cursor.getDouble(LATITUDE_COL);
+                        farthest[0] = dlon * dlon + dlat * dlat;
                         if(id >= Preferences.MAX_AREA_AIRPORTS) {
                         	break;
                         }
                     }
                     while(cursor.moveToNext());
                 }
+                found[0] = id;
             }  
         }
         catch (Exception e) {
@@ -372,8 +469,8 @@ public class DataBaseHelper  {
         String types = TABLE_AIRPORTS;
         Coordinate c = null;
 
-        String qry = "select * from " + types + " where " + LOCATION_ID_DB + "=='" + name + "';";
-        cursor = doQuery(qry, getMainDb());
+        String qry = "select * from " + types + " where " + LOCATION_ID_DB + "==?;";
+        cursor = doQuery(qry, new String[] {name}, getMainDb());
 
         try {
             if(cursor != null) {
@@ -401,11 +498,11 @@ public class DataBaseHelper  {
         
         Cursor cursor;
 
-        String qry = "select * from " + table + " where " + LOCATION_ID_DB + "=='" + name + "' and Type != 'VOT' limit 1;";
+        String qry = "select * from " + table + " where " + LOCATION_ID_DB + "==? and Type != 'VOT' limit 1;";
         /*
          * NAV
          */
-        cursor = doQuery(qry, getMainDb());
+        cursor = doQuery(qry, new String[] {name}, getMainDb());
         
         try {
             if(cursor != null) {
@@ -559,8 +656,8 @@ public class DataBaseHelper  {
         String chopname = name.substring(0, len - 6).toUpperCase(Locale.getDefault());
         if(chop.matches("[0-9][0-9][0-9][0-9][0-9][0-9]")) {
 
-            String qry = "select * from " + TABLE_NAV + " where (" + LOCATION_ID_DB + "=='" + chopname + "') and Type != 'VOT';";
-            cursor = doQuery(qry, getMainDb());
+            String qry = "select * from " + TABLE_NAV + " where (" + LOCATION_ID_DB + "==?) and Type != 'VOT';";
+            cursor = doQuery(qry, new String[] {chopname}, getMainDb());
             
             try {
                 if(cursor != null) {
@@ -594,8 +691,8 @@ public class DataBaseHelper  {
                          */
                         closes(cursor);
 
-                        String qry2 = "select * from " + TABLE_FIX + " where " + LOCATION_ID_DB + "=='" + chopname + "';";
-                        cursor = doQuery(qry2, getMainDb());
+                        String qry2 = "select * from " + TABLE_FIX + " where " + LOCATION_ID_DB + "==?;";
+                        cursor = doQuery(qry2, new String[] {chopname}, getMainDb());
 
                         if(cursor != null) {
                             if(cursor.moveToFirst()) {
@@ -648,8 +745,8 @@ public class DataBaseHelper  {
          */
         String uname = name.toUpperCase(Locale.getDefault());
 
-        String qry = "select " + LOCATION_ID_DB + "," + FACILITY_NAME_DB + "," + TYPE_DB + " from " + TABLE_AIRPORTS + " where City=='" + uname + "';";
-        cursor = doQuery(qry, getMainDb());
+        String qry = "select " + LOCATION_ID_DB + "," + FACILITY_NAME_DB + "," + TYPE_DB + " from " + TABLE_AIRPORTS + " where City==?;";
+        cursor = doQuery(qry, new String[] {uname}, getMainDb());
 
         try {
             if(cursor != null) {
@@ -665,6 +762,31 @@ public class DataBaseHelper  {
         closes(cursor);
     }
 
+    /**
+     * Search as user types with full text index, ranked, in one query
+     * @param name
+     * @param params
+     */
+    private void searchIndex(String name, LinkedHashMap<String, String> params) {
+        String args[] = SearchIndex.getArgs(name);
+        if(null == args) {
+            return;
+        }
+
+        Cursor cursor = doQuery(SearchIndex.getQuery(!mPref.shouldShowAllFacilities()), args, getMainDb());
+        try {
+            if(cursor != null) {
+                while(cursor.moveToNext()) {
+                    StringPreference s = new StringPreference(cursor.getString(0), cursor.getString(3), cursor.getString(2), cursor.getString(1));
+                    s.putInHash(params);
+                }
+            }
+        }
+        catch (Exception e) {
+        }
+        closes(cursor);
+    }
+
     /**
      * Search something in database
      * @param name
@@ -686,8 +808,17 @@ public class DataBaseHelper  {
             }
         }
         
+        if(!exact && hasSearchIndex()) {
+            searchIndex(name, params);
+            return;
+        }
+
         // Search city first
         searchCity(name, params);
+        if(Thread.currentThread().isInterrupted()) {
+            // newer search started
+            return;
+        }
         
         String qry;
         String qbasic = "select " + LOCATION_ID_DB + "," + FACILITY_NAME_DB + "," + TYPE_DB + " from ";
@@ -699,18 +830,21 @@ public class DataBaseHelper  {
         if(len > 2 && name.charAt(0) == 'K' || name.charAt(0) == 'k') {
         	
         	String qendK = "";
+        	String argsK[];
         	if(exact) {
-                qendK = " (" + LOCATION_ID_DB + "=='" + name.substring(1) + "'" + ") order by " + LOCATION_ID_DB + " asc";
+                qendK = " (" + LOCATION_ID_DB + "==?) order by " + LOCATION_ID_DB + " asc";
+                argsK = new String[] {name.substring(1)};
         	}
         	else {
-        		qendK = " (" + LOCATION_ID_DB + " like '" + name.substring(1) + "%' " + ") order by " + LOCATION_ID_DB + " asc";
+        		qendK = " (" + LOCATION_ID_DB + " like ?) order by " + LOCATION_ID_DB + " asc";
+                argsK = new String[] {name.substring(1) + "%"};
         	}
             qry = qbasic + TABLE_AIRPORTS + " where ";
             if(!mPref.shouldShowAllFacilities()) {
                 qry += TYPE_DB + "=='AIRPORT' and ";
             }
             qry += qendK;
-            cursor = doQuery(qry, getMainDb());
+            cursor = doQuery(qry, argsK, getMainDb());
             try {
                 if(cursor != null) {
                     while(cursor.moveToNext()) {
@@ -721,21 +855,27 @@ public class DataBaseHelper  {
             }
             catch (Exception e) {
             }
-            closes(cursor);  
+            closes(cursor);
+            if(Thread.currentThread().isInterrupted()) {
+                return;
+            }
         }
         
         /*
          * All queries for airports, navaids, fixes
          */
         String qend = "";
+        String args[];
         if(exact) {
-            qend = " (" + LOCATION_ID_DB + "=='" + name + "'" + ") and Type != 'VOT' order by " + LOCATION_ID_DB + " asc";         	
+            qend = " (" + LOCATION_ID_DB + "==?) and Type != 'VOT' order by " + LOCATION_ID_DB + " asc";
+            args = new String[] {name};
         }
         else {
-        	qend = " (" + LOCATION_ID_DB + " like '" + name + "%' " + ") and Type != 'VOT' order by " + LOCATION_ID_DB + " asc";
+        	qend = " (" + LOCATION_ID_DB + " like ?) and Type != 'VOT' order by " + LOCATION_ID_DB + " asc";
+            args = new String[] {name + "%"};
         }
         qry = qbasic + TABLE_NAV + " where " + qend;
-        cursor = doQuery(qry, getMainDb());
+        cursor = doQuery(qry, args, getMainDb());
 
         try {
             if(cursor != null) {
@@ -748,6 +888,9 @@ public class DataBaseHelper  {
         catch (Exception e) {
         }
         closes(cursor);
+        if(Thread.currentThread().isInterrupted()) {
+            return;
+        }
 
         qry = qbasic + TABLE_AIRPORTS + " where ";
         if(!mPref.shouldShowAllFacilities()) {
@@ -755,7 +898,7 @@ public class DataBaseHelper  {
         }
         qry += qend;
 
-        cursor = doQuery(qry, getMainDb());
+        cursor = doQuery(qry, args, getMainDb());
         try {
             if(cursor != null) {
                 while(cursor.moveToNext()) {
@@ -767,10 +910,13 @@ public class DataBaseHelper  {
         catch (Exception e) {
         }
         closes(cursor);
+        if(Thread.currentThread().isInterrupted()) {
+            return;
+        }
 
 
         qry = qbasic + TABLE_FIX + " where " + qend;
-        cursor = doQuery(qry, getMainDb());
+        cursor = doQuery(qry, args, getMainDb());
         try {
             if(cursor != null) {
                 while(cursor.moveToNext()) {
@@ -805,10 +951,12 @@ public class DataBaseHelper  {
             types = TABLE_FIX;
         }
 
-        String qry = "select * from " + types + " where " + LOCATION_ID_DB + "=='" + name + "'";
+        String qry = "select * from " + types + " where " + LOCATION_ID_DB + "==?";
+        String args[] = new String[] {name};
         if(null != dbType && dbType.length() > 0) {
             if(false == dbType.equalsIgnoreCase("null")) {
-                qry += " and " + TYPE_DB + "=='" + dbType + "'";
+                qry += " and " + TYPE_DB + "==?";
+                args = new String[] {name, dbType};
             }
         }
         // Order by type desc will cause VOR to be ahead of NDB if both are available.
@@ -816,7 +964,7 @@ public class DataBaseHelper  {
         // Put our-ap in last
         qry += " and Type != 'VOT' order by " + TYPE_DB + "," + TYPE_DB + "='OUR-AP' " + "desc;";
         
-        cursor = doQuery(qry, getMainDb());
+        cursor = doQuery(qry, args, getMainDb());
 
         try {
             if(cursor != null) {
@@ -944,9 +1092,8 @@ public class DataBaseHelper  {
          * Find frequencies (ATIS, TOWER, GROUND, etc)  Not AWOS    
          */
         
-        qry = "select * from " + TABLE_AIRPORT_FREQ + " where " + LOCATION_ID_DB + "=='" + name                            
-                + "' or " + LOCATION_ID_DB + "=='K" + name + "';";
-        cursor = doQuery(qry, getMainDb());
+        qry = "select * from " + TABLE_AIRPORT_FREQ + " where " + LOCATION_ID_DB + "==? or " + LOCATION_ID_DB + "==?;";
+        cursor = doQuery(qry, new String[] {name, "K" + name}, getMainDb());
 
         try {
             /*
@@ -995,9 +1142,8 @@ public class DataBaseHelper  {
 		 */
 
 		qry = "select * from " + TABLE_AIRPORT_AWOS + " where "
-				+ LOCATION_ID_DB + "=='" + name + "' or " + LOCATION_ID_DB
-				+ "=='K" + name + "';";
-		cursor = doQuery(qry, getMainDb());
+				+ LOCATION_ID_DB + "==? or " + LOCATION_ID_DB + "==?;";
+		cursor = doQuery(qry, new String[] {name, "K" + name}, getMainDb());
 		// 0     1    2          3  4  5    6     7     8    9    10
 		// ident,type,commstatus,lt,ln,elev,freq1,freq2,tel1,tel2,remark
 		try {
@@ -1031,9 +1177,8 @@ public class DataBaseHelper  {
          *Find runways        
          */
 
-        qry = "select * from " + TABLE_AIRPORT_RUNWAYS + " where " + LOCATION_ID_DB + "=='" + name
-                + "' or " + LOCATION_ID_DB + "=='K" + name + "';";
-        cursor = doQuery(qry, getMainDb());
+        qry = "select * from " + TABLE_AIRPORT_RUNWAYS + " where " + LOCATION_ID_DB + "==? or " + LOCATION_ID_DB + "==?;";
+        cursor = doQuery(qry, new String[] {name, "K" + name}, getMainDb());
         
         try {
             /*
@@ -1177,9 +1322,8 @@ public class DataBaseHelper  {
          * Find frequencies (ATIS, TOWER, GROUND, etc)  Not AWOS    
          */
         
-        String qry = "select * from " + TABLE_AIRPORT_FREQ + " where " + LOCATION_ID_DB + "=='" + name                            
-                + "' or " + LOCATION_ID_DB + "=='K" + name + "';";
-        cursor = doQuery(qry, getMainDb());
+        String qry = "select * from " + TABLE_AIRPORT_FREQ + " where " + LOCATION_ID_DB + "==? or " + LOCATION_ID_DB + "==?;";
+        cursor = doQuery(qry, new String[] {name, "K" + name}, getMainDb());
 
         try {
             /*
@@ -1220,9 +1364,8 @@ public class DataBaseHelper  {
 		 */
 
 		qry = "select * from " + TABLE_AIRPORT_AWOS + " where "
-				+ LOCATION_ID_DB + "=='" + name + "' or " + LOCATION_ID_DB
-				+ "=='K" + name + "';";
-		cursor = doQuery(qry, getMainDb());
+				+ LOCATION_ID_DB + "==? or " + LOCATION_ID_DB + "==?;";
+		cursor = doQuery(qry, new String[] {name, "K" + name}, getMainDb());
 		// 0     1    2          3  4  5    6     7     8    9    10
 		// ident,type,commstatus,lt,ln,elev,freq1,freq2,tel1,tel2,remark
 		try {
@@ -1254,10 +1397,8 @@ public class DataBaseHelper  {
 		/*
 		 * Get CTAF and UNICOM info
 		 */
-		qry = "select * from " + TABLE_AIRPORTS + " where " + LOCATION_ID_DB
-				+ "=='" + name + "' or " + LOCATION_ID_DB + "=='K" + name
-				+ "';";
-		cursor = doQuery(qry, getMainDb());
+		qry = "select * from " + TABLE_AIRPORTS + " where " + LOCATION_ID_DB + "==? or " + LOCATION_ID_DB + "==?;";
+		cursor = doQuery(qry, new String[] {name, "K" + name}, getMainDb());
 
 		try {
 			if (cursor != null) {
@@ -1320,9 +1461,8 @@ public class DataBaseHelper  {
          * Find frequencies (ATIS, TOWER, GROUND, etc)  Not AWOS    
          */
         
-        String qry = "select * from " + TABLE_AIRPORT_RUNWAYS + " where " + LOCATION_ID_DB + "=='" + name                            
-                + "' or " + LOCATION_ID_DB + "=='K" + name + "';";
-        cursor = doQuery(qry, getMainDb());
+        String qry = "select * from " + TABLE_AIRPORT_RUNWAYS + " where " + LOCATION_ID_DB + "==? or " + LOCATION_ID_DB + "==?;";
+        cursor = doQuery(qry, new String[] {name, "K" + name}, getMainDb());
 
         try {
             /*
@@ -1361,9 +1501,8 @@ public class DataBaseHelper  {
         Cursor cursor;
         Coordinate c = null;
 
-        String qry = "select * from " + TABLE_AIRPORT_RUNWAYS + " where (" + LOCATION_ID_DB + "=='" + airport
-                + "' or " + LOCATION_ID_DB + "=='K" + airport + "') and (LEIdent=='" + name + "' or HEIdent=='" + name + "');";
-        cursor = doQuery(qry, getMainDb());
+        String qry = "select * from " + TABLE_AIRPORT_RUNWAYS + " where (" + LOCATION_ID_DB + "==? or " + LOCATION_ID_DB + "==?) and (LEIdent==? or HEIdent==?);";
+        cursor = doQuery(qry, new String[] {airport, "K" + airport, name, name}, getMainDb());
 
         try {
             /*
@@ -1402,9 +1541,8 @@ public class DataBaseHelper  {
          * Find frequencies (ATIS, TOWER, GROUND, etc)  Not AWOS    
          */
         
-        String qry = "select ARPElevation from " + TABLE_AIRPORTS + " where " + LOCATION_ID_DB + "=='" + name                            
-                + "' or " + LOCATION_ID_DB + "=='K" + name + "';";
-        cursor = doQuery(qry, getMainDb());
+        String qry = "select ARPElevation from " + TABLE_AIRPORTS + " where " + LOCATION_ID_DB + "==? or " + LOCATION_ID_DB + "==?;";
+        cursor = doQuery(qry, new String[] {name, "K" + name}, getMainDb());
 
         try {
             /*
@@ -1437,20 +1575,31 @@ public class DataBaseHelper  {
          * Find with sqlite query
          */
         double corrFactor = Math.pow(Math.cos(Math.toRadians(lat)),2);
-        String asDist = ", ((" + LONGITUDE_DB + " - " + lon + ") * (" + LONGITUDE_DB  + " - " + lon + ") * " + corrFactor + " + "
-                + " (" + LATITUDE_DB + " - " + lat + ") * (" + LATITUDE_DB + " - " + lat + ")"
+        String real = SpatialIndex.REAL;
+        String asDist = ", ((" + LONGITUDE_DB + " - " + real + ") * (" + LONGITUDE_DB  + " - " + real + ") * " + real + " + "
+                + " (" + LATITUDE_DB + " - " + real + ") * (" + LATITUDE_DB + " - " + real + ")"
                 + ") as dist";
+        String slon = Double.toString(lon);
+        String slat = Double.toString(lat);
+        String args[] = new String[] {slon, slon, Double.toString(corrFactor), slat, slat};
         String qry = "select " + LOCATION_ID_DB + asDist + " from " + TABLE_AIRPORTS;
-        if(!mPref.shouldShowAllFacilities()) {
-            qry +=  " where " + TYPE_DB + "=='AIRPORT' and ";
+        if(hasSpatialIndex()) {
+            // only airports in box of touch distance
+            double dlat = Math.sqrt(Preferences.MIN_TOUCH_MOVEMENT_SQ_DISTANCE);
+            double dlon = corrFactor > 0 ? dlat / Math.sqrt(corrFactor) : 180;
+            qry += "," + TABLE_AIRPORTS + SpatialIndex.SUFFIX + " where " + SpatialIndex.getBox(TABLE_AIRPORTS) + " and ";
+            args = concat(args, SpatialIndex.getBoxArgs(lon, lat, dlon, dlat));
         }
         else {
             qry += " where ";
         }
+        if(!mPref.shouldShowAllFacilities()) {
+            qry +=  TYPE_DB + "=='AIRPORT' and ";
+        }
 
         qry += "dist < " + Preferences.MIN_TOUCH_MOVEMENT_SQ_DISTANCE + " order by dist limit 1;";
         
-        Cursor cursor = doQuery(qry, getMainDb());
+        Cursor cursor = doQuery(qry, args, getMainDb());
         String ret = null;
 
         try {
@@ -1479,12 +1628,22 @@ public class DataBaseHelper  {
         /*
          * Find with sqlite query
          */
+        String slon = Double.toString(lon);
+        String slat = Double.toString(lat);
+        String args[] = new String[0];
         String qry = "select * from " + TABLE_SUA + " where ((";
-        qry += "(" + "lon" + " - " + lon + ") * (" + "lon"  + " - " + lon + ") + "
-                + "(" + "lat" + " - " + lat + ") * (" + "lat" + " - " + lat + ")"
+        if(hasSpatialIndex()) {
+            qry = "select " + TABLE_SUA + ".* from " + TABLE_SUA + "," + TABLE_SUA + SpatialIndex.SUFFIX + " where " +
+                    SpatialIndex.getBox(TABLE_SUA) + " and ((";
+            args = SpatialIndex.getBoxArgs(lon, lat, 1, 1);
+        }
+        String real = SpatialIndex.REAL;
+        qry += "(" + "lon" + " - " + real + ") * (" + "lon"  + " - " + real + ") + "
+                + "(" + "lat" + " - " + real + ") * (" + "lat" + " - " + real + ")"
                 + ") < 1);";
+        args = concat(args, new String[] {slon, slon, slat, slat});
         
-        Cursor cursor = doQuery(qry, getMainDb());
+        Cursor cursor = doQuery(qry, args, getMainDb());
         String ret = "";
 
         try {
@@ -1529,10 +1688,14 @@ public class DataBaseHelper  {
         /*
          * Find with sqlite query
          */
-        String qry = "select * from " + TABLE_OBSTACLES + " where Height =='" + height + "' and " + 
-                "(" + LATITUDE_DB  + " > " + (lat - Obstacle.RADIUS) + ") and (" + LATITUDE_DB  + " < " + (lat + Obstacle.RADIUS) + ") and " +
-                "(" + LONGITUDE_DB + " > " + (lon - Obstacle.RADIUS) + ") and (" + LONGITUDE_DB + " < " + (lon + Obstacle.RADIUS) + ");";
-        Cursor cursor = doQuery(qry, getMainDb());
+        String qry = "select * from " + TABLE_OBSTACLES + " where Height ==? and " + getAround() + ";";
+        String args[] = concat(new String[] {height}, getAroundArgs(lon, lat, Obstacle.RADIUS));
+        if(hasSpatialIndex()) {
+            qry = "select " + TABLE_OBSTACLES + ".* from " + TABLE_OBSTACLES + "," + TABLE_OBSTACLES + SpatialIndex.SUFFIX + " where " +
+                    SpatialIndex.getBox(TABLE_OBSTACLES) + " and Height ==?;";
+            args = concat(SpatialIndex.getBoxArgs(lon, lat, Obstacle.RADIUS, Obstacle.RADIUS), new String[] {height});
+        }
+        Cursor cursor = doQuery(qry, args, getMainDb());
 
         try {
             if(cursor != null) {
@@ -1574,8 +1737,8 @@ public class DataBaseHelper  {
          * Find with sqlite query
          */
         String qry = "select * from " + table + 
-                " where " + LOCATION_ID_DB + "=='" + name + "';";
-        Cursor cursor = doQuery(qry, getMainDb());
+                " where " + LOCATION_ID_DB + "==?;";
+        Cursor cursor = doQuery(qry, new String[] {name}, getMainDb());
         String ret = null;
 
         try {
@@ -1599,20 +1762,33 @@ public class DataBaseHelper  {
      */
     public void findLonLatMetar(HashMap<String, Metar> metars) {
 
+        String keys[] = metars.keySet().toArray(new String[0]);
+        // Make a long query instead of several long queries, in chunks sqlite can bind
+        for(int start = 0; start < keys.length; start += MAX_SQL_ARGS) {
+            String args[] = new String[Math.min(MAX_SQL_ARGS, keys.length - start)];
+            System.arraycopy(keys, start, args, 0, args.length);
+            findLonLatMetar(metars, args);
+        }
+    }
+
+    /**
+     * Find the lat/lon of some airports, and update in the objects
+     * @param metars
+     * @param args airport IDs
+     */
+    private void findLonLatMetar(HashMap<String, Metar> metars, String args[]) {
+
         String name = "";
-        Set<String> keys = metars.keySet();
-        for (String k : keys) {
-            // Make a long query instead of several long queries
-            name += LOCATION_ID_DB + "=='" + k + "' or ";
+        for(int i = 0; i < args.length; i++) {
+            name += (i == 0 ? "?" : ",?");
         }
-        name += LOCATION_ID_DB + "=='BOS'"; // Dummy
 
         /*
          * Find with sqlite query
          */
         String qry = "select * from " + TABLE_AIRPORTS +
-                " where " + TABLE_AIRPORTS + "." + TYPE_DB + "=='AIRPORT' and (" + name + ");";
-        Cursor cursor = doQuery(qry, getMainDb());
+                " where " + TABLE_AIRPORTS + "." + TYPE_DB + "=='AIRPORT' and " + LOCATION_ID_DB + " in (" + name + ");";
+        Cursor cursor = doQuery(qry, args, getMainDb());
 
         try {
             if(cursor != null) {
@@ -1634,6 +1810,32 @@ public class DataBaseHelper  {
         closes(cursor);
     }
 
+    /**
+     * Lon/lat of all airports, to locate weather stations without a query each
+     * @return null on error
+     */
+    public StationTable getStationTable() {
+
+        String qry = "select " + LOCATION_ID_DB + "," + LONGITUDE_DB + "," + LATITUDE_DB + " from " + TABLE_AIRPORTS +
+                " where " + TYPE_DB + "=='AIRPORT';";
+        Cursor cursor = doQuery(qry, getMainDb());
+        if(null == cursor) {
+            return null;
+        }
+
+        StationTable table = new StationTable();
+        try {
+            while(cursor.moveToNext()) {
+                table.put(cursor.getString(0), cursor.getDouble(1), cursor.getDouble(2));
+            }
+        }
+        catch (Exception e) {
+            table = null;
+        }
+        closes(cursor);
+        return table;
+    }
+
     /**
      * Search Minimums plates for this airport
      * @param airportId
@@ -1647,11 +1849,11 @@ public class DataBaseHelper  {
         /*
          * Silly that FAA gives K and P for some airports as ICAO
          */
-        String qry = "select File from " + TABLE_ALT + " where " + LOCATION_ID_DB + "==" + "'" + airportId + "'" +
-                " or " + LOCATION_ID_DB + "==" + "'K" + airportId + "'" +
-                " or " + LOCATION_ID_DB + "==" + "'P" + airportId + "'";
+        String qry = "select File from " + TABLE_ALT + " where " + LOCATION_ID_DB + "==?" +
+                " or " + LOCATION_ID_DB + "==?" +
+                " or " + LOCATION_ID_DB + "==?";
         
-        Cursor cursor = doQuery(qry, getMainDb());
+        Cursor cursor = doQuery(qry, new String[] {airportId, "K" + airportId, "P" + airportId}, getMainDb());
 
         try {
             if(cursor != null) {
@@ -1665,11 +1867,11 @@ public class DataBaseHelper  {
         }
         closes(cursor);
 
-        qry = "select File from " + TABLE_TO + " where " + LOCATION_ID_DB + "==" + "'" + airportId + "'" +
-                " or " + LOCATION_ID_DB + "==" + "'K" + airportId + "'" +
-                " or " + LOCATION_ID_DB + "==" + "'P" + airportId + "'";
+        qry = "select File from " + TABLE_TO + " where " + LOCATION_ID_DB + "==?" +
+                " or " + LOCATION_ID_DB + "==?" +
+                " or " + LOCATION_ID_DB + "==?";
         
-        cursor = doQuery(qry, getMainDb());
+        cursor = doQuery(qry, new String[] {airportId, "K" + airportId, "P" + airportId}, getMainDb());
 
         try {
             if(cursor != null) {
@@ -1705,9 +1907,9 @@ public class DataBaseHelper  {
     public LinkedList<String> findAFD(String airportId) {
 
         LinkedList<String> ret = new LinkedList<String>();
-        String qry = "select File from " + TABLE_AFD + " where " + LOCATION_ID_DB + "==" + "'" + airportId + "'";
+        String qry = "select File from " + TABLE_AFD + " where " + LOCATION_ID_DB + "==?";
         
-        Cursor cursor = doQuery(qry, getMainDb());
+        Cursor cursor = doQuery(qry, new String[] {airportId}, getMainDb());
 
         try {
             if(cursor != null) {
@@ -1734,14 +1936,20 @@ public class DataBaseHelper  {
         
         LinkedList<Obstacle> list = new LinkedList<Obstacle>();
         
-        String qry = "select * from " + TABLE_OBSTACLES + " where (Height > " + (height - (int)Obstacle.HEIGHT_BELOW) + ") and " +
-                "(" + LATITUDE_DB  + " > " + (lat - Obstacle.RADIUS) + ") and (" + LATITUDE_DB  + " < " + (lat + Obstacle.RADIUS) + ") and " +
-                "(" + LONGITUDE_DB + " > " + (lon - Obstacle.RADIUS) + ") and (" + LONGITUDE_DB + " < " + (lon + Obstacle.RADIUS) + ");";
+        String above = Integer.toString(height - (int)Obstacle.HEIGHT_BELOW);
+        String qry = "select * from " + TABLE_OBSTACLES + " where (Height > " + SpatialIndex.REAL + ") and " + getAround() + ";";
+        String args[] = concat(new String[] {above}, getAroundArgs(lon, lat, Obstacle.RADIUS));
+        if(hasSpatialIndex()) {
+            qry = "select " + TABLE_OBSTACLES + ".* from " + TABLE_OBSTACLES + "," + TABLE_OBSTACLES + SpatialIndex.SUFFIX + " where " +
+                    SpatialIndex.getBox(TABLE_OBSTACLES) +
+                    " and (Height > " + SpatialIndex.REAL + ");";
+            args = concat(SpatialIndex.getBoxArgs(lon, lat, Obstacle.RADIUS, Obstacle.RADIUS), new String[] {above});
+        }
         /*
          * Find obstacles at below or higher in lon/lat radius
          * We ignore all obstacles 500 AGL below in our script
          */
-        Cursor cursor = doQuery(qry, getMainDb());
+        Cursor cursor = doQuery(qry, args, getMainDb());
         
         try {
             if(cursor != null) {
@@ -1766,94 +1974,6 @@ public class DataBaseHelper  {
         return "weather.db";
     }
 
-    /**
-     * 
-     * @param statement
-     * @return
-     */
-    private Cursor doQueryWeather(String statement, String name) {
-        Cursor c = null;
-        
-        String path = mPref.mapsFolder() + "/" + name;
-        if(!(new File(path).exists())) {
-            return null;
-        }
-
-        /*
-         * 
-         */
-        synchronized(mUsersWeather) {
-            if(mDataBaseWeather == null) {
-                mUsersWeather = 0;
-                try {
-                    
-                    mDataBaseWeather = SQLiteDatabase.openDatabase(path, null, SQLiteDatabase.OPEN_READONLY | 
-                            SQLiteDatabase.NO_LOCALIZED_COLLATORS);
-                }
-                catch(RuntimeException e) {
-                    mDataBaseWeather = null;
-                }
-            }
-            if(mDataBaseWeather == null) {
-                return c;
-            }
-            mUsersWeather++;
-        }
-        
-        /*
-         * In case we fail
-         */
-        
-        if(mDataBaseWeather == null) {
-            return c;
-        }
-        
-        if(!mDataBaseWeather.isOpen()) {
-            return c;
-        }
-        
-        /*
-         * Find with sqlite query
-         */
-        try {
-               c = mDataBaseWeather.rawQuery(statement, null);
-        }
-        catch (Exception e) {
-            c = null;
-        }
-
-        return c;
-    }
-
-    /**
-     * Close database
-     */
-    private void closesWeather(Cursor c) {
-
-        try {
-            if(null != c) {
-                c.close();
-            }
-        }
-        catch (Exception e) {
-            
-        }
-
-        synchronized(mUsersWeather) {
-            mUsersWeather--;
-            if((mDataBaseWeather != null) && (mUsersWeather <= 0)) {
-                try {
-                    mDataBaseWeather.close();
-                }
-                catch (Exception e) {
-                }
-                mDataBaseWeather = null;
-                mUsersWeather = 0;
-            }
-        }
-    }
-
-
     /**
      * 
      * @param station
@@ -1863,9 +1983,9 @@ public class DataBaseHelper  {
       
         Taf taf = null;
         String qry =
-                "select * from tafs where station_id='K" + station + "';";
+                "select * from tafs where station_id=?;";
         
-        Cursor cursor = doQueryWeather(qry, getWeatherDb());
+        Cursor cursor = doQuery(qry, new String[] {"K" + station}, getWeatherDb());
         
         try {
             if(cursor != null) {
@@ -1881,7 +2001,7 @@ public class DataBaseHelper  {
         catch (Exception e) {
         }
         
-        closesWeather(cursor);
+        closes(cursor);
         return taf;        
     }
 
@@ -1894,9 +2014,9 @@ public class DataBaseHelper  {
       
         Metar metar = null;
         String qry =
-                "select * from metars where station_id='K" + station + "';";
+                "select * from metars where station_id=?;";
         
-        Cursor cursor = doQueryWeather(qry, getWeatherDb());
+        Cursor cursor = doQuery(qry, new String[] {"K" + station}, getWeatherDb());
         
         try {
             if(cursor != null) {
@@ -1913,7 +2033,7 @@ public class DataBaseHelper  {
         catch (Exception e) {
         }
         
-        closesWeather(cursor);
+        closes(cursor);
         return metar;        
     }
 
@@ -1927,12 +2047,15 @@ public class DataBaseHelper  {
     public WindsAloft getWindsAloft(double lon, double lat) {
       
         WindsAloft wa = null;
+        String real = SpatialIndex.REAL;
         String qry =
                 "select * from wa order by " +
-                "((longitude - " + lon + ")*" + "(longitude - " + lon + ") + " +    
-                "(latitude - " + lat + ")*" + "(latitude - " + lat + ")) limit 1;";
+                "((longitude - " + real + ")*" + "(longitude - " + real + ") + " +    
+                "(latitude - " + real + ")*" + "(latitude - " + real + ")) limit 1;";
+        String slon = Double.toString(lon);
+        String slat = Double.toString(lat);
 
-        Cursor cursor = doQueryWeather(qry, getWeatherDb());
+        Cursor cursor = doQuery(qry, new String[] {slon, slon, slat, slat}, getWeatherDb());
         
         try {
             if(cursor != null) {
@@ -1958,7 +2081,7 @@ public class DataBaseHelper  {
         catch (Exception e) {
         }
         
-        closesWeather(cursor);
+        closes(cursor);
         return wa;        
     }
 
@@ -1975,12 +2098,17 @@ public class DataBaseHelper  {
          * All aireps/pireps sep by \n
          */
         
+        String real = SpatialIndex.REAL;
         String qry =
                 "select * from apirep where " +                
-                "(" + "latitude"  + " > " + (lat - Airep.RADIUS) + ") and (" + "latitude"  + " < " + (lat + Airep.RADIUS) + ") and " +
-                "(" + "longitude" + " > " + (lon - Airep.RADIUS) + ") and (" + "longitude" + " < " + (lon + Airep.RADIUS) + ");";
+                "(" + "latitude"  + " > " + real + ") and (" + "latitude"  + " < " + real + ") and " +
+                "(" + "longitude" + " > " + real + ") and (" + "longitude" + " < " + real + ");";
+        String args[] = new String[] {
+                Double.toString(lat - Airep.RADIUS), Double.toString(lat + Airep.RADIUS),
+                Double.toString(lon - Airep.RADIUS), Double.toString(lon + Airep.RADIUS)
+        };
      
-        Cursor cursor = doQueryWeather(qry, getWeatherDb());
+        Cursor cursor = doQuery(qry, args, getWeatherDb());
         
         try {
             if(cursor != null) {
@@ -1998,7 +2126,7 @@ public class DataBaseHelper  {
         catch (Exception e) {
         }
         
-        closesWeather(cursor);
+        closes(cursor);
         return airep;
     }
 
@@ -2018,7 +2146,7 @@ public class DataBaseHelper  {
         String qry =
                 "select * from airsig"; 
      
-        Cursor cursor = doQueryWeather(qry, getWeatherDb());
+        Cursor cursor = doQuery(qry, getWeatherDb());
         
         try {
             if(cursor != null) {
@@ -2042,7 +2170,7 @@ public class DataBaseHelper  {
         catch (Exception e) {
         }
         
-        closesWeather(cursor);
+        closes(cursor);
         return airsig;
     }
     
@@ -2050,112 +2178,24 @@ public class DataBaseHelper  {
 
     /**
      * 
-     * @param statement
+     * @param name
+     * @param approach
      * @return
      */
-    private Cursor doQueryProcedures(String statement, String name) {
-        Cursor c = null;
-        
-        String path = mPref.mapsFolder() + "/" + name;
-        if(!(new File(path).exists())) {
-            return null;
-        }
-
-        /*
-         * 
-         */
-        synchronized(mUsersProcedures) {
-            if(mDataBaseProcedures == null) {
-                mUsersProcedures = 0;
-                try {
-                    
-                    mDataBaseProcedures = SQLiteDatabase.openDatabase(path, null, SQLiteDatabase.OPEN_READONLY | 
-                            SQLiteDatabase.NO_LOCALIZED_COLLATORS);
-                }
-                catch(RuntimeException e) {
-                    mDataBaseProcedures = null;
-                }
-            }
-            if(mDataBaseProcedures == null) {
-                return c;
-            }
-            mUsersProcedures++;
-        }
-        
-        /*
-         * In case we fail
-         */
-        
-        if(mDataBaseProcedures == null) {
-            return c;
-        }
-        
-        if(!mDataBaseProcedures.isOpen()) {
-            return c;
-        }
-        
-        /*
-         * Find with sqlite query
-         */
-        try {
-               c = mDataBaseProcedures.rawQuery(statement, null);
-        }
-        catch (Exception e) {
-            c = null;
-        }
-
-        return c;
-    }
-
-    /**
-     * Close database
-     */
-    private void closesProcedures(Cursor c) {
-        try {
-            if(null != c) {
-                c.close();
-            }
-        }
-        catch (Exception e) {
-            
-        }
-
-        synchronized(mUsersProcedures) {
-            mUsersProcedures--;
-            if((mDataBaseProcedures != null) && (mUsersProcedures <= 0)) {
-                try {
-                    mDataBaseProcedures.close();
-                }
-                catch (Exception e) {
-                }
-                mDataBaseProcedures = null;
-                mUsersProcedures = 0;
-            }
-        }
-    }
-
-
-    /**
-     * 
-     * @param name
-     * @param approach
-     * @return
-     */
-    public LinkedList<Cifp> findProcedure(String name, String approach) {
-
-        TreeMap<String, Cifp> map = new TreeMap<String, Cifp>();
-        String params[] = Cifp.getParams(approach);
-        if(params[0] == null || params[1] == null) {
-            return new LinkedList<Cifp>();
+    public LinkedList<Cifp> findProcedure(String name, String approach) {
+
+        TreeMap<String, Cifp> map = new TreeMap<String, Cifp>();
+        String params[] = Cifp.getParams(approach);
+        if(params[0] == null || params[1] == null) {
+            return new LinkedList<Cifp>();
         }
 
         // get runway matched to CIFP database
 
         String qry =
-                "select * from " + TABLE_PROCEDURE + " where (Airport='" + name + "' or Airport='K" + name +
-                "') and AppType='" + params[0] + "' and runway like'%"  + params[1]  + "%';";
+                "select * from " + TABLE_PROCEDURE + " where (Airport=? or Airport=?) and AppType=? and runway like ?;";
 
-        Cursor cursor = doQueryProcedures(qry, "procedures.db");
+        Cursor cursor = doQuery(qry, new String[] {name, "K" + name, params[0], "%" + params[1] + "%"}, "procedures.db");
 
         try {
             if(cursor != null) {
@@ -2175,97 +2215,11 @@ public class DataBaseHelper  {
         catch (Exception e) {
         }
         
-        closesProcedures(cursor);
+        closes(cursor);
         
         return new LinkedList<Cifp>(map.values());
     }
     
-    /**
-     * 
-     * @param statement
-     * @return
-     */
-    private Cursor doQueryPlates(String statement, String name) {
-        Cursor c = null;
-        
-        String path = mPref.mapsFolder() + "/" + name;
-        if(!(new File(path).exists())) {
-            return null;
-        }
-
-        /*
-         * 
-         */
-        synchronized(mUsersPlates) {
-            if(mDataBasePlates == null) {
-                mUsersPlates = 0;
-                try {
-                    
-                    mDataBasePlates = SQLiteDatabase.openDatabase(path, null, SQLiteDatabase.OPEN_READONLY | 
-                            SQLiteDatabase.NO_LOCALIZED_COLLATORS);
-                }
-                catch(RuntimeException e) {
-                    mDataBasePlates = null;
-                }
-            }
-            if(mDataBasePlates == null) {
-                return c;
-            }
-            mUsersPlates++;
-        }
-        
-        /*
-         * In case we fail
-         */
-        
-        if(mDataBasePlates == null) {
-            return c;
-        }
-        
-        if(!mDataBasePlates.isOpen()) {
-            return c;
-        }
-        
-        /*
-         * Find with sqlite query
-         */
-        try {
-               c = mDataBasePlates.rawQuery(statement, null);
-        }
-        catch (Exception e) {
-            c = null;
-        }
-
-        return c;
-    }
-
-    /**
-     * Close database
-     */
-    private void closesPlates(Cursor c) {
-        try {
-            if(null != c) {
-                c.close();
-            }
-        }
-        catch (Exception e) {
-            
-        }
-
-        synchronized(mUsersPlates) {
-            mUsersPlates--;
-            if((mDataBasePlates != null) && (mUsersPlates <= 0)) {
-                try {
-                    mDataBasePlates.close();
-                }
-                catch (Exception e) {
-                }
-                mDataBasePlates = null;
-                mUsersPlates = 0;
-            }
-        }
-    }
-
     
     /**
      * 
@@ -2277,9 +2231,9 @@ public class DataBaseHelper  {
         HashMap<String, float[]> ret = new HashMap<String, float[]>();
         
         String qry =
-                "select * from VisionFix" + " where AirportID='" + name + "';";
+                "select * from VisionFix" + " where AirportID=?;";
         
-        Cursor cursor = doQueryPlates(qry, "geoplates.db");
+        Cursor cursor = doQuery(qry, new String[] {name}, "geoplates.db");
         
         try {
             if(cursor != null) {
@@ -2322,7 +2276,7 @@ public class DataBaseHelper  {
         catch (Exception e) {
         }
         
-        closesPlates(cursor);
+        closes(cursor);
         
         if(ret.size() > 0) {
             return ret;      
@@ -2331,95 +2285,7 @@ public class DataBaseHelper  {
         return null;
     }
 
-    /**
-     * 
-     * @param statement
-     * @return
-     */
-    private Cursor doQueryGeoPlates(String statement, String name) {
-        Cursor c = null;
-        
-        String path = mPref.mapsFolder() + "/" + name;
-        if(!(new File(path).exists())) {
-            return null;
-        }
-
-        /*
-         * 
-         */
-        synchronized(mUsersGeoPlates) {
-            if(mDataBaseGeoPlates == null) {
-                mUsersGeoPlates = 0;
-                try {
-                    
-                    mDataBaseGeoPlates = SQLiteDatabase.openDatabase(path, null, SQLiteDatabase.OPEN_READONLY | 
-                            SQLiteDatabase.NO_LOCALIZED_COLLATORS);
-                }
-                catch(RuntimeException e) {
-                    mDataBaseGeoPlates = null;
-                }
-            }
-            if(mDataBaseGeoPlates == null) {
-                return c;
-            }
-            mUsersGeoPlates++;
-        }
-        
-        /*
-         * In case we fail
-         */
-        
-        if(mDataBaseGeoPlates == null) {
-            return c;
-        }
-        
-        if(!mDataBaseGeoPlates.isOpen()) {
-            return c;
-        }
-        
-        /*
-         * Find with sqlite query
-         */
-        try {
-               c = mDataBaseGeoPlates.rawQuery(statement, null);
-        }
-        catch (Exception e) {
-            c = null;
-        }
-
-        return c;
-    }
-
     
-    /**
-     * Close database
-     */
-    private void closesGeoPlates(Cursor c) {
-        try {
-            if(null != c) {
-                c.close();
-            }
-        }
-        catch (Exception e) {
-            
-        }
-
-        synchronized(mUsersGeoPlates) {
-            mUsersGeoPlates--;
-            if((mDataBaseGeoPlates != null) && (mUsersGeoPlates <= 0)) {
-                try {
-                    mDataBaseGeoPlates.close();
-                }
-                
-                
-                catch (Exception e) {
-                }
-                mDataBaseGeoPlates = null;
-                mUsersGeoPlates = 0;
-            }
-        }
-    }
-
     /**
      * 
      * @param name
@@ -2429,8 +2295,8 @@ public class DataBaseHelper  {
         float ret[] = new float[4];
         boolean found = false;
         
-        String qry = "select * from " + TABLE_GEOPLATES + " where " + PROC + "=='" + name +"'";
-        Cursor cursor = doQueryGeoPlates(qry, "geoplates.db");
+        String qry = "select * from " + TABLE_GEOPLATES + " where " + PROC + "==?";
+        Cursor cursor = doQuery(qry, new String[] {name}, "geoplates.db");
         try {
             if(cursor != null) {
                 if(cursor.moveToFirst()) {
@@ -2448,7 +2314,7 @@ public class DataBaseHelper  {
         }
         catch (Exception e) {
         }
-        closesGeoPlates(cursor);
+        closes(cursor);
 
         if(found == false) {
             return null;
@@ -2464,11 +2330,11 @@ public class DataBaseHelper  {
      */
     public Coordinate findNavaid(String name) {
     	Coordinate coord = null;
-	    String qry = "select * from " + TABLE_NAV + " where " + LOCATION_ID_DB + "=='" + name + "' and Type != 'VOT' limit 1;";
+	    String qry = "select * from " + TABLE_NAV + " where " + LOCATION_ID_DB + "==? and Type != 'VOT' limit 1;";
 	    /*
 	     * NAV
 	     */
-	    Cursor cursor = doQuery(qry, getMainDb());
+	    Cursor cursor = doQuery(qry, new String[] {name}, getMainDb());
 	    
 	    try {
 	        if(cursor != null) {
@@ -2486,11 +2352,11 @@ public class DataBaseHelper  {
 	    	return coord;
 	    }
 	    
-	    qry = "select * from " + TABLE_FIX + " where " + LOCATION_ID_DB + "=='" + name + "' limit 1;";
+	    qry = "select * from " + TABLE_FIX + " where " + LOCATION_ID_DB + "==? limit 1;";
 	    /*
 	     * Fix
 	     */
-	    cursor = doQuery(qry, getMainDb());
+	    cursor = doQuery(qry, new String[] {name}, getMainDb());
 	    
 	    try {
 	        if(cursor != null) {
@@ -2502,6 +2368,8 @@ public class DataBaseHelper  {
 	    catch (Exception e) {
 	    }
 
+	    closes(cursor);
+
 	    return coord;
     }
 
@@ -2517,9 +2385,9 @@ public class DataBaseHelper  {
         /*
          * Limit to airports taken by array airports
          */
-        String qry = "select * from " + TABLE_AIRWAYS + " where name='" + name + "'" +
+        String qry = "select * from " + TABLE_AIRWAYS + " where name=?" +
         		" order by cast(sequence as integer)";
-        Cursor cursor = doQuery(qry, getMainDb());
+        Cursor cursor = doQuery(qry, new String[] {name}, getMainDb());
 
         try {
             if(cursor != null) {
@@ -2542,95 +2410,7 @@ public class DataBaseHelper  {
 
 	
 	
-    /**
-     * 
-     * @param statement
-     * @return
-     */
-    private Cursor doQueryFuel(String statement, String name) {
-        Cursor c = null;
-        
-        String path = mPref.mapsFolder() + "/" + name;
-        if(!(new File(path).exists())) {
-            return null;
-        }
-
-        /*
-         * 
-         */
-        synchronized(mUsersFuel) {
-            if(mDataBaseFuel == null) {
-                mUsersFuel = 0;
-                try {
-                    
-                    mDataBaseFuel = SQLiteDatabase.openDatabase(path, null, SQLiteDatabase.OPEN_READONLY | 
-                            SQLiteDatabase.NO_LOCALIZED_COLLATORS);
-                }
-                catch(RuntimeException e) {
-                    mDataBaseFuel = null;
-                }
-            }
-            if(mDataBaseFuel == null) {
-                return c;
-            }
-            mUsersFuel++;
-        }
-        
-        /*
-         * In case we fail
-         */
-        
-        if(mDataBaseFuel == null) {
-            return c;
-        }
-        
-        if(!mDataBaseFuel.isOpen()) {
-            return c;
-        }
-        
-        /*
-         * Find with sqlite query
-         */
-        try {
-               c = mDataBaseFuel.rawQuery(statement, null);
-        }
-        catch (Exception e) {
-            c = null;
-        }
-
-        return c;
-    }
-
     
-    /**
-     * Close database
-     */
-    private void closesFuel(Cursor c) {
-        try {
-            if(null != c) {
-                c.close();
-            }
-        }
-        catch (Exception e) {
-            
-        }
-
-        synchronized(mUsersFuel) {
-            mUsersFuel--;
-            if((mDataBaseFuel != null) && (mUsersFuel <= 0)) {
-                try {
-                    mDataBaseFuel.close();
-                }
-                
-                
-                catch (Exception e) {
-                }
-                mDataBaseFuel = null;
-                mUsersFuel = 0;
-            }
-        }
-    }
-
     /**
      * 
      * @param name
@@ -2640,9 +2420,9 @@ public class DataBaseHelper  {
 
     	LinkedList<String> ret = new LinkedList<String>();
     	
-        String qry = "select * from " + TABLE_FUEL + " where airport =='" + name +"'" + 
+        String qry = "select * from " + TABLE_FUEL + " where airport ==?" + 
         		" order by reported desc limit 6";
-        Cursor cursor = doQueryFuel(qry, "fuel.db");
+        Cursor cursor = doQuery(qry, new String[] {name}, "fuel.db");
         try {
             if(cursor != null) {
                 if(cursor.moveToFirst()) {
@@ -2660,100 +2440,12 @@ public class DataBaseHelper  {
         }
         catch (Exception e) {
         }
-        closesFuel(cursor);
+        closes(cursor);
         return ret;
     }
 
     
-    /**
-     * 
-     * @param statement
-     * @return
-     */
-    private Cursor doQueryRatings(String statement, String name) {
-        Cursor c = null;
-        
-        String path = mPref.mapsFolder() + "/" + name;
-        if(!(new File(path).exists())) {
-            return null;
-        }
-
-        /*
-         * 
-         */
-        synchronized(mUsersRatings) {
-            if(mDataBaseRatings == null) {
-                mUsersRatings = 0;
-                try {
-                    
-                    mDataBaseRatings = SQLiteDatabase.openDatabase(path, null, SQLiteDatabase.OPEN_READONLY | 
-                            SQLiteDatabase.NO_LOCALIZED_COLLATORS);
-                }
-                catch(RuntimeException e) {
-                    mDataBaseRatings = null;
-                }
-            }
-            if(mDataBaseRatings == null) {
-                return c;
-            }
-            mUsersRatings++;
-        }
-        
-        /*
-         * In case we fail
-         */
-        
-        if(mDataBaseRatings == null) {
-            return c;
-        }
-        
-        if(!mDataBaseRatings.isOpen()) {
-            return c;
-        }
-        
-        /*
-         * Find with sqlite query
-         */
-        try {
-               c = mDataBaseRatings.rawQuery(statement, null);
-        }
-        catch (Exception e) {
-            c = null;
-        }
-
-        return c;
-    }
-
     
-    /**
-     * Close database
-     */
-    private void closesRatings(Cursor c) {
-        try {
-            if(null != c) {
-                c.close();
-            }
-        }
-        catch (Exception e) {
-            
-        }
-
-        synchronized(mUsersRatings) {
-            mUsersRatings--;
-            if((mDataBaseRatings != null) && (mUsersRatings <= 0)) {
-                try {
-                    mDataBaseRatings.close();
-                }
-                
-                
-                catch (Exception e) {
-                }
-                mDataBaseRatings = null;
-                mUsersRatings = 0;
-            }
-        }
-    }
-
     
     /**
      * 
@@ -2763,9 +2455,9 @@ public class DataBaseHelper  {
 	public LinkedList<String> findRatings(String name) {
     	LinkedList<String> ret = new LinkedList<String>();
     	
-        String qry = "select * from " + TABLE_RATINGS + " where airport =='" + name +"'" + 
+        String qry = "select * from " + TABLE_RATINGS + " where airport ==?" + 
         		" order by reported desc";
-        Cursor cursor = doQueryRatings(qry, "ratings.db");
+        Cursor cursor = doQuery(qry, new String[] {name}, "ratings.db");
         try {
             if(cursor != null) {
                 if(cursor.moveToFirst()) {
@@ -2784,7 +2476,7 @@ public class DataBaseHelper  {
         }
         catch (Exception e) {
         }
-        closesRatings(cursor);
+        closes(cursor);
         return ret;
 	}
 }
@@ -0,0 +1,429 @@
+/*
+Copyright (c) 2015, Apps4Av Inc. (apps4av.com)
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+    * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+    *     * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+    *
+    *     THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.ds.avare.storage;
+
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+import android.os.SystemClock;
+
+import java.io.File;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+
+/**
+ * Long lived read only connections to database files. Each file gets a few connections so
+ * tasks can read it in parallel; a connection is held by a query till its cursor is closed.
+ * Read only files cannot use WAL, and one SQLiteDatabase runs one statement at a time,
+ * so parallel readers need separate connections.
+ *
+ * Connections are closed only when a file is replaced (Download/Delete call close(), and a changed
+ * file time is noticed on next use). A connection whose cursor was never closed is taken back once
+ * the cursor is garbage collected.
+ * Counts opens, closes, connections taken back, and time spent waiting for a connection.
+ *
+ * @author zkhan
+ */
+public class DataBasePool {
+
+    /*
+     * Connections per file
+     */
+    private static final int CONNECTIONS = 3;
+
+    /*
+     * Wait this long for a busy connection, then open one more. Guards against a cursor someone forgot to close.
+     */
+    private static final long WAIT_MS = 2000;
+
+    /*
+     * Connections per file counting the extra ones. Over this a query fails instead of opening more.
+     */
+    private static final int MAX_CONNECTIONS = 2 * CONNECTIONS;
+
+    /*
+     * Compiled statements kept per connection
+     */
+    private static final int SQL_CACHE_SIZE = 50;
+
+    private static DataBasePool mInstance = null;
+
+    private HashMap<String, Connections> mFiles;
+
+    /*
+     * Connections held by open cursors, and the queue their cursors land on when collected unclosed
+     */
+    private HashSet<Lease> mLeases;
+    private ReferenceQueue<PooledCursor> mLost;
+
+    private long mOpens;
+    private long mCloses;
+    private long mReclaims;
+    private long mWaits;
+    private long mWaitTime;
+
+    /**
+     * Connections of one file
+     */
+    private class Connections {
+        private String mPath;
+        private long mModified;
+        private LinkedList<SQLiteDatabase> mIdle;
+        private HashSet<SQLiteDatabase> mBusy;
+        private int mOpening;
+
+        private Connections(String path) {
+            mPath = path;
+            mModified = 0;
+            mIdle = new LinkedList<SQLiteDatabase>();
+            mBusy = new HashSet<SQLiteDatabase>();
+            mOpening = 0;
+        }
+
+        /**
+         * Connections made or being made
+         * @return
+         */
+        private int getCount() {
+            return mIdle.size() + mBusy.size() + mOpening;
+        }
+
+        /**
+         * Close idle ones now, busy ones when released
+         */
+        private void close() {
+            for(SQLiteDatabase db : mIdle) {
+                closeDb(db);
+            }
+            mIdle.clear();
+            mBusy.clear();
+        }
+    }
+
+    private DataBasePool() {
+        mFiles = new HashMap<String, Connections>();
+        mLeases = new HashSet<Lease>();
+        mLost = new ReferenceQueue<PooledCursor>();
+        mOpens = 0;
+        mCloses = 0;
+        mReclaims = 0;
+        mWaits = 0;
+        mWaitTime = 0;
+    }
+
+    /*
+     * Create once
+     */
+    public static synchronized DataBasePool getInstance() {
+        if(mInstance == null) {
+            mInstance = new DataBasePool();
+        }
+        return mInstance;
+    }
+
+    /**
+     * Cursor that gives its connection back to pool when closed
+     */
+    private class PooledCursor extends CursorWrapper {
+        private Lease mLease;
+
+        private PooledCursor(Cursor c, SQLiteDatabase db) {
+            super(c);
+            mLease = new Lease(this, db, mLost);
+            synchronized(DataBasePool.this) {
+                mLeases.add(mLease);
+            }
+        }
+
+        @Override
+        public void close() {
+            super.close();
+            release(mLease);
+        }
+    }
+
+    /**
+     * Connection held by a cursor. Does not keep the cursor alive, so a cursor that is dropped
+     * without close() is queued on mLost and its connection taken back.
+     */
+    private static class Lease extends WeakReference<PooledCursor> {
+        private final SQLiteDatabase mDb;
+
+        private Lease(PooledCursor c, SQLiteDatabase db, ReferenceQueue<PooledCursor> q) {
+            super(c, q);
+            mDb = db;
+        }
+    }
+
+    /**
+     * Run a query on a file
+     * @param path
+     * @param statement
+     * @param args
+     * @return cursor that must be closed, null on error
+     */
+    public Cursor query(String path, String statement, String args[]) {
+        SQLiteDatabase db = acquire(path);
+        if(null == db) {
+            return null;
+        }
+        Cursor c;
+        try {
+            c = db.rawQuery(statement, args);
+        }
+        catch (Exception e) {
+            c = null;
+        }
+        if(null == c) {
+            release(db);
+            return null;
+        }
+        return new PooledCursor(c, db);
+    }
+
+    /**
+     * Get a connection to a file, release() it when done.
+     * Database is opened outside the lock so other files and idle connections are not held up by it.
+     * @param path
+     * @return null if file is missing, cannot be opened, all MAX_CONNECTIONS are in use,
+     * or caller was interrupted while waiting
+     */
+    private SQLiteDatabase acquire(String path) {
+        Connections c;
+        long modified;
+
+        retry:
+        while(true) {
+            modified = new File(path).lastModified();
+            if(0 == modified) {
+                return null;
+            }
+
+            synchronized(this) {
+                reclaim();
+
+                c = mFiles.get(path);
+                if(null == c) {
+                    c = new Connections(path);
+                    mFiles.put(path, c);
+                }
+                if(c.mModified != modified) {
+                    // file replaced
+                    c.close();
+                    c.mModified = modified;
+                }
+
+                if(c.mIdle.isEmpty() && c.getCount() >= CONNECTIONS) {
+                    long start = SystemClock.elapsedRealtime();
+                    long waited = 0;
+                    while(c.mIdle.isEmpty() && waited < WAIT_MS) {
+                        try {
+                            wait(WAIT_MS - waited);
+                        }
+                        catch (InterruptedException e) {
+                            // newer work made this query stale
+                            Thread.currentThread().interrupt();
+                            mWaits++;
+                            mWaitTime += SystemClock.elapsedRealtime() - start;
+                            return null;
+                        }
+                        waited = SystemClock.elapsedRealtime() - start;
+                        if(c != mFiles.get(path)) {
+                            // file replaced while waiting
+                            mWaits++;
+                            mWaitTime += waited;
+                            continue retry;
+                        }
+                        reclaim();
+                    }
+                    mWaits++;
+                    mWaitTime += waited;
+                }
+
+                if(!c.mIdle.isEmpty()) {
+                    SQLiteDatabase db = c.mIdle.removeFirst();
+                    c.mBusy.add(db);
+                    return db;
+                }
+                if(c.getCount() >= MAX_CONNECTIONS) {
+                    // cursors are being held open, do not let connections grow without bound
+                    return null;
+                }
+                c.mOpening++;
+            }
+            break;
+        }
+
+        SQLiteDatabase db = open(c.mPath);
+
+        synchronized(this) {
+            c.mOpening--;
+            if(null == db) {
+                notifyAll();
+                return null;
+            }
+            mOpens++;
+            if(c == mFiles.get(path) && c.mModified == modified) {
+                c.mBusy.add(db);
+            }
+            // else file was replaced while opening, release() closes this one
+            return db;
+        }
+    }
+
+    /**
+     * Take back connections of cursors that were collected without being closed
+     */
+    private void reclaim() {
+        Reference<? extends PooledCursor> r;
+        while(null != (r = mLost.poll())) {
+            Lease l = (Lease)r;
+            if(mLeases.remove(l)) {
+                mReclaims++;
+                release(l.mDb);
+            }
+        }
+    }
+
+    /**
+     * Done with a cursor's connection
+     * @param l
+     */
+    private synchronized void release(Lease l) {
+        if(mLeases.remove(l)) {
+            l.clear();
+            release(l.mDb);
+        }
+    }
+
+    /**
+     * Done with a connection from acquire()
+     * @param db
+     */
+    private synchronized void release(SQLiteDatabase db) {
+        if(null == db) {
+            return;
+        }
+        Connections c = mFiles.get(db.getPath());
+        if(null != c && c.mBusy.remove(db)) {
+            c.mIdle.addFirst(db);
+            notifyAll();
+            return;
+        }
+        if(null != c && c.mIdle.contains(db)) {
+            // released twice
+            return;
+        }
+        // file was replaced while this was in use
+        closeDb(db);
+    }
+
+    /**
+     * File time when a connection to it was last made or checked, without touching the file
+     * @param path
+     * @return 0 if not opened yet or closed since
+     */
+    public synchronized long getModified(String path) {
+        Connections c = mFiles.get(path);
+        return null == c ? 0 : c.mModified;
+    }
+
+    /**
+     * Close connections to all files, as they are being replaced.
+     */
+    public synchronized void close() {
+        for(Connections c : mFiles.values()) {
+            c.close();
+        }
+        mFiles.clear();
+        notifyAll();
+    }
+
+    /**
+     * Number of connections opened so far
+     * @return
+     */
+    public synchronized long getOpenCount() {
+        return mOpens;
+    }
+
+    /**
+     * Number of connections closed so far
+     * @return
+     */
+    public synchronized long getCloseCount() {
+        return mCloses;
+    }
+
+    /**
+     * Number of connections taken back from cursors that were not closed
+     * @return
+     */
+    public synchronized long getReclaimCount() {
+        return mReclaims;
+    }
+
+    /**
+     * Number of times a query waited for a connection
+     * @return
+     */
+    public synchronized long getWaitCount() {
+        return mWaits;
+    }
+
+    /**
+     * Total time queries waited for a connection
+     * @return ms
+     */
+    public synchronized long getWaitTime() {
+        return mWaitTime;
+    }
+
+    /**
+     * Called without the lock, does not touch pool state
+     * @param path
+     * @return
+     */
+    private SQLiteDatabase open(String path) {
+        SQLiteDatabase db;
+        try {
+            db = SQLiteDatabase.openDatabase(path, null, SQLiteDatabase.OPEN_READONLY |
+                    SQLiteDatabase.NO_LOCALIZED_COLLATORS);
+        }
+        catch(RuntimeException e) {
+            return null;
+        }
+        if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            db.setMaxSqlCacheSize(SQL_CACHE_SIZE);
+        }
+        return db;
+    }
+
+    /**
+     *
+     * @param db
+     */
+    private void closeDb(SQLiteDatabase db) {
+        try {
+            db.close();
+        }
+        catch (Exception e) {
+        }
+        mCloses++;
+    }
+}
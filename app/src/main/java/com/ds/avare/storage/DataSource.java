@@ -14,6 +14,7 @@ Redistribution and use in source and binary forms, with or without modification,
 package com.ds.avare.storage;
 
 import android.content.Context;
+import android.os.Process;
 
 import com.ds.avare.place.Airport;
 import com.ds.avare.place.Awos;
@@ -32,6 +33,12 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * @author zkhan, jlmcgraw
@@ -45,11 +52,163 @@ public class DataSource {
      */
     private DataBaseHelper dbHelper;
 
+    /*
+     * Runs lookups of getPointInfo() in parallel, they are on different databases mostly
+     */
+    private static final int POINT_THREADS = 4;
+    private ExecutorService mPointLookups;
+
     /**
      * @param context
      */
     public DataSource(Context context) {
         dbHelper = new DataBaseHelper(context);
+        mPointLookups = Executors.newFixedThreadPool(POINT_THREADS, new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                Thread t = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        r.run();
+                    }
+                });
+                t.setName("PointInfo");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Find all database info at a point, like on long press: closest airport and its frequencies, runways,
+     * elevation, TAF, METAR, fuel, ratings; and PIREPs, winds aloft, SUA at the point.
+     * Lookups run in parallel.
+     * @param lon
+     * @param lat
+     * @param weather false to skip TAF, METAR, PIREPs, winds aloft, and SUA, as when ADSB gives weather
+     * @return null if interrupted
+     */
+    public PointInfo getPointInfo(final double lon, final double lat, boolean weather) {
+
+        LinkedList<Future<?>> all = new LinkedList<Future<?>>();
+        try {
+            /*
+             * Point lookups, start now
+             */
+            Future<LinkedList<Airep>> aireps = null;
+            Future<WindsAloft> wa = null;
+            Future<String> sua = null;
+            if(weather) {
+                aireps = submit(all, new Callable<LinkedList<Airep>>() {
+                    @Override
+                    public LinkedList<Airep> call() {
+                        return dbHelper.getAireps(lon, lat);
+                    }
+                });
+                wa = submit(all, new Callable<WindsAloft>() {
+                    @Override
+                    public WindsAloft call() {
+                        return dbHelper.getWindsAloft(lon, lat);
+                    }
+                });
+                sua = submit(all, new Callable<String>() {
+                    @Override
+                    public String call() {
+                        return dbHelper.getSua(lon, lat);
+                    }
+                });
+            }
+
+            final String airport = dbHelper.findClosestAirportID(lon, lat);
+            if(null == airport) {
+                return new PointInfo(lon, lat, null, null, null, null, null, null, null, null,
+                        get(aireps), get(wa), get(sua));
+            }
+
+            /*
+             * Airport lookups
+             */
+            Future<LinkedList<String>> freq = submit(all, new Callable<LinkedList<String>>() {
+                @Override
+                public LinkedList<String> call() {
+                    return dbHelper.findFrequencies(airport);
+                }
+            });
+            Future<LinkedList<String>> runways = submit(all, new Callable<LinkedList<String>>() {
+                @Override
+                public LinkedList<String> call() {
+                    return dbHelper.findRunways(airport);
+                }
+            });
+            Future<Taf> taf = null;
+            Future<Metar> metar = null;
+            if(weather) {
+                taf = submit(all, new Callable<Taf>() {
+                    @Override
+                    public Taf call() {
+                        return dbHelper.getTAF(airport);
+                    }
+                });
+                metar = submit(all, new Callable<Metar>() {
+                    @Override
+                    public Metar call() {
+                        return dbHelper.getMETAR(airport);
+                    }
+                });
+            }
+            Future<LinkedList<String>> fuel = submit(all, new Callable<LinkedList<String>>() {
+                @Override
+                public LinkedList<String> call() {
+                    return dbHelper.findFuelCost(airport);
+                }
+            });
+            Future<LinkedList<String>> ratings = submit(all, new Callable<LinkedList<String>>() {
+                @Override
+                public LinkedList<String> call() {
+                    return dbHelper.findRatings(airport);
+                }
+            });
+            // small, do here while others run
+            String elev = dbHelper.findElev(airport);
+
+            return new PointInfo(lon, lat, airport, freq.get(), runways.get(), elev, get(taf), get(metar),
+                    fuel.get(), ratings.get(), get(aireps), get(wa), get(sua));
+        }
+        catch (InterruptedException e) {
+            // caller does not want it anymore
+            for(Future<?> f : all) {
+                f.cancel(true);
+            }
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        catch (ExecutionException e) {
+            return null;
+        }
+    }
+
+    /**
+     *
+     * @param all add to this list of lookups
+     * @param c
+     * @param <T>
+     * @return
+     */
+    private <T> Future<T> submit(LinkedList<Future<?>> all, Callable<T> c) {
+        Future<T> f = mPointLookups.submit(c);
+        all.add(f);
+        return f;
+    }
+
+    /**
+     *
+     * @param f lookup, null if not made
+     * @param <T>
+     * @return
+     */
+    private static <T> T get(Future<T> f) throws InterruptedException, ExecutionException {
+        return null == f ? null : f.get();
     }
 
     /**
@@ -59,6 +218,16 @@ public class DataSource {
     public boolean isPresent() {
         return(dbHelper.isPresent());
     }
+
+    /**
+     * Database connection use, for diagnostics
+     * @return opens, closes, waits for a connection, total wait ms, connections taken back from unclosed cursors
+     */
+    public long[] getConnectionStats() {
+        DataBasePool pool = DataBasePool.getInstance();
+        return new long[] {pool.getOpenCount(), pool.getCloseCount(), pool.getWaitCount(), pool.getWaitTime(),
+                pool.getReclaimCount()};
+    }
     
     /**
      * @param name
@@ -189,6 +358,14 @@ public class DataSource {
         dbHelper.findLonLatMetar(metars);
     }
 
+    /**
+     *
+     * @return lon/lat of all airports, null on error
+     */
+    public StationTable getStationTable() {
+        return dbHelper.getStationTable();
+    }
+
     /**
      * 
      * @param name
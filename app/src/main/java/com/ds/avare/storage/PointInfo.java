@@ -0,0 +1,127 @@
+/*
+Copyright (c) 2015, Apps4Av Inc. (apps4av.com)
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+    * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+    *     * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+    *
+    *     THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.ds.avare.storage;
+
+import com.ds.avare.weather.Airep;
+import com.ds.avare.weather.Metar;
+import com.ds.avare.weather.Taf;
+import com.ds.avare.weather.WindsAloft;
+
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Everything databases know about a point, found in one go for long press.
+ * Set once when made, read only after; lists given are wrapped unmodifiable.
+ *
+ * @author zkhan
+ */
+public class PointInfo {
+
+    private final double mLon;
+    private final double mLat;
+    private final String mAirport;
+    private final List<String> mFrequencies;
+    private final List<String> mRunways;
+    private final String mElevation;
+    private final Taf mTaf;
+    private final Metar mMetar;
+    private final List<String> mFuel;
+    private final List<String> mRatings;
+    private final List<Airep> mAireps;
+    private final WindsAloft mWindsAloft;
+    private final String mSua;
+
+    /**
+     * Airport items are null when no airport is close to the point
+     */
+    public PointInfo(double lon, double lat, String airport,
+                     LinkedList<String> frequencies, LinkedList<String> runways, String elevation,
+                     Taf taf, Metar metar, LinkedList<String> fuel, LinkedList<String> ratings,
+                     LinkedList<Airep> aireps, WindsAloft wa, String sua) {
+        mLon = lon;
+        mLat = lat;
+        mAirport = airport;
+        mFrequencies = wrap(frequencies);
+        mRunways = wrap(runways);
+        mElevation = elevation;
+        mTaf = taf;
+        mMetar = metar;
+        mFuel = wrap(fuel);
+        mRatings = wrap(ratings);
+        mAireps = wrap(aireps);
+        mWindsAloft = wa;
+        mSua = sua;
+    }
+
+    private static <T> List<T> wrap(LinkedList<T> l) {
+        return null == l ? null : Collections.unmodifiableList(l);
+    }
+
+    public double getLongitude() {
+        return mLon;
+    }
+
+    public double getLatitude() {
+        return mLat;
+    }
+
+    /**
+     *
+     * @return closest airport ID, null if none close
+     */
+    public String getAirport() {
+        return mAirport;
+    }
+
+    public List<String> getFrequencies() {
+        return mFrequencies;
+    }
+
+    public List<String> getRunways() {
+        return mRunways;
+    }
+
+    public String getElevation() {
+        return mElevation;
+    }
+
+    public Taf getTaf() {
+        return mTaf;
+    }
+
+    public Metar getMetar() {
+        return mMetar;
+    }
+
+    public List<String> getFuel() {
+        return mFuel;
+    }
+
+    public List<String> getRatings() {
+        return mRatings;
+    }
+
+    public List<Airep> getAireps() {
+        return mAireps;
+    }
+
+    public WindsAloft getWindsAloft() {
+        return mWindsAloft;
+    }
+
+    public String getSua() {
+        return mSua;
+    }
+}
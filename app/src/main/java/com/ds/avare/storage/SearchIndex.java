@@ -0,0 +1,170 @@
+/*
+Copyright (c) 2015, Apps4Av Inc. (apps4av.com)
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+    * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+    *     * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+    *
+    *     THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.ds.avare.storage;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import com.ds.avare.place.Destination;
+
+import java.util.Locale;
+
+/**
+ * Full text index of airports, navaids and fixes in main database, so search as you type is one
+ * prefix query on location ID, facility name and city instead of several LIKE scans.
+ * Databases made by extra/databases already have it; older ones get it built on first use.
+ *
+ * Columns: Kind (destination type), LocationID, Type, FacilityName, Words (names and city to search)
+ *
+ * @author zkhan
+ */
+public class SearchIndex {
+
+    public static final String TABLE = "search";
+
+    /*
+     * Results of a search, best first
+     */
+    private static final int MAX_RESULTS = 200;
+
+    /*
+     * Shorter input only matches IDs, else every name starting with a letter or two shows up
+     */
+    private static final int MIN_WORDS_LENGTH = 3;
+
+    /**
+     * Query that returns 1 if index is present
+     * @return
+     */
+    public static String getCheckQuery() {
+        return "select count(*) from sqlite_master where name='" + TABLE + "';";
+    }
+
+    /**
+     * Ranked prefix search. Exact ID first, then IDs starting with input, then names and cities.
+     * Airports before navaids before fixes.
+     * Columns returned: Kind, LocationID, FacilityName, Type
+     * @param airportsOnly leave out heliports, seaplane bases etc.
+     * @return
+     */
+    public static String getQuery(boolean airportsOnly) {
+        String qry = "select Kind, LocationID, FacilityName, Type from " + TABLE + " where " + TABLE + " match ?";
+        if(airportsOnly) {
+            qry += " and (Kind != '" + Destination.BASE + "' or Type == 'AIRPORT')";
+        }
+        qry += " order by (LocationID == ? or LocationID == ?) desc, (LocationID like ? or LocationID like ?) desc, " +
+                "Kind == '" + Destination.FIX + "', Kind == '" + Destination.NAVAID + "', LocationID limit " + MAX_RESULTS + ";";
+        return qry;
+    }
+
+    /**
+     * Arguments for getQuery()
+     * @param name what user typed
+     * @return null if nothing to search
+     */
+    public static String[] getArgs(String name) {
+        String words[] = name.toUpperCase(Locale.US).split("[^A-Z0-9]+");
+        String match = "";
+        int count = 0;
+        for(String w : words) {
+            if(w.length() > 0) {
+                count++;
+            }
+        }
+        if(0 == count) {
+            return null;
+        }
+
+        String id = null;
+        String idk = null;
+        if(1 == count) {
+            for(String w : words) {
+                if(w.length() > 0) {
+                    id = w;
+                }
+            }
+            /*
+             * Allow K as a prefix for airport IDs once user has typed enough
+             */
+            idk = id;
+            if(id.length() > 2 && id.charAt(0) == 'K') {
+                idk = id.substring(1);
+            }
+            match = "LocationID:" + id + "*";
+            if(!idk.equals(id)) {
+                match += " OR LocationID:" + idk + "*";
+            }
+            if(id.length() >= MIN_WORDS_LENGTH) {
+                match += " OR Words:" + id + "*";
+            }
+        }
+        else {
+            /*
+             * Many words, all must start a word in name or city
+             */
+            for(String w : words) {
+                if(w.length() > 0) {
+                    match += (match.length() == 0 ? "" : " ") + "Words:" + w + "*";
+                }
+            }
+            id = idk = name.toUpperCase(Locale.US);
+        }
+
+        return new String[] {match, id, idk, id + "%", idk + "%"};
+    }
+
+    /**
+     * Build index. Slow, call in background.
+     * @param path of database
+     * @return false if this SQLite has no full text search, or database could not be written
+     */
+    public static boolean build(String path) {
+        SQLiteDatabase db;
+        try {
+            db = SQLiteDatabase.openDatabase(path, null, SQLiteDatabase.OPEN_READWRITE |
+                    SQLiteDatabase.NO_LOCALIZED_COLLATORS);
+        }
+        catch (RuntimeException e) {
+            return false;
+        }
+
+        boolean ret = true;
+        try {
+            db.beginTransaction();
+            try {
+                db.execSQL("drop table if exists " + TABLE + ";");
+                try {
+                    db.execSQL("create virtual table " + TABLE + " using fts4(Kind, LocationID, Type, FacilityName, Words);");
+                }
+                catch (RuntimeException e) {
+                    // older SQLite
+                    db.execSQL("create virtual table " + TABLE + " using fts3(Kind, LocationID, Type, FacilityName, Words);");
+                }
+                db.execSQL("insert into " + TABLE + " select '" + Destination.BASE + "', LocationID, Type, FacilityName, " +
+                        "FacilityName || ' ' || ifnull(City, '') from airports;");
+                db.execSQL("insert into " + TABLE + " select '" + Destination.NAVAID + "', LocationID, Type, FacilityName, " +
+                        "FacilityName from nav where Type != 'VOT';");
+                db.execSQL("insert into " + TABLE + " select '" + Destination.FIX + "', LocationID, Type, FacilityName, " +
+                        "'' from fix;");
+                db.setTransactionSuccessful();
+            }
+            finally {
+                db.endTransaction();
+            }
+        }
+        catch (RuntimeException e) {
+            ret = false;
+        }
+        db.close();
+        return ret;
+    }
+}
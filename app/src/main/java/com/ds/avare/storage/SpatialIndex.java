@@ -0,0 +1,128 @@
+/*
+Copyright (c) 2015, Apps4Av Inc. (apps4av.com)
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+    * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+    *     * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+    *
+    *     THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.ds.avare.storage;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * SQLite R*Tree indexes over point tables of the main database, so radius and box lookups do not scan
+ * whole tables. Databases made by extra/databases already have these; older ones get them built
+ * on first use.
+ *
+ * @author zkhan
+ */
+public class SpatialIndex {
+
+    public static final String SUFFIX = "_rtree";
+
+    /**
+     * A bound number. Arguments bind as text and R*Tree columns have no type to convert to,
+     * so cast or the text compares as text.
+     */
+    public static final String REAL = "CAST(? AS REAL)";
+
+    /*
+     * table, longitude column, latitude column. Only tables that have location lookups.
+     */
+    private static final String TABLES[][] = {
+            {"airports", "ARPLongitude", "ARPLatitude"},
+            {"obs", "ARPLongitude", "ARPLatitude"},
+            {"saa", "lon", "lat"},
+    };
+
+    /**
+     * Query that returns number of index tables present, which must match getCount()
+     * @return
+     */
+    public static String getCheckQuery() {
+        String qry = "select count(*) from sqlite_master where name in (";
+        for(int i = 0; i < TABLES.length; i++) {
+            qry += (i == 0 ? "'" : ",'") + TABLES[i][0] + SUFFIX + "'";
+        }
+        return qry + ");";
+    }
+
+    /**
+     *
+     * @return
+     */
+    public static int getCount() {
+        return TABLES.length;
+    }
+
+    /**
+     * Where clause to join a table with its index on a box, box edges bound as arguments
+     * so the statement text is the same for every box
+     * @param table
+     * @return clause with 4 arguments, see getBoxArgs
+     */
+    public static String getBox(String table) {
+        String r = table + SUFFIX;
+        return "(" + table + ".rowid == " + r + ".id and " +
+                r + ".minLon <= " + REAL + " and " + r + ".maxLon >= " + REAL + " and " +
+                r + ".minLat <= " + REAL + " and " + r + ".maxLat >= " + REAL + ")";
+    }
+
+    /**
+     * Arguments for getBox
+     * @param lon center
+     * @param lat center
+     * @param dlon half width
+     * @param dlat half height
+     * @return
+     */
+    public static String[] getBoxArgs(double lon, double lat, double dlon, double dlat) {
+        return new String[] {
+                Double.toString(lon + dlon), Double.toString(lon - dlon),
+                Double.toString(lat + dlat), Double.toString(lat - dlat)
+        };
+    }
+
+    /**
+     * Build missing indexes. Slow, call in background.
+     * @param path of database
+     * @return false if this SQLite has no R*Tree module, or database could not be written
+     */
+    public static boolean build(String path) {
+        SQLiteDatabase db;
+        try {
+            db = SQLiteDatabase.openDatabase(path, null, SQLiteDatabase.OPEN_READWRITE |
+                    SQLiteDatabase.NO_LOCALIZED_COLLATORS);
+        }
+        catch (RuntimeException e) {
+            return false;
+        }
+
+        boolean ret = true;
+        try {
+            db.beginTransaction();
+            try {
+                for(String t[] : TABLES) {
+                    db.execSQL("drop table if exists " + t[0] + SUFFIX + ";");
+                    db.execSQL("create virtual table " + t[0] + SUFFIX + " using rtree(id, minLon, maxLon, minLat, maxLat);");
+                    db.execSQL("insert into " + t[0] + SUFFIX + " select rowid, " + t[1] + ", " + t[1] + ", " + t[2] + ", " + t[2] +
+                            " from " + t[0] + ";");
+                }
+                db.setTransactionSuccessful();
+            }
+            finally {
+                db.endTransaction();
+            }
+        }
+        catch (RuntimeException e) {
+            ret = false;
+        }
+        db.close();
+        return ret;
+    }
+}
@@ -0,0 +1,173 @@
+/*
+Copyright (c) 2015, Apps4Av Inc. (apps4av.com)
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+    * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+    *     * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+    *
+    *     THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.ds.avare.storage;
+
+/**
+ * Lon/lat of stations by ID, all in memory. IDs up to 5 letters/digits are packed in an int,
+ * and kept in an open addressing table with primitive arrays, so a lookup makes no objects.
+ * Filled on one thread then only read, hand it over through a volatile or lock.
+ *
+ * @author zkhan
+ */
+public class StationTable {
+
+    /*
+     * Longest ID that packs in an int, 37^5 < 2^31
+     */
+    private static final int MAX_ID = 5;
+
+    /*
+     * Keep table at most half full so probes stay short
+     */
+    private static final int MIN_CAPACITY = 1024;
+
+    private int mKeys[];
+    private float mLon[];
+    private float mLat[];
+    private int mSize;
+
+    public StationTable() {
+        allocate(MIN_CAPACITY);
+        mSize = 0;
+    }
+
+    /**
+     * Add or replace a station
+     * @param id
+     * @param lon
+     * @param lat
+     * @return false if ID does not pack
+     */
+    public boolean put(String id, double lon, double lat) {
+        int key = getKey(id);
+        if(0 == key) {
+            return false;
+        }
+        if((mSize + 1) * 2 > mKeys.length) {
+            grow();
+        }
+        int slot = getSlot(mKeys, key);
+        if(0 == mKeys[slot]) {
+            mKeys[slot] = key;
+            mSize++;
+        }
+        mLon[slot] = (float)lon;
+        mLat[slot] = (float)lat;
+        return true;
+    }
+
+    /**
+     * Find a station
+     * @param id
+     * @param lonlat lon, lat returned here
+     * @return false if not in table
+     */
+    public boolean find(String id, double lonlat[]) {
+        int key = getKey(id);
+        if(0 == key) {
+            return false;
+        }
+        int slot = getSlot(mKeys, key);
+        if(0 == mKeys[slot]) {
+            return false;
+        }
+        lonlat[0] = mLon[slot];
+        lonlat[1] = mLat[slot];
+        return true;
+    }
+
+    /**
+     *
+     * @param id
+     * @return true if ID can be kept in a table
+     */
+    public static boolean canHold(String id) {
+        return 0 != getKey(id);
+    }
+
+    /**
+     *
+     * @return number of stations
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /*
+     * Slot of key, or empty slot where it would go
+     */
+    private static int getSlot(int keys[], int key) {
+        int mask = keys.length - 1;
+        // spread packed IDs that differ only in last letters
+        int slot = (key * 0x9E3779B1) >>> 7 & mask;
+        while(0 != keys[slot] && key != keys[slot]) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void allocate(int capacity) {
+        mKeys = new int[capacity];
+        mLon = new float[capacity];
+        mLat = new float[capacity];
+    }
+
+    private void grow() {
+        int keys[] = mKeys;
+        float lon[] = mLon;
+        float lat[] = mLat;
+        allocate(keys.length * 2);
+        for(int i = 0; i < keys.length; i++) {
+            if(0 != keys[i]) {
+                int slot = getSlot(mKeys, keys[i]);
+                mKeys[slot] = keys[i];
+                mLon[slot] = lon[i];
+                mLat[slot] = lat[i];
+            }
+        }
+    }
+
+    /**
+     * Pack an ID, base 37 with 0 meaning no letter
+     * @param id
+     * @return 0 if it does not pack
+     */
+    private static int getKey(String id) {
+        if(null == id) {
+            return 0;
+        }
+        int len = id.length();
+        if(0 == len || len > MAX_ID) {
+            return 0;
+        }
+        int key = 0;
+        for(int i = 0; i < len; i++) {
+            char c = id.charAt(i);
+            int v;
+            if(c >= '0' && c <= '9') {
+                v = c - '0' + 1;
+            }
+            else if(c >= 'A' && c <= 'Z') {
+                v = c - 'A' + 11;
+            }
+            else if(c >= 'a' && c <= 'z') {
+                v = c - 'a' + 11;
+            }
+            else {
+                return 0;
+            }
+            key = key * 37 + v;
+        }
+        return key;
+    }
+}
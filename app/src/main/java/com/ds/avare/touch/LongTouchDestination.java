@@ -12,7 +12,7 @@ Redistribution and use in source and binary forms, with or without modification,
 
 package com.ds.avare.touch;
 
-import java.util.LinkedList;
+import java.util.List;
 
 import com.ds.avare.weather.Airep;
 import com.ds.avare.weather.Metar;
@@ -35,8 +35,8 @@ public class LongTouchDestination {
     public Metar metar;
     public String sua;
     public String layer;
-    public LinkedList<Airep> airep;
-    public LinkedList<String> freq;
+    public List<Airep> airep;
+    public List<String> freq;
     public String performance;
     public String fuel;
 	public String ratings;
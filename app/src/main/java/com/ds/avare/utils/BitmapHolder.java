@@ -13,8 +13,10 @@ Redistribution and use in source and binary forms, with or without modification,
 package com.ds.avare.utils;
 
 import java.io.File;
+import java.nio.ByteBuffer;
 
 import com.ds.avare.position.Origin;
+import com.ds.avare.shapes.TilePacks;
 import com.ds.avare.storage.Preferences;
 
 import android.content.Context;
@@ -67,6 +69,11 @@ public class BitmapHolder {
      */
     private Matrix mTransform = new Matrix();
 
+    /**
+     * Tile bytes from a pack are copied here to decode, one buffer per decoding thread
+     */
+    private static final ThreadLocal<byte[]> mTileBytes = new ThreadLocal<byte[]>();
+
     /**
      * 
      */
@@ -168,18 +175,12 @@ public class BitmapHolder {
      */
     public static void getTileOptions(String name, Preferences pref, int opts[]) {
         
-        if(!(new File(pref.mapsFolder() + "/" + name)).exists()) {
-            opts[0] = WIDTH;
-            opts[1] = HEIGHT;
-            return;
-        }
-        
         /*
          * Bitmap dims without decoding
          */
         BitmapFactory.Options options = new BitmapFactory.Options();
         options.inJustDecodeBounds = true;
-        BitmapFactory.decodeFile(pref.mapsFolder() + "/" + name, options);
+        decodeTile(pref, name, options);
         opts[0] = options.outWidth;
         opts[1] = options.outHeight;
         if(opts[0] == 0) {
@@ -190,6 +191,73 @@ public class BitmapHolder {
         }
     }
 
+    /**
+     * Decode a chart tile, from its chart tile pack if there is one, else from the tile file
+     * @param pref
+     * @param name
+     * @param opt
+     * @return
+     */
+    private static Bitmap decodeTile(Preferences pref, String name, BitmapFactory.Options opt) {
+        ByteBuffer b = TilePacks.getInstance().find(pref.mapsFolder(), name);
+        byte data[] = null;
+        int length = 0;
+        if(null != b) {
+            length = b.remaining();
+            data = mTileBytes.get();
+            if(null == data || data.length < length) {
+                data = new byte[length];
+                mTileBytes.set(data);
+            }
+            b.get(data, 0, length);
+        }
+
+        /*
+         * Decode in a bitmap from pool of tiles no longer shown
+         */
+        BitmapPool pool = BitmapPool.getInstance();
+        Bitmap reuse = null;
+        if(BitmapPool.isSupported() && !opt.inJustDecodeBounds && opt.inSampleSize <= 1) {
+            reuse = pool.get(WIDTH, HEIGHT, opt.inPreferredConfig);
+            opt.inMutable = true;
+            opt.inBitmap = reuse;
+        }
+
+        Bitmap out;
+        try {
+            out = decode(pref, name, data, length, opt);
+        }
+        catch (IllegalArgumentException e) {
+            // tile not the size of bitmap from pool
+            opt.inBitmap = null;
+            out = decode(pref, name, data, length, opt);
+        }
+
+        if(opt.inJustDecodeBounds) {
+            return out;
+        }
+        if(null != reuse && out == reuse) {
+            pool.countReuse();
+        }
+        else {
+            pool.put(reuse);
+            if(null != out) {
+                pool.countAllocation();
+            }
+        }
+        return out;
+    }
+
+    /**
+     *
+     */
+    private static Bitmap decode(Preferences pref, String name, byte data[], int length, BitmapFactory.Options opt) {
+        if(null != data) {
+            return BitmapFactory.decodeByteArray(data, 0, length, opt);
+        }
+        return BitmapFactory.decodeFile(pref.mapsFolder() + "/" + name, opt);
+    }
+
     /**
      * @param name
      * Get bitmap from a file
@@ -199,12 +267,8 @@ public class BitmapHolder {
         opt.inPreferredConfig = Bitmap.Config.RGB_565;
         opt.inSampleSize = sampleSize;
 
-        if(!(new File(pref.mapsFolder() + "/" + name)).exists()) {
-            mName = null;
-            return;
-        }
         try {
-            mBitmap = BitmapFactory.decodeFile(pref.mapsFolder() + "/" + name, opt);
+            mBitmap = decodeTile(pref, name, opt);
         }
         catch(OutOfMemoryError e) {
         }
@@ -227,12 +291,8 @@ public class BitmapHolder {
         opt.inPreferredConfig = type;
         opt.inSampleSize = sampleSize;
 
-        if(!(new File(pref.mapsFolder() + "/" + name)).exists()) {
-            mName = null;
-            return;
-        }
         try {
-            mBitmap = BitmapFactory.decodeFile(pref.mapsFolder() + "/" + name, opt);
+            mBitmap = decodeTile(pref, name, opt);
         }
         catch(OutOfMemoryError e) {
         }
@@ -354,6 +414,18 @@ public class BitmapHolder {
         mHeight = 0;
     }
     
+    /**
+     * Give bitmap to pool for reuse by a later tile decode, instead of freeing it.
+     * Only call when this bitmap will not be drawn any more.
+     */
+    public void release() {
+        BitmapPool.getInstance().put(mBitmap);
+        mBitmap = null;
+        mName = null;
+        mWidth = 0;
+        mHeight = 0;
+    }
+
     /**
      * @return
      */
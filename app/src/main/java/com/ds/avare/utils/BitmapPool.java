@@ -0,0 +1,173 @@
+/*
+Copyright (c) 2015, Apps4Av Inc. (apps4av.com)
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+    * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+    *     * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+    *
+    *     THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.ds.avare.utils;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.os.SystemClock;
+
+import java.util.LinkedList;
+
+/**
+ * A fixed size pool of bitmaps that are no longer shown, so decoding a new tile can reuse
+ * one through BitmapFactory.Options.inBitmap instead of allocating.
+ * Also counts allocations so steady state reuse can be verified.
+ *
+ * @author zkhan
+ */
+public class BitmapPool {
+
+    /*
+     * Enough for tiles evicted during a pan while new ones decode.
+     */
+    private static final int SIZE = 16;
+
+    private static final long MINUTE = 60 * 1000;
+
+    private static BitmapPool mInstance = null;
+
+    private LinkedList<Bitmap> mPool;
+
+    private long mAllocations;
+    private long mReuses;
+    private int mAllocationsThisMinute;
+    private int mAllocationsLastMinute;
+    private long mMinuteStart;
+
+    private BitmapPool() {
+        mPool = new LinkedList<Bitmap>();
+        mAllocations = 0;
+        mReuses = 0;
+        mAllocationsThisMinute = 0;
+        mAllocationsLastMinute = 0;
+        mMinuteStart = SystemClock.elapsedRealtime();
+    }
+
+    /*
+     * Create once
+     */
+    public static synchronized BitmapPool getInstance() {
+        if(mInstance == null) {
+            mInstance = new BitmapPool();
+        }
+        return mInstance;
+    }
+
+    /**
+     * inBitmap needs Honeycomb
+     * @return
+     */
+    public static boolean isSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB;
+    }
+
+    /**
+     * Take a bitmap out of pool to decode into
+     * @param width
+     * @param height
+     * @param config
+     * @return null if none of this kind in pool
+     */
+    public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        for(Bitmap b : mPool) {
+            if(b.getWidth() == width && b.getHeight() == height && b.getConfig() == config) {
+                mPool.remove(b);
+                return b;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Give a bitmap no longer in use to the pool. Oldest in pool is recycled when pool is full.
+     * @param b
+     */
+    public synchronized void put(Bitmap b) {
+        if(null == b || b.isRecycled()) {
+            return;
+        }
+        if(!isSupported() || !b.isMutable()) {
+            b.recycle();
+            return;
+        }
+        if(mPool.size() >= SIZE) {
+            mPool.removeFirst().recycle();
+        }
+        mPool.addLast(b);
+    }
+
+    /**
+     * Count a decode that made a new bitmap
+     */
+    public synchronized void countAllocation() {
+        mAllocations++;
+        rollMinute();
+        mAllocationsThisMinute++;
+    }
+
+    /**
+     * Count a decode that reused a bitmap from pool
+     */
+    public synchronized void countReuse() {
+        mReuses++;
+        rollMinute();
+    }
+
+    /**
+     *
+     */
+    private void rollMinute() {
+        long now = SystemClock.elapsedRealtime();
+        if(now - mMinuteStart >= MINUTE) {
+            // a whole minute or more went by with no decodes
+            mAllocationsLastMinute = (now - mMinuteStart >= 2 * MINUTE) ? 0 : mAllocationsThisMinute;
+            mAllocationsThisMinute = 0;
+            mMinuteStart = now;
+        }
+    }
+
+    /**
+     * Bitmaps allocated by decodes in last full minute. Should be 0 when panning in steady state.
+     * @return
+     */
+    public synchronized int getAllocationsPerMinute() {
+        rollMinute();
+        return mAllocationsLastMinute;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public synchronized long getAllocations() {
+        return mAllocations;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public synchronized long getReuses() {
+        return mReuses;
+    }
+
+    /**
+     * Free all memory held in pool
+     */
+    public synchronized void clear() {
+        for(Bitmap b : mPool) {
+            b.recycle();
+        }
+        mPool.clear();
+    }
+}
@@ -26,22 +26,18 @@ import android.util.TypedValue;
 import android.view.WindowManager;
 
 import com.ds.avare.R;
-import com.ds.avare.shapes.TFRShape;
 import com.ds.avare.storage.Preferences;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
-import java.util.Date;
 import java.util.GregorianCalendar;
-import java.util.LinkedList;
 import java.util.Locale;
 import java.util.TimeZone;
 
@@ -520,31 +516,6 @@ public class Helper {
     }
     
 
-    /**
-     * 
-     * @param filename
-     */
-    private static String readFromFile(String filename) {
-        File file = new File(filename);
-        byte b[] = null;
-        try {
-            if(file.exists()) {
-                b = new byte[(int)file.length()];
-                InputStream fi = new FileInputStream(file);              
-                fi.read(b);
-                fi.close();
-            }
-        }
-        catch (Exception e) {
-            return null;
-        }
-        
-        if(null != b) {
-            return new String(b);
-        }
-        return null;
-    }
-
     /**
      *
      * @param filename
@@ -564,83 +535,6 @@ public class Helper {
         return null;
     }
 
-    /**
-     * 
-     * @param ctx
-     * @return
-     */
-    public static LinkedList<TFRShape> getShapesInTFR(Context ctx) {
-        
-        /*
-         * Create a shapes list
-         */
-        LinkedList<TFRShape> shapeList = new LinkedList<TFRShape>();
-
-        String filename = new Preferences(ctx).mapsFolder() + "/tfr.txt";
-        String filenameManifest = new Preferences(ctx).mapsFolder() + "/TFRs";
-        String data = readFromFile(filename);
-        String dataManifest = readTimestampFromFile(filenameManifest);
-        if(null != data && null != dataManifest) {
-            /*
-             * Find date of last file download
-             */
-            File file = new File(filename);
-
-            // Find date of TFRs of format 09_03_2015_15:30_UTC, first line in manifest
-            SimpleDateFormat format = new SimpleDateFormat("MM_dd_yyyy_HH:mm", Locale.getDefault());
-
-            Date time;
-            try {
-                time = format.parse(dataManifest.replace("_UTC", "")); // internal times of products in UTC
-            }
-            catch (Exception e) {
-                // nothing to return
-                return shapeList;
-            }
-
-            /*
-             * Now read from file
-             */
-            String tokens[] = data.split(",");
-            TFRShape shape = null;
-            /*
-             * Add shapes from latitude, longitude
-             */
-            for(int id = 0; id < tokens.length; id++) {
-                if(tokens[id].contains("TFR:: ")) {
-                    if(null != shape) {
-                        shape.makePolygon();
-                        shapeList.add(shape);
-                    }                                 
-                    shape = new TFRShape(tokens[id].replace(
-                            "TFR:: ", "@ " + time.toString()).
-                            replace("Top", "\n" + "Top      ").
-                            replace("Low", "\n" + "Bottom   ").
-                            replace("Eff", "\n" + "Effective").
-                            replace("Exp", "\n" + "Expires  "), time);
-                    continue;
-                }
-                try {
-                    /*
-                     * If we get bad input from Govt. site. 
-                     */
-                    shape.add(Double.parseDouble(tokens[id + 1]),
-                            Double.parseDouble(tokens[id]), false);
-                }
-                catch (Exception e) {
-                    
-                }
-                id++;
-            }
-            if(null != shape) {
-                shape.makePolygon();
-                shapeList.add(shape);
-            }
-        }
-        
-        return shapeList;
-    }  
-
     /**
      * 
      * @param freq
@@ -0,0 +1,200 @@
+/*
+Copyright (c) 2015, Apps4Av Inc. (apps4av.com)
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+    * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+    *     * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+    *
+    *     THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.ds.avare.utils;
+
+/**
+ * Hash map with primitive long keys, open addressing with linear probing.
+ * No boxing of keys and no entry objects, so lookups do not allocate.
+ * Not thread safe.
+ *
+ * @author zkhan
+ */
+public class LongHashMap<V> {
+
+    private static final long FREE = Long.MIN_VALUE;
+
+    private long mKeys[];
+    private Object mValues[];
+    private int mSize;
+    private int mMask;
+
+    /**
+     *
+     * @param capacity expected number of entries
+     */
+    public LongHashMap(int capacity) {
+        int len = 8;
+        // keep load under half
+        while(len < capacity * 2) {
+            len <<= 1;
+        }
+        allocate(len);
+    }
+
+    private void allocate(int len) {
+        mKeys = new long[len];
+        mValues = new Object[len];
+        mMask = len - 1;
+        mSize = 0;
+        for(int i = 0; i < len; i++) {
+            mKeys[i] = FREE;
+        }
+    }
+
+    /**
+     * Mix bits so keys that differ only in high bits spread
+     */
+    private int slot(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return (int)key & mMask;
+    }
+
+    /**
+     *
+     * @param key must not be Long.MIN_VALUE
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        int i = slot(key);
+        while(true) {
+            long k = mKeys[i];
+            if(k == key) {
+                return (V)mValues[i];
+            }
+            if(k == FREE) {
+                return null;
+            }
+            i = (i + 1) & mMask;
+        }
+    }
+
+    /**
+     *
+     * @param key
+     * @return
+     */
+    public boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    /**
+     *
+     * @param key must not be Long.MIN_VALUE
+     * @param value not null
+     * @return previous value
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        if(key == FREE) {
+            throw new IllegalArgumentException("Reserved key");
+        }
+        int i = slot(key);
+        while(true) {
+            long k = mKeys[i];
+            if(k == key) {
+                V old = (V)mValues[i];
+                mValues[i] = value;
+                return old;
+            }
+            if(k == FREE) {
+                mKeys[i] = key;
+                mValues[i] = value;
+                mSize++;
+                if(mSize * 2 > mKeys.length) {
+                    grow();
+                }
+                return null;
+            }
+            i = (i + 1) & mMask;
+        }
+    }
+
+    /**
+     *
+     * @param key
+     * @return removed value
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        int i = slot(key);
+        while(true) {
+            long k = mKeys[i];
+            if(k == FREE) {
+                return null;
+            }
+            if(k == key) {
+                break;
+            }
+            i = (i + 1) & mMask;
+        }
+        V old = (V)mValues[i];
+        mSize--;
+
+        /*
+         * Shift back entries of the probe chain so lookups do not stop at a hole
+         */
+        int hole = i;
+        int j = i;
+        while(true) {
+            j = (j + 1) & mMask;
+            long k = mKeys[j];
+            if(k == FREE) {
+                break;
+            }
+            int home = slot(k);
+            // move if home is not cyclically in (hole, j]
+            if(hole <= j ? (home <= hole || home > j) : (home <= hole && home > j)) {
+                mKeys[hole] = k;
+                mValues[hole] = mValues[j];
+                hole = j;
+            }
+        }
+        mKeys[hole] = FREE;
+        mValues[hole] = null;
+        return old;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     *
+     */
+    public void clear() {
+        for(int i = 0; i < mKeys.length; i++) {
+            mKeys[i] = FREE;
+            mValues[i] = null;
+        }
+        mSize = 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void grow() {
+        long keys[] = mKeys;
+        Object values[] = mValues;
+        allocate(keys.length * 2);
+        for(int i = 0; i < keys.length; i++) {
+            if(keys[i] != FREE) {
+                put(keys[i], (V)values[i]);
+            }
+        }
+    }
+}
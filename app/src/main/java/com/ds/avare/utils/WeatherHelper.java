@@ -11,7 +11,7 @@ Redistribution and use in source and binary forms, with or without modification,
 */
 package com.ds.avare.utils;
 
-import java.util.LinkedList;
+import java.util.List;
 import java.util.Locale;
 
 
@@ -704,7 +704,7 @@ public class WeatherHelper {
      * @param elevation
      * @return
      */
-    public static String getBestRunway(String metar, LinkedList<String> runways) {
+    public static String getBestRunway(String metar, List<String> runways) {
         
         if(null == runways || null == metar) {
             return "";
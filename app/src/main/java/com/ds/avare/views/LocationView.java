@@ -32,11 +32,14 @@ import android.view.ViewConfiguration;
 import com.ds.avare.R;
 import com.ds.avare.StorageService;
 import com.ds.avare.adsb.NexradBitmap;
+import com.ds.avare.adsb.NexradPlayer;
 import com.ds.avare.adsb.Traffic;
 import com.ds.avare.gps.GpsParams;
 import com.ds.avare.place.Boundaries;
 import com.ds.avare.place.Destination;
+import com.ds.avare.place.Plan;
 import com.ds.avare.place.Runway;
+import com.ds.avare.position.Coordinate;
 import com.ds.avare.position.Movement;
 import com.ds.avare.position.Origin;
 import com.ds.avare.position.Pan;
@@ -45,12 +48,15 @@ import com.ds.avare.position.Scale;
 import com.ds.avare.shapes.DrawingContext;
 import com.ds.avare.shapes.Layer;
 import com.ds.avare.shapes.MetShape;
+import com.ds.avare.shapes.ShapeFileLayer;
 import com.ds.avare.shapes.ShapeFileShape;
+import com.ds.avare.shapes.ShapeIndex;
 import com.ds.avare.shapes.TFRShape;
 import com.ds.avare.shapes.Tile;
 import com.ds.avare.shapes.TileMap;
 import com.ds.avare.shapes.TrackShape;
 import com.ds.avare.storage.DataSource;
+import com.ds.avare.storage.PointInfo;
 import com.ds.avare.storage.Preferences;
 import com.ds.avare.touch.GestureInterface;
 import com.ds.avare.touch.LongTouchDestination;
@@ -62,7 +68,6 @@ import com.ds.avare.utils.InfoLines.InfoLineFieldLoc;
 import com.ds.avare.utils.NavComments;
 import com.ds.avare.utils.WeatherHelper;
 import com.ds.avare.weather.AdsbWeatherCache;
-import com.ds.avare.weather.AirSigMet;
 import com.ds.avare.weather.Airep;
 import com.ds.avare.weather.Metar;
 import com.ds.avare.weather.Taf;
@@ -73,7 +78,6 @@ import org.metalev.multitouch.controller.MultiTouchController.MultiTouchObjectCa
 import org.metalev.multitouch.controller.MultiTouchController.PointInfo;
 import org.metalev.multitouch.controller.MultiTouchController.PositionAndScale;
 
-import java.util.LinkedList;
 import java.util.List;
 
 /**
@@ -130,6 +134,12 @@ public class LocationView extends View implements MultiTouchObjectCanvas<Object>
     private  String                     mLayerType;
     private Layer                       mLayer;
 
+    /*
+     * Plays ADS-B NEXRAD loop for NEXRAD Loop layer
+     */
+    private NexradPlayer                mNexradPlayer;
+    private static final String         LAYER_NEXRAD_LOOP = "NEXRAD Loop";
+
     /**
      * Task that finds closets airport.
      */
@@ -234,6 +244,7 @@ public class LocationView extends View implements MultiTouchObjectCanvas<Object>
         mOrigin = new Origin();
         mMovement = new Movement();
         mErrorStatus = null;
+        mNexradPlayer = new NexradPlayer();
         mMacro = 1;
         mDragPlanPoint = -1;
         mImageDataSource = null;
@@ -622,7 +633,7 @@ public class LocationView extends View implements MultiTouchObjectCanvas<Object>
      * @param ctx
      */
     private void drawShapes(Canvas canvas, DrawingContext ctx) {
-        ShapeFileShape.draw(ctx, mService.getShapeShapes(), null == mPointProjection);
+        ShapeFileShape.draw(ctx, mService.getShapeLayer(), null == mPointProjection);
     }
 
     /**
@@ -645,17 +656,21 @@ public class LocationView extends View implements MultiTouchObjectCanvas<Object>
         }
 
         if(ctx.pref.useAdsbWeather()) {
-            if (mLayerType.equals("NEXRAD")) {
+            if (mLayerType.equals("NEXRAD") || mLayerType.equals(LAYER_NEXRAD_LOOP)) {
                 NexradBitmap.draw(ctx, mService.getAdsbWeather().getNexrad(),
-                        mService.getAdsbWeather().getNexradConus(), null == mPointProjection);
+                        mService.getAdsbWeather().getNexradConus(), null == mPointProjection, mNexradPlayer);
+                if(mNexradPlayer.isPlaying()) {
+                    // next frame
+                    postInvalidateDelayed(mNexradPlayer.getDelay());
+                }
             }
             else if (mLayerType.equals("METAR")) {
-                AdsbWeatherCache.drawMetars(ctx, mService.getAdsbWeather().getAllMetars(), null == mPointProjection);
+                AdsbWeatherCache.drawMetars(ctx, mService.getAdsbWeather(), null == mPointProjection);
             }
         }
         else {
 
-            if (mLayerType.equals("NEXRAD")) {
+            if (mLayerType.equals("NEXRAD") || mLayerType.equals(LAYER_NEXRAD_LOOP)) {
                 // draw nexrad
                 mLayer = mService.getRadarLayer();
             } else if (mLayerType.equals("METAR")) {
@@ -685,8 +700,11 @@ public class LocationView extends View implements MultiTouchObjectCanvas<Object>
      * @param ctx
      */
     private void drawTraffic(Canvas canvas, DrawingContext ctx) {
-        Traffic.draw(ctx, mService.getTrafficCache().getTraffic(),
+        Traffic.draw(ctx, mService.getTrafficCache().getTraffic(
+                        ctx.origin.getLonScreenLeft(), ctx.origin.getLatScreenBot(),
+                        ctx.origin.getLonScreenRight(), ctx.origin.getLatScreenTop()),
                 mService.getTrafficCache().getOwnAltitude(), mGpsParams, mPref.getAircraftICAOCode(), null == mPointProjection);
+        mService.getTrafficCache().markDrawn();
     }
 
     /**
@@ -984,6 +1002,18 @@ public class LocationView extends View implements MultiTouchObjectCanvas<Object>
         mGpsParams = params;
 
         updateCoordinates();
+
+        /*
+         * Get tiles ahead of us in cache before they come on screen
+         */
+        if(mService != null) {
+            Plan plan = mService.getPlan();
+            Coordinate route[] = null;
+            if(plan != null && plan.isActive()) {
+                route = plan.getCoordinates();
+            }
+            mService.getTiles().prefetch(mGpsParams, mScale, route);
+        }
         
         /*
          * Database query for new location / pan location.
@@ -1104,7 +1134,9 @@ public class LocationView extends View implements MultiTouchObjectCanvas<Object>
                         String type = Boundaries.getChartType(index);
 
                         mGpsTile = t.gpsTile;
-                        mOnChart = type + "\n" + t.chart;
+                        if(t.chart != null) {
+                            mOnChart = type + "\n" + t.chart;
+                        }
                         /*
                          * And pan
                          */
@@ -1130,11 +1162,12 @@ public class LocationView extends View implements MultiTouchObjectCanvas<Object>
         private Double lat;
         private String tfr = "";
         private String textMets = "";
+        private String textShapes;
         private String sua;
         private String layer;
-        private LinkedList<Airep> aireps;
-        private LinkedList<String> freq;
-        private LinkedList<String> runways;
+        private List<Airep> aireps;
+        private List<String> freq;
+        private List<String> runways;
         private Taf taf;
         private WindsAloft wa;
         private Metar metar;
@@ -1170,79 +1203,62 @@ public class LocationView extends View implements MultiTouchObjectCanvas<Object>
             /*
              * Get TFR tfr if touched on its top
              */
-            LinkedList<TFRShape> shapes = null;
-            List<AirSigMet> mets = null;
+            ShapeIndex<TFRShape> shapes = null;
+            ShapeIndex<MetShape> mets = null;
             if(null != mService) {
-                shapes = mService.getTFRShapes();
+                shapes = mService.getTFRShapeIndex();
                 if(!mPref.useAdsbWeather()) {
-                    mets = mService.getInternetWeatherCache().getAirSigMet();
+                    mets = mService.getInternetWeatherCache().getAirSigMetIndex();
                 }
             }
             if(null != shapes) {
-                for(int shape = 0; shape < shapes.size(); shape++) {
-                    TFRShape cshape = shapes.get(shape);
-                    /*
-                     * Set TFR tfr
-                     */
-                    String txt = cshape.getTextIfTouched(lon, lat);
-                    if(null != txt) {
-                        tfr += txt + "\n--\n";
-                    }
+                /*
+                 * Set TFR tfr
+                 */
+                for(TFRShape cshape : shapes.findTouched(lon, lat)) {
+                    tfr += cshape.getLabel() + "\n--\n";
                 }
             }
             /*
              * Air/sigmets
              */
             if(null != mets) {
-                for(int i = 0; i < mets.size(); i++) {
-                    MetShape cshape = mets.get(i).shape;
-                    if(null != cshape) {
-                        /*
-                         * Set MET tfr
-                         */
-                        String txt = cshape.getTextIfTouched(lon, lat);
-                        if(null != txt) {
-                            textMets += txt + "\n--\n";
-                        }
-                    }
+                /*
+                 * Set MET tfr
+                 */
+                for(MetShape cshape : mets.findTouched(lon, lat)) {
+                    textMets += cshape.getLabel() + "\n--\n";
                 }
-            }            
+            }
+
+            /*
+             * User shape file attributes
+             */
+            ShapeFileLayer shapeLayer = mService.getShapeLayer();
+            if(null != shapeLayer) {
+                textShapes = shapeLayer.getTextIfTouched(lon, lat);
+            }
 
-            airport = mService.getDBResource().findClosestAirportID(lon, lat);
-            if(isCancelled()) {
+            /*
+             * All database lookups at once. ADSB weather comes from its cache, so skip it here.
+             */
+            PointInfo info = mService.getDBResource().getPointInfo(lon, lat, !mPref.useAdsbWeather());
+            if(isCancelled() || null == info) {
                 return "";
             }
 
+            airport = info.getAirport();
             if(null == airport) {
                 airport = "" + Helper.truncGeo(lat) + "&" + Helper.truncGeo(lon);
             }
             else {
-                freq = mService.getDBResource().findFrequencies(airport);
-                if(isCancelled()) {
-                    return "";
-                }
-            
-                taf = mService.getDBResource().getTAF(airport);
-                if(isCancelled()) {
-                    return "";
-                }
-                
-                metar = mService.getDBResource().getMETAR(airport);   
-                if(isCancelled()) {
-                    return "";
-                }
-            
-                runways = mService.getDBResource().findRunways(airport);
-                if(isCancelled()) {
-                    return "";
-                }
-                
-                elev = mService.getDBResource().findElev(airport);
-                if(isCancelled()) {
-                    return "";
-                }
+                freq = info.getFrequencies();
+                taf = info.getTaf();
+                metar = info.getMetar();
+                runways = info.getRunways();
+                elev = info.getElevation();
 
-                LinkedList<String> fl = mService.getDBResource().findFuelCost(airport);
+                List<String> fl = info.getFuel();
                 if(fl.size() == 0) {
                 	// If fuel not available, show its not
                 	fuel = mContext.getString(R.string.NotAvailable);
@@ -1254,11 +1270,8 @@ public class LocationView extends View implements MultiTouchObjectCanvas<Object>
                 for(String s : fl) {
                 	fuel += s + "\n\n";
                 }
-                if(isCancelled())
-                    return "";
-                
-                
-                LinkedList<String> cm = mService.getDBResource().findRatings(airport);
+
+                List<String> cm = info.getRatings();
                 if(cm.size() == 0) {
                 	// If ratings not available, show its not
                 	ratings = mContext.getString(R.string.NotAvailable);
@@ -1270,35 +1283,19 @@ public class LocationView extends View implements MultiTouchObjectCanvas<Object>
                 for(String s : cm) {
                 	ratings += s + "\n\n";
                 }
-                if(isCancelled())
-                    return "";
             }
             
             /*
              * ADSB gets this info from weather cache
              */
             if(!mPref.useAdsbWeather()) {              
-                aireps = mService.getDBResource().getAireps(lon, lat);
-                if(isCancelled()) {
-                    return "";
-                }
-                
-                wa = mService.getDBResource().getWindsAloft(lon, lat);
-                if(isCancelled()) {
-                    return "";
-                }
-                
-                sua = mService.getDBResource().getSua(lon, lat);
-                if(isCancelled()) {
-                    return "";
-                }
+                aireps = info.getAireps();
+                wa = info.getWindsAloft();
+                sua = info.getSua();
 
                 if(mLayer != null) {
                     layer = mLayer.getDate();
                 }
-                if(isCancelled()) {
-                    return "";
-                }
             }    
             
             mPointProjection = new Projection(mGpsParams.getLongitude(), mGpsParams.getLatitude(), lon, lat);
@@ -1361,6 +1358,9 @@ public class LocationView extends View implements MultiTouchObjectCanvas<Object>
                 mLongTouchDestination.wa = wa;
                 mLongTouchDestination.freq = freq;
                 mLongTouchDestination.sua = sua;
+                if(null != textShapes) {
+                    layer = (null == layer ? "" : layer + "\n--\n") + textShapes;
+                }
                 mLongTouchDestination.layer = layer;
                 mLongTouchDestination.fuel = fuel;
                 mLongTouchDestination.ratings = ratings;
@@ -1572,10 +1572,22 @@ public class LocationView extends View implements MultiTouchObjectCanvas<Object>
 
     public void setLayerType(String type) {
         mLayerType = type;
+        if(mLayerType.equals(LAYER_NEXRAD_LOOP)) {
+            mNexradPlayer.start();
+        }
+        else if(mNexradPlayer.isPlaying()) {
+            mNexradPlayer.stop();
+            if(mService != null) {
+                // free loop tile bitmaps
+                mService.getAdsbWeather().getNexrad().getPlayback().clear();
+                mService.getAdsbWeather().getNexradConus().getPlayback().clear();
+            }
+        }
+
         if(mService == null) {
 
         }
-        else if(mLayerType.equals("NEXRAD")) {
+        else if(mLayerType.equals("NEXRAD") || mLayerType.equals(LAYER_NEXRAD_LOOP)) {
             mService.getRadarLayer().parse();
         }
         else if(mLayerType.equals("METAR")) {
@@ -23,48 +23,55 @@ import com.ds.avare.position.Origin;
 import com.ds.avare.shapes.DrawingContext;
 import com.ds.avare.storage.DataSource;
 import com.ds.avare.storage.Preferences;
-import com.ds.avare.utils.RateLimitedBackgroundQueue;
 import com.ds.avare.utils.WeatherHelper;
 
 import java.sql.Date;
 import java.text.SimpleDateFormat;
-import java.util.HashMap;
+import java.util.Collection;
 import java.util.LinkedList;
 import java.util.Locale;
-import java.util.Set;
 import java.util.TimeZone;
 
 /**
  * 
  * This is where all ADSB weather is collected.
+ * Reports are kept in synchronized stores in arrival order and indexed by position, so this
+ * can be updated from the handler while drawing and long press read it.
  * @author zkhan
  *
  */
 public class AdsbWeatherCache {
 
-    private HashMap<String, Taf> mTaf;
-    private HashMap<String, Metar> mMetar;
-    private HashMap<String, Airep> mAirep;
-    private HashMap<String, WindsAloft> mWinds;
+    private WeatherStore<Taf> mTaf;
+    private WeatherStore<Metar> mMetar;
+    private WeatherStore<Airep> mAirep;
+    private WeatherStore<WindsAloft> mWinds;
     private NexradImage mNexrad;
     private NexradImageConus mNexradConus;
     private Preferences mPref;
-    private RateLimitedBackgroundQueue mMetarQueue;
+    private MetarLocator mMetarLocator;
 
     /**
      * 
      */
     public AdsbWeatherCache(Context context, StorageService service) {
         mPref = new Preferences(context);
-        mTaf = new HashMap<String, Taf>();
-        mMetar = new HashMap<String, Metar>();
-        mAirep = new HashMap<String, Airep>();
-        mWinds = new HashMap<String, WindsAloft>();
+        mTaf = new WeatherStore<Taf>();
+        mMetar = new WeatherStore<Metar>();
+        mAirep = new WeatherStore<Airep>();
+        mWinds = new WeatherStore<WindsAloft>();
         mNexrad = new NexradImage();
-        mMetarQueue = new RateLimitedBackgroundQueue(service);
+        mMetarLocator = new MetarLocator(service);
         mNexradConus = new NexradImageConus();
     }
 
+    /**
+     * Stop background work
+     */
+    public void stop() {
+        mMetarLocator.stop();
+    }
+
     /**
      * 
      * @return
@@ -101,8 +108,30 @@ public class AdsbWeatherCache {
         m.time = sdf.format(dt) + "Z";
         m.flightCategory = flightCategory;
         m.timestamp = System.currentTimeMillis();
-        mMetar.put(location, m);
-        mMetarQueue.insertMetarInQueue(m); // This will slowly make a metar map
+
+        double lonlat[] = new double[2];
+        if(mMetar.getPosition(location, lonlat) || mMetarLocator.find(location, lonlat)) {
+            // station already located, draw this one right away
+            m.lon = lonlat[0];
+            m.lat = lonlat[1];
+            mMetar.put(location, m.timestamp, m.lon, m.lat, m);
+            return;
+        }
+        mMetar.put(location, m.timestamp, m);
+        mMetarLocator.locate(m); // placed on map when found
+    }
+
+    /**
+     * Metars whose lon/lat were found, put them on the map
+     * @param metars
+     */
+    public void placeMetars(Collection<Metar> metars) {
+        for(Metar m : metars) {
+            if(0 != m.lat || 0 != m.lon) {
+                // only if not replaced by a newer one meanwhile
+                mMetar.place(m.stationId, m, m.lon, m.lat);
+            }
+        }
     }
 
 
@@ -125,21 +154,17 @@ public class AdsbWeatherCache {
     /**
      * Draw metar map from ADSB
      * @param ctx
-     * @param map
+     * @param cache
      * @param shouldDraw
      */
-    public static void drawMetars(DrawingContext ctx, HashMap<String, Metar> map, boolean shouldDraw) {
+    public static void drawMetars(DrawingContext ctx, AdsbWeatherCache cache, boolean shouldDraw) {
         if(0 == ctx.pref.showLayer() || (!shouldDraw) || (!ctx.pref.useAdsbWeather())) {
             // This shows only for metar layer, and when adsb is used
             return;
         }
 
-        Set<String> keys = map.keySet();
-        for(String key : keys) {
-            Metar m = map.get(key);
-            if(!isOnScreen(ctx.origin, m.lat, m.lon)) {
-                continue;
-            }
+        LinkedList<Metar> metars = cache.getMetars(ctx.origin);
+        for(Metar m : metars) {
             float x = (float)ctx.origin.getOffsetX(m.lon);
             float y = (float)ctx.origin.getOffsetY(m.lat);
             ctx.paint.setColor(WeatherHelper.metarColor(m.flightCategory));
@@ -150,11 +175,21 @@ public class AdsbWeatherCache {
     }
 
     /**
-     *
+     * Located metars on screen
+     * @param origin
      * @return
      */
-    public HashMap<String, Metar> getAllMetars() {
-        return mMetar;
+    public LinkedList<Metar> getMetars(Origin origin) {
+        return mMetar.getInBox(origin.getLonScreenLeft(), origin.getLatScreenBot(),
+                origin.getLonScreenRight(), origin.getLatScreenTop());
+    }
+
+    /**
+     *
+     * @return all metars, including ones not located yet
+     */
+    public LinkedList<Metar> getAllMetars() {
+        return mMetar.getAll();
     }
 
     /**
@@ -175,7 +210,7 @@ public class AdsbWeatherCache {
         sdf.setTimeZone(TimeZone.getTimeZone("gmt"));
         f.time = sdf.format(dt) + "Z";
         f.timestamp = System.currentTimeMillis();
-        mTaf.put(location, f);        
+        mTaf.put(location, f.timestamp, f);
     }
     
     /**
@@ -208,7 +243,7 @@ public class AdsbWeatherCache {
         a.time = sdf.format(dt) + "Z";
         a.timestamp = System.currentTimeMillis();
         
-        mAirep.put(location, a);
+        mAirep.put(location, a.timestamp, a.lon, a.lat, a);
     }
     
     /**
@@ -256,7 +291,7 @@ public class AdsbWeatherCache {
         w.lon = coords[0];
         w.lat = coords[1];
         w.timestamp = System.currentTimeMillis();
-        mWinds.put(location, w);
+        mWinds.put(location, w.timestamp, w.lon, w.lat, w);
     }
     
     /**
@@ -265,19 +300,19 @@ public class AdsbWeatherCache {
      * @param block
      * @param empty
      * @param isConus
-     * @param data
+     * @param runs block pixels as (color, count) pairs, see NexradBitmap
      * @param cols
      * @param rows
      */
-    public void putImg(long time, int block, int empty[], boolean isConus, int data[], int cols, int rows) {
+    public void putImg(long time, int block, int empty[], boolean isConus, int runs[], int cols, int rows) {
         if(!mPref.useAdsbWeather()) {
             return;
         }
         if(isConus) {
-            mNexradConus.putImg(time, block, empty, isConus, data, cols, rows);            
+            mNexradConus.putImg(time, block, empty, isConus, runs, cols, rows);
         }
         else {
-            mNexrad.putImg(time, block, empty, isConus, data, cols, rows);            
+            mNexrad.putImg(time, block, empty, isConus, runs, cols, rows);
         }
     }
 
@@ -311,22 +346,14 @@ public class AdsbWeatherCache {
         LinkedList<Airep> ret = new LinkedList<Airep>();
         
         /*
-         * Find closest aireps
+         * Find closest aireps, same box as in database helper
          */
-        for(Airep a : mAirep.values()) {
-            
-            /*
-             * Same formula as in database helper
-             */
-            if(
-                    (a.lat > (lat - Airep.RADIUS)) && (a.lat < (lat + Airep.RADIUS)) &&
-                    (a.lon > (lon - Airep.RADIUS)) && (a.lon < (lon + Airep.RADIUS))) {
-                Airep n = new Airep(a);
-                ret.add(n);
-            }
-            
+        LinkedList<Airep> near = mAirep.getInBox(lon - Airep.RADIUS, lat - Airep.RADIUS,
+                lon + Airep.RADIUS, lat + Airep.RADIUS);
+        for(Airep a : near) {
+            Airep n = new Airep(a);
+            ret.add(n);
         }
-
         
         return ret;
     }
@@ -339,24 +366,10 @@ public class AdsbWeatherCache {
      */
     public WindsAloft getWindsAloft(double lon, double lat) {
         
-        WindsAloft toret = null;
-        double oldDistance = 1E10;
-        
         /*
          * Find closest wind
          */
-        for(WindsAloft w : mWinds.values()) {
-            float mlon = w.lon;
-            float mlat = w.lat;
-            /*
-             * Distance less? use this one
-             */
-            double dis = (mlon - lon) * (mlon - lon) + (mlat - lat) * (mlat - lat);
-            if(oldDistance > dis) {
-                oldDistance = dis;
-                toret = w;
-            } 
-        }
+        WindsAloft toret = mWinds.getNearest(lon, lat);
 
         /*
          * Copy it because we change the title
@@ -377,71 +390,14 @@ public class AdsbWeatherCache {
         int expiry = mPref.getExpiryTime() * 60 * 1000;
 
         /*
-         * Go at them one by one
-         * LinkedList saves against concurrent modification exception
+         * Stores are in arrival order, only the expired ones are looked at
          */
-        LinkedList<String> keys;
-        
-        /*
-         * Winds
-         */
-        keys = new LinkedList<String>();
-        for (String key : mWinds.keySet()) {
-            WindsAloft w = mWinds.get(key);
-            long diff = (now - w.timestamp) - expiry;
-            if(diff > 0) {
-                keys.add(key);
-            }
-        }
-        for(String key : keys) {
-            mWinds.remove(key);
-        }
-        
-        /*
-         * Taf
-         */
-        keys = new LinkedList<String>();
-        for (String key : mTaf.keySet()) {
-            Taf f = mTaf.get(key);
-            long diff = (now - f.timestamp) - expiry;
-            if(diff > 0) {
-                keys.add(key);
-            }
-        }
-        for(String key : keys) {
-            mTaf.remove(key);
-        }
-        
-        /*
-         * Metar
-         */
-        keys = new LinkedList<String>();
-        for (String key : mMetar.keySet()) {
-            Metar m = mMetar.get(key);
-            long diff = (now - m.timestamp) - expiry;
-            if(diff > 0) {
-                keys.add(key);
-            }
-        }
-        for(String key : keys) {
-            mMetar.remove(key);
-        }
+        long before = now - expiry;
+        mWinds.expire(before);
+        mTaf.expire(before);
+        mMetar.expire(before);
+        mAirep.expire(before);
 
-        /*
-         * Airep
-         */
-        keys = new LinkedList<String>();
-        for (String key : mAirep.keySet()) {
-            Airep a = mAirep.get(key);
-            long diff = (now - a.timestamp) - expiry;
-            if(diff > 0) {
-                keys.add(key);
-            }
-        }
-        for(String key : keys) {
-            mAirep.remove(key);
-        }
-        
         /*
          * Nexrad
          */
@@ -455,7 +411,7 @@ public class AdsbWeatherCache {
             }
         }
         for(Integer key : keyi) {
-            img.remove(key);
+            mNexrad.remove(key);
         }
     }
 }
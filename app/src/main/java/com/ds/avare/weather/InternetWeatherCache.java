@@ -14,6 +14,7 @@ package com.ds.avare.weather;
 
 import com.ds.avare.StorageService;
 import com.ds.avare.shapes.MetShape;
+import com.ds.avare.shapes.ShapeIndex;
 import com.ds.avare.storage.Preferences;
 import com.ds.avare.utils.Helper;
 
@@ -36,6 +37,7 @@ public class InternetWeatherCache {
     private WeatherTask                mWeatherTask; 
     private Thread                     mWeatherThread;
     private LinkedList<AirSigMet>      mAirSig;
+    private volatile ShapeIndex<MetShape> mAirSigIndex;
     private StorageService             mService;
     private Date                       mDate;
 
@@ -43,6 +45,7 @@ public class InternetWeatherCache {
         mWeatherTask = null;
         mWeatherThread = null;
         mAirSig = null;
+        mAirSigIndex = null;
         mService = null;
         mDate = null;
     }
@@ -95,6 +98,14 @@ public class InternetWeatherCache {
         return mAirSig;
     }
 
+    /**
+     * Index of air/sigmet shapes for touch tests
+     * @return null if not made yet
+     */
+    public ShapeIndex<MetShape> getAirSigMetIndex() {
+        return mAirSigIndex;
+    }
+
     private class WeatherTask implements Runnable {
 
         @Override
@@ -122,8 +133,8 @@ public class InternetWeatherCache {
                 /*
                  * Convert AIRMET/SIGMETS to shapes compatible coordinates
                  */
-                for(int i = 0; i < mAirSig.size(); i++) {
-                    AirSigMet asm = mAirSig.get(i);
+                LinkedList<MetShape> shapes = new LinkedList<MetShape>();
+                for(AirSigMet asm : mAirSig) {
                     /*
                      * Discard none intensity
                      */
@@ -147,7 +158,9 @@ public class InternetWeatherCache {
                         asm.shape.add(lon, lat, false);
                     }
                     asm.shape.makePolygon();
+                    shapes.add(asm.shape);
                 }
+                mAirSigIndex = new ShapeIndex<MetShape>(shapes);
             }
             catch(Exception e) {
             }
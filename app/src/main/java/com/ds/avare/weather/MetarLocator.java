@@ -0,0 +1,228 @@
+/*
+Copyright (c) 2015, Apps4Av Inc. (apps4av.com)
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+    * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+    *     * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+    *
+    *     THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.ds.avare.weather;
+
+import android.os.Process;
+
+import com.ds.avare.StorageService;
+import com.ds.avare.storage.DataSource;
+import com.ds.avare.storage.StationTable;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Finds where METAR stations are. Airports of main database are loaded once in a table in memory,
+ * so most METARs are located right when they come in. The rest are batched and looked up with SQL
+ * in background as soon as they arrive, then put on the map.
+ *
+ * @author zkhan
+ */
+public class MetarLocator {
+
+    private StorageService mService;
+    private ExecutorService mExecutor;
+    private volatile StationTable mTable;
+
+    /*
+     * Waiting to be looked up, by station ID without K
+     */
+    private final HashMap<String, Metar> mPending;
+    private boolean mScheduled;
+
+    /*
+     * Only used in background
+     */
+    private HashSet<String> mUnknown;
+    private boolean mStale;
+
+    private volatile long mFound;
+    private volatile long mQueried;
+
+    /**
+     *
+     * @param service
+     */
+    public MetarLocator(StorageService service) {
+        mService = service;
+        mTable = null;
+        mPending = new HashMap<String, Metar>();
+        mScheduled = false;
+        mUnknown = new HashSet<String>();
+        mStale = false;
+        mFound = 0;
+        mQueried = 0;
+        mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                Thread t = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        r.run();
+                    }
+                });
+                t.setName("MetarLocator");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
+        // load table before first METAR
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                getTable();
+            }
+        });
+    }
+
+    /**
+     * Find a station in table, does not wait for table or database
+     * @param station METAR station ID
+     * @param lonlat lon, lat returned here
+     * @return false if not known yet, then call locate()
+     */
+    public boolean find(String station, double lonlat[]) {
+        StationTable table = mTable;
+        if(null == table || !table.find(getId(station), lonlat)) {
+            return false;
+        }
+        mFound++;
+        return true;
+    }
+
+    /**
+     * Find where a METAR is in background, it is placed on the map when found
+     * @param metar
+     */
+    public void locate(Metar metar) {
+        synchronized(mPending) {
+            mPending.put(getId(metar.stationId), metar);
+            if(mScheduled) {
+                // goes with the batch already waiting
+                return;
+            }
+            mScheduled = true;
+        }
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        });
+    }
+
+    /**
+     *
+     * @return number of METARs located from table
+     */
+    public long getFoundCount() {
+        return mFound;
+    }
+
+    /**
+     *
+     * @return number of stations looked up with SQL
+     */
+    public long getQueriedCount() {
+        return mQueried;
+    }
+
+    /**
+     * No more lookups
+     */
+    public void stop() {
+        mExecutor.shutdownNow();
+    }
+
+    /*
+     * Locate all waiting METARs
+     */
+    private void drain() {
+        HashMap<String, Metar> metars;
+        synchronized(mPending) {
+            metars = new HashMap<String, Metar>(mPending);
+            mPending.clear();
+            mScheduled = false;
+        }
+
+        StationTable table = getTable();
+        HashMap<String, Metar> missing = new HashMap<String, Metar>();
+        double lonlat[] = new double[2];
+        for(String id : metars.keySet()) {
+            Metar m = metars.get(id);
+            if(null != table && table.find(id, lonlat)) {
+                m.lon = lonlat[0];
+                m.lat = lonlat[1];
+                mFound++;
+            }
+            else if(!mUnknown.contains(id)) {
+                missing.put(id, m);
+            }
+        }
+
+        DataSource db = mService.getDBResource();
+        if(missing.size() > 0 && null != db) {
+            db.findLonLatMetar(missing);
+            mQueried += missing.size();
+            for(String id : missing.keySet()) {
+                Metar m = missing.get(id);
+                if(0 != m.lat || 0 != m.lon) {
+                    if(StationTable.canHold(id)) {
+                        // database has more than table, it was replaced
+                        mStale = true;
+                    }
+                }
+                else {
+                    // not an airport, do not look again
+                    mUnknown.add(id);
+                }
+            }
+        }
+
+        mService.getAdsbWeather().placeMetars(metars.values());
+    }
+
+    /*
+     * Table of airports, loaded if not yet or if database changed
+     */
+    private StationTable getTable() {
+        StationTable table = mTable;
+        if(null != table && !mStale) {
+            return table;
+        }
+        DataSource db = mService.getDBResource();
+        if(null == db) {
+            return table;
+        }
+        StationTable loaded = db.getStationTable();
+        if(null != loaded && loaded.size() > 0) {
+            mTable = loaded;
+            mUnknown.clear();
+            mStale = false;
+            return loaded;
+        }
+        return table;
+    }
+
+    /*
+     * FAA database does not have K in it
+     */
+    private static String getId(String station) {
+        return station.replaceAll("^K", "");
+    }
+}
@@ -0,0 +1,350 @@
+/*
+Copyright (c) 2015, Apps4Av Inc. (apps4av.com)
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+    * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+    *     * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+    *
+    *     THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.ds.avare.weather;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+
+/**
+ * One kind of ADSB weather by station. Kept in arrival order so old reports come off the front
+ * without looking at the rest, and reports with a position go in a lon/lat grid for box
+ * and nearest lookups. All methods are synchronized, items returned are shared so copy before changing.
+ *
+ * @author zkhan
+ */
+public class WeatherStore<T> {
+
+    /*
+     * Grid cell size, degrees
+     */
+    private static final double GRID = 1.0;
+
+    /*
+     * Cells in a row of grid, more than 360 / GRID
+     */
+    private static final int GRID_ROW = 512;
+
+    /**
+     * A report and where it is
+     */
+    private static class Entry<T> {
+        private final T mItem;
+        private final long mTime;
+        private boolean mPlaced;
+        private double mLon;
+        private double mLat;
+
+        private Entry(T item, long time) {
+            mItem = item;
+            mTime = time;
+            mPlaced = false;
+        }
+    }
+
+    private LinkedHashMap<String, Entry<T>> mEntries;
+    private HashMap<Integer, ArrayList<Entry<T>>> mCells;
+    private int mPlaced;
+
+    public WeatherStore() {
+        mEntries = new LinkedHashMap<String, Entry<T>>();
+        mCells = new HashMap<Integer, ArrayList<Entry<T>>>();
+        mPlaced = 0;
+    }
+
+    /**
+     * Add or replace report of a station, position not known yet
+     * @param key station
+     * @param time arrival time, ms
+     * @param item
+     */
+    public synchronized void put(String key, long time, T item) {
+        remove(key);
+        // newest go at end
+        mEntries.put(key, new Entry<T>(item, time));
+    }
+
+    /**
+     * Add or replace report of a station at a position
+     * @param key station
+     * @param time arrival time, ms
+     * @param lon
+     * @param lat
+     * @param item
+     */
+    public synchronized void put(String key, long time, double lon, double lat, T item) {
+        put(key, time, item);
+        place(mEntries.get(key), lon, lat);
+    }
+
+    /**
+     * Position of a report found later
+     * @param key station
+     * @param item only placed if it is still the report of this station
+     * @param lon
+     * @param lat
+     */
+    public synchronized void place(String key, T item, double lon, double lat) {
+        Entry<T> e = mEntries.get(key);
+        if(null == e || e.mItem != item || e.mPlaced) {
+            return;
+        }
+        place(e, lon, lat);
+    }
+
+    /**
+     *
+     * @param key station
+     * @return null if none
+     */
+    public synchronized T get(String key) {
+        Entry<T> e = mEntries.get(key);
+        return null == e ? null : e.mItem;
+    }
+
+    /**
+     * Where the report of a station is
+     * @param key station
+     * @param lonlat lon, lat returned here
+     * @return false if no report or its position is not known
+     */
+    public synchronized boolean getPosition(String key, double lonlat[]) {
+        Entry<T> e = mEntries.get(key);
+        if(null == e || !e.mPlaced) {
+            return false;
+        }
+        lonlat[0] = e.mLon;
+        lonlat[1] = e.mLat;
+        return true;
+    }
+
+    /**
+     * Remove report of a station
+     * @param key
+     */
+    public synchronized void remove(String key) {
+        Entry<T> e = mEntries.remove(key);
+        if(null != e && e.mPlaced) {
+            unplace(e);
+        }
+    }
+
+    /**
+     * Remove reports that arrived before a time
+     * @param time ms
+     * @return number removed
+     */
+    public synchronized int expire(long time) {
+        int removed = 0;
+        Iterator<Entry<T>> it = mEntries.values().iterator();
+        while(it.hasNext()) {
+            Entry<T> e = it.next();
+            if(e.mTime >= time) {
+                // rest are newer
+                break;
+            }
+            it.remove();
+            if(e.mPlaced) {
+                unplace(e);
+            }
+            removed++;
+        }
+        return removed;
+    }
+
+    /**
+     * Reports with a position in a box, edges excluded
+     * @param lonLeft
+     * @param latBottom
+     * @param lonRight
+     * @param latTop
+     * @return
+     */
+    public synchronized LinkedList<T> getInBox(double lonLeft, double latBottom, double lonRight, double latTop) {
+        LinkedList<T> ret = new LinkedList<T>();
+
+        int col0 = getColumn(lonLeft);
+        int col1 = getColumn(lonRight);
+        int row0 = getRow(latBottom);
+        int row1 = getRow(latTop);
+        long cells = (long)(col1 - col0 + 1) * (long)(row1 - row0 + 1);
+
+        if(cells > mCells.size()) {
+            // zoomed out, fewer occupied cells than cells in box
+            for(ArrayList<Entry<T>> cell : mCells.values()) {
+                addInBox(cell, ret, lonLeft, latBottom, lonRight, latTop);
+            }
+            return ret;
+        }
+
+        for(int col = col0; col <= col1; col++) {
+            for(int row = row0; row <= row1; row++) {
+                ArrayList<Entry<T>> cell = mCells.get(getCell(col, row));
+                if(null != cell) {
+                    addInBox(cell, ret, lonLeft, latBottom, lonRight, latTop);
+                }
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Report closest to a point, distance in degrees as lon/lat were flat
+     * @param lon
+     * @param lat
+     * @return null if no report has a position
+     */
+    public synchronized T getNearest(double lon, double lat) {
+        if(0 == mPlaced) {
+            return null;
+        }
+        int col = getColumn(lon);
+        int row = getRow(lat);
+        Entry<T> best = null;
+        double bestDistance = Double.MAX_VALUE;
+
+        /*
+         * Look in rings of cells around the point. Anything in ring r + 1 is at least r cells away,
+         * stop when closest found so far is closer than that.
+         */
+        for(int r = 0; ; r++) {
+            long cells = (long)(2 * r + 1) * (long)(2 * r + 1);
+            if(cells > mCells.size()) {
+                // searched area has more cells than there are occupied cells, look at all of them
+                for(ArrayList<Entry<T>> cell : mCells.values()) {
+                    for(Entry<T> e : cell) {
+                        double dis = getDistance(e, lon, lat);
+                        if(dis < bestDistance) {
+                            bestDistance = dis;
+                            best = e;
+                        }
+                    }
+                }
+                break;
+            }
+            for(int c = col - r; c <= col + r; c++) {
+                for(int w = row - r; w <= row + r; w++) {
+                    if(Math.abs(c - col) != r && Math.abs(w - row) != r) {
+                        // inside, done in a smaller ring
+                        continue;
+                    }
+                    ArrayList<Entry<T>> cell = mCells.get(getCell(c, w));
+                    if(null == cell) {
+                        continue;
+                    }
+                    for(Entry<T> e : cell) {
+                        double dis = getDistance(e, lon, lat);
+                        if(dis < bestDistance) {
+                            bestDistance = dis;
+                            best = e;
+                        }
+                    }
+                }
+            }
+            double reach = r * GRID;
+            if(null != best && bestDistance <= reach * reach) {
+                break;
+            }
+        }
+        return null == best ? null : best.mItem;
+    }
+
+    /**
+     *
+     * @return all reports, oldest first
+     */
+    public synchronized LinkedList<T> getAll() {
+        LinkedList<T> ret = new LinkedList<T>();
+        for(Entry<T> e : mEntries.values()) {
+            ret.add(e.mItem);
+        }
+        return ret;
+    }
+
+    /**
+     *
+     * @return number of reports
+     */
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    /**
+     *
+     * @return number of reports with a position
+     */
+    public synchronized int getPlacedCount() {
+        return mPlaced;
+    }
+
+    public synchronized void clear() {
+        mEntries.clear();
+        mCells.clear();
+        mPlaced = 0;
+    }
+
+    private void place(Entry<T> e, double lon, double lat) {
+        e.mLon = lon;
+        e.mLat = lat;
+        e.mPlaced = true;
+        int key = getCell(getColumn(lon), getRow(lat));
+        ArrayList<Entry<T>> cell = mCells.get(key);
+        if(null == cell) {
+            cell = new ArrayList<Entry<T>>(4);
+            mCells.put(key, cell);
+        }
+        cell.add(e);
+        mPlaced++;
+    }
+
+    private void unplace(Entry<T> e) {
+        int key = getCell(getColumn(e.mLon), getRow(e.mLat));
+        ArrayList<Entry<T>> cell = mCells.get(key);
+        if(null != cell && cell.remove(e)) {
+            mPlaced--;
+            if(cell.isEmpty()) {
+                mCells.remove(key);
+            }
+        }
+        e.mPlaced = false;
+    }
+
+    private static <T> void addInBox(ArrayList<Entry<T>> cell, LinkedList<T> out,
+                                     double lonLeft, double latBottom, double lonRight, double latTop) {
+        for(Entry<T> e : cell) {
+            if(e.mLon > lonLeft && e.mLon < lonRight && e.mLat > latBottom && e.mLat < latTop) {
+                out.add(e.mItem);
+            }
+        }
+    }
+
+    private static double getDistance(Entry<?> e, double lon, double lat) {
+        return (e.mLon - lon) * (e.mLon - lon) + (e.mLat - lat) * (e.mLat - lat);
+    }
+
+    private static int getColumn(double lon) {
+        lon = Math.max(-180, Math.min(180, lon));
+        return (int)((lon + 180.0) / GRID);
+    }
+
+    private static int getRow(double lat) {
+        lat = Math.max(-90, Math.min(90, lat));
+        return (int)((lat + 90.0) / GRID);
+    }
+
+    private static int getCell(int column, int row) {
+        return row * GRID_ROW + column;
+    }
+}
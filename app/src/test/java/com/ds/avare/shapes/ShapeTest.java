@@ -0,0 +1,147 @@
+/*
+Copyright (c) 2015, Apps4Av Inc. (apps4av.com)
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+    * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+    *     * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+    *
+    *     THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.ds.avare.shapes;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+
+import com.ds.avare.position.Origin;
+
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Zoomed out drawing uses a simplified outline, touch tests must still use every vertex.
+ *
+ * @author zkhan
+ */
+public class ShapeTest {
+
+    private static final String LABEL = "TFR";
+
+    /*
+     * A degree square with a spike about 55 m tall out of its top edge and a notch as deep
+     * into its bottom edge. Both are far under a pixel when zoomed out.
+     */
+    private static TFRShape makeShape() {
+        TFRShape s = new TFRShape(LABEL, new Date());
+        s.add(-100, 40, false);
+        s.add(-99.5001, 40, false);
+        s.add(-99.5, 40.0005, false);
+        s.add(-99.4999, 40, false);
+        s.add(-99, 40, false);
+        s.add(-99, 41, false);
+        s.add(-99.4999, 41, false);
+        s.add(-99.5, 41.0005, false);
+        s.add(-99.5001, 41, false);
+        s.add(-100, 41, false);
+        s.makePolygon();
+        return s;
+    }
+
+    /*
+     * View with its top left at the shape, at a zoom
+     */
+    private static Origin makeView(final double pixelsPerMeter) {
+        return new Origin() {
+            @Override
+            public double getLonScreenLeft() {
+                return -100.5;
+            }
+
+            @Override
+            public double getLatScreenTop() {
+                return 41.5;
+            }
+
+            @Override
+            public double getPixelsPerMeter() {
+                return pixelsPerMeter;
+            }
+        };
+    }
+
+    private static void draw(Shape s, double pixelsPerMeter) {
+        s.drawShape(new Canvas(), makeView(pixelsPerMeter), null, null, new Paint(), false, true);
+    }
+
+    /*
+     * Vertices in the outline last drawn
+     */
+    private static int getDrawnCount(Shape s) throws Exception {
+        Field f = Shape.class.getDeclaredField("mNumPoints");
+        f.setAccessible(true);
+        return f.getInt(s);
+    }
+
+    private static void assertFullResolution(Shape s) {
+        // in the spike, outside the simplified outline
+        assertEquals(LABEL, s.getTextIfTouched(-99.5, 41.0002));
+        // in the notch, inside the simplified outline
+        assertNull(s.getTextIfTouched(-99.5, 40.0002));
+        // plain inside and outside
+        assertEquals(LABEL, s.getTextIfTouched(-99.7, 40.5));
+        assertNull(s.getTextIfTouched(-98.9, 40.5));
+    }
+
+    @Test
+    public void zoomedOutDrawsFewerVertices() throws Exception {
+        Shape s = makeShape();
+        // about 5 km a pixel
+        draw(s, 1.0 / 5000);
+        assertEquals(4, getDrawnCount(s));
+
+        // about a meter a pixel, everything shows
+        draw(s, 1.0);
+        assertEquals(s.getNumCoords(), getDrawnCount(s));
+    }
+
+    @Test
+    public void touchUsesAllVerticesWhenZoomedOut() throws Exception {
+        Shape s = makeShape();
+        assertFullResolution(s);
+
+        draw(s, 1.0 / 5000);
+        assertTrue(getDrawnCount(s) < s.getNumCoords());
+        assertFullResolution(s);
+
+        // every level once
+        for(double ppm = 1; ppm > 1e-7; ppm /= 2) {
+            draw(s, ppm);
+            assertFullResolution(s);
+        }
+    }
+
+    @Test
+    public void indexTouchUsesAllVerticesWhenZoomedOut() {
+        TFRShape s = makeShape();
+        List<TFRShape> shapes = new ArrayList<TFRShape>();
+        shapes.add(s);
+        ShapeIndex<TFRShape> index = new ShapeIndex<TFRShape>(shapes);
+        draw(s, 1.0 / 5000);
+
+        LinkedList<TFRShape> found = index.findTouched(-99.5, 41.0002);
+        assertEquals(1, found.size());
+        assertTrue(s == found.getFirst());
+        assertTrue(index.findTouched(-99.5, 40.0002).isEmpty());
+    }
+}
@@ -0,0 +1,255 @@
+/*
+Copyright (c) 2015, Apps4Av Inc. (apps4av.com)
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+    * Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+    *     * Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+    *
+    *     THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package com.ds.avare.weather;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * WeatherStore lookups against a plain scan, and use from many threads at once
+ * as the ADSB handler and drawing do.
+ *
+ * @author zkhan
+ */
+public class WeatherStoreTest {
+
+    /*
+     * A report that knows where it was put, so any report read back can be checked
+     */
+    private static class Report {
+        private final String mKey;
+        private final double mLon;
+        private final double mLat;
+
+        private Report(String key, double lon, double lat) {
+            mKey = key;
+            mLon = lon;
+            mLat = lat;
+        }
+    }
+
+    private static double getDistance(Report r, double lon, double lat) {
+        return (r.mLon - lon) * (r.mLon - lon) + (r.mLat - lat) * (r.mLat - lat);
+    }
+
+    @Test
+    public void nearestIsClosestOfAll() {
+        Random random = new Random(1);
+        WeatherStore<Report> store = new WeatherStore<Report>();
+        List<Report> all = new ArrayList<Report>();
+        for(int i = 0; i < 200; i++) {
+            // winds aloft stations, over CONUS
+            Report r = new Report("S" + i, -125 + random.nextDouble() * 58, 24 + random.nextDouble() * 25);
+            store.put(r.mKey, i, r.mLon, r.mLat, r);
+            all.add(r);
+        }
+
+        for(int i = 0; i < 2000; i++) {
+            double lon = -130 + random.nextDouble() * 70;
+            double lat = 15 + random.nextDouble() * 45;
+            double best = Double.MAX_VALUE;
+            for(Report r : all) {
+                best = Math.min(best, getDistance(r, lon, lat));
+            }
+            Report found = store.getNearest(lon, lat);
+            assertNotNull(found);
+            assertEquals(best, getDistance(found, lon, lat), 0);
+        }
+    }
+
+    @Test
+    public void nearestIsNullWithoutPositions() {
+        WeatherStore<Report> store = new WeatherStore<Report>();
+        assertNull(store.getNearest(-100, 40));
+        store.put("KBOS", 1, new Report("KBOS", 0, 0));
+        assertNull(store.getNearest(-100, 40));
+    }
+
+    @Test
+    public void boxHasReportsInsideOnly() {
+        Random random = new Random(2);
+        WeatherStore<Report> store = new WeatherStore<Report>();
+        List<Report> all = new ArrayList<Report>();
+        for(int i = 0; i < 500; i++) {
+            Report r = new Report("P" + i, -125 + random.nextDouble() * 58, 24 + random.nextDouble() * 25);
+            store.put(r.mKey, i, r.mLon, r.mLat, r);
+            all.add(r);
+        }
+
+        for(int i = 0; i < 200; i++) {
+            double w = random.nextDouble() * (0 == i % 10 ? 60 : 3);
+            double left = -130 + random.nextDouble() * 60;
+            double bottom = 20 + random.nextDouble() * 30;
+            int expected = 0;
+            for(Report r : all) {
+                if(r.mLon > left && r.mLon < left + w && r.mLat > bottom && r.mLat < bottom + w) {
+                    expected++;
+                }
+            }
+            LinkedList<Report> found = store.getInBox(left, bottom, left + w, bottom + w);
+            assertEquals(expected, found.size());
+            for(Report r : found) {
+                assertTrue(r.mLon > left && r.mLon < left + w && r.mLat > bottom && r.mLat < bottom + w);
+            }
+        }
+    }
+
+    @Test
+    public void expireRemovesOldestOnly() {
+        WeatherStore<Report> store = new WeatherStore<Report>();
+        store.put("A", 10, -100, 40, new Report("A", -100, 40));
+        store.put("B", 20, -101, 41, new Report("B", -101, 41));
+        store.put("C", 30, -102, 42, new Report("C", -102, 42));
+        // newer report of A moves it behind C
+        store.put("A", 40, -100, 40, new Report("A", -100, 40));
+
+        assertEquals(2, store.expire(35));
+        assertEquals(1, store.size());
+        assertNull(store.get("B"));
+        assertNull(store.get("C"));
+        assertNotNull(store.get("A"));
+        assertEquals(1, store.getPlacedCount());
+        assertEquals("A", store.getNearest(-102, 42).mKey);
+    }
+
+    /*
+     * Writers replace reports and move stations, one thread expires, readers look up.
+     * Nothing may throw, and after all are done the index must match the reports.
+     */
+    @Test
+    public void concurrentUse() throws Exception {
+        final WeatherStore<Report> store = new WeatherStore<Report>();
+        final int writers = 4;
+        final int readers = 3;
+        final int ops = 20000;
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        final CountDownLatch start = new CountDownLatch(1);
+        final long clock[] = new long[1];
+        List<Thread> threads = new ArrayList<Thread>();
+
+        for(int w = 0; w < writers; w++) {
+            final int seed = w;
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Random random = new Random(seed);
+                    try {
+                        start.await();
+                        for(int i = 0; i < ops; i++) {
+                            String key = "K" + random.nextInt(3000);
+                            Report r = new Report(key, -125 + random.nextDouble() * 58, 24 + random.nextDouble() * 25);
+                            long time;
+                            synchronized(clock) {
+                                time = ++clock[0];
+                            }
+                            if(0 == i % 3) {
+                                // position found later, like PIREPs
+                                store.put(key, time, r);
+                                store.place(key, r, r.mLon, r.mLat);
+                            }
+                            else {
+                                store.put(key, time, r.mLon, r.mLat, r);
+                            }
+                        }
+                    }
+                    catch (Throwable e) {
+                        errors.add(e);
+                    }
+                }
+            }));
+        }
+
+        threads.add(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    start.await();
+                    for(int i = 0; i < ops / 10; i++) {
+                        long time;
+                        synchronized(clock) {
+                            time = clock[0];
+                        }
+                        store.expire(time - 2000);
+                    }
+                }
+                catch (Throwable e) {
+                    errors.add(e);
+                }
+            }
+        }));
+
+        for(int r = 0; r < readers; r++) {
+            final int seed = 100 + r;
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Random random = new Random(seed);
+                    double lonlat[] = new double[2];
+                    try {
+                        start.await();
+                        for(int i = 0; i < ops; i++) {
+                            double lon = -125 + random.nextDouble() * 58;
+                            double lat = 24 + random.nextDouble() * 25;
+                            store.getNearest(lon, lat);
+                            for(Report found : store.getInBox(lon - 1, lat - 1, lon + 1, lat + 1)) {
+                                assertTrue(Math.abs(found.mLon - lon) < 1 && Math.abs(found.mLat - lat) < 1);
+                            }
+                            if(store.getPosition("K" + random.nextInt(3000), lonlat)) {
+                                assertTrue(lonlat[0] >= -125 && lonlat[0] <= -67);
+                            }
+                        }
+                    }
+                    catch (Throwable e) {
+                        errors.add(e);
+                    }
+                }
+            }));
+        }
+
+        for(Thread t : threads) {
+            t.start();
+        }
+        start.countDown();
+        for(Thread t : threads) {
+            t.join();
+        }
+
+        if(!errors.isEmpty()) {
+            throw new AssertionError(errors.get(0));
+        }
+
+        // every report is indexed once, where it was put
+        LinkedList<Report> all = store.getAll();
+        assertEquals(store.size(), all.size());
+        assertEquals(all.size(), store.getPlacedCount());
+        assertEquals(all.size(), store.getInBox(-180, -90, 180, 90).size());
+        double lonlat[] = new double[2];
+        for(Report r : all) {
+            assertTrue(store.getPosition(r.mKey, lonlat));
+            assertEquals(r.mLon, lonlat[0], 0);
+            assertEquals(r.mLat, lonlat[1], 0);
+            assertTrue(r == store.get(r.mKey));
+        }
+    }
+}
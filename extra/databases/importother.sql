@@ -47,3 +47,17 @@ CREATE TABLE airways(name Text, sequence Text, Latitude float, Longitude float);
 .import aw.csv airways
 
 .import ourairports.csv airports
+
+CREATE VIRTUAL TABLE airports_rtree USING rtree(id, minLon, maxLon, minLat, maxLat);
+INSERT INTO airports_rtree SELECT rowid, ARPLongitude, ARPLongitude, ARPLatitude, ARPLatitude FROM airports;
+
+CREATE VIRTUAL TABLE obs_rtree USING rtree(id, minLon, maxLon, minLat, maxLat);
+INSERT INTO obs_rtree SELECT rowid, ARPLongitude, ARPLongitude, ARPLatitude, ARPLatitude FROM obs;
+
+CREATE VIRTUAL TABLE saa_rtree USING rtree(id, minLon, maxLon, minLat, maxLat);
+INSERT INTO saa_rtree SELECT rowid, lon, lon, lat, lat FROM saa;
+
+CREATE VIRTUAL TABLE search USING fts4(Kind, LocationID, Type, FacilityName, Words);
+INSERT INTO search SELECT 'Base', LocationID, Type, FacilityName, FacilityName || ' ' || ifnull(City, '') FROM airports;
+INSERT INTO search SELECT 'Navaid', LocationID, Type, FacilityName, FacilityName FROM nav WHERE Type != 'VOT';
+INSERT INTO search SELECT 'Fix', LocationID, Type, FacilityName, '' FROM fix;